@@ -0,0 +1,32 @@
+import benchmarks.Cenario;
+
+import java.io.*;
+import java.nio.file.Files;
+
+/**
+ * Um histórico gravado com o número de mensagens informado. Cada execução abre o histórico,
+ * como a sala faz no primeiro uso, carregando as mensagens recentes, e o fecha.
+ */
+class CenarioAberturaHistorico implements Cenario {
+    private final File diretorio;
+    private final File arquivoTexto; // Não existe: não há nada a migrar
+
+    CenarioAberturaHistorico(String mensagens) throws IOException {
+        File base = Files.createTempDirectory("chat-abertura").toFile();
+        this.diretorio = new File(base, "sala");
+        this.arquivoTexto = new File(base, "sala.txt");
+        Cenarios.gerarHistorico(diretorio, Integer.parseInt(mensagens));
+    }
+
+    @Override
+    public Object executar() throws IOException {
+        HistoricoSala historico = new HistoricoSala(diretorio, arquivoTexto, ServidorChat.MENSAGENS_RECENTES, null);
+        historico.fechar();
+        return historico;
+    }
+
+    @Override
+    public void close() {
+        Cenarios.apagar(diretorio.getParentFile());
+    }
+}
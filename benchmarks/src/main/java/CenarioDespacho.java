@@ -0,0 +1,58 @@
+import benchmarks.Cenario;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Um administrador em uma sala com outro membro, "fulano", enviando sempre o mesmo comando: mede a
+ * interpretação da linha em {@link ServidorChat.Handler#processarLinha(String)}, ou do quadro
+ * equivalente em {@link ServidorChat.Handler#processarQuadro(ByteBuffer)}, e o atendimento completo,
+ * como o de um cliente real: o /filas passa pela verificação de administrador, e o /historico, as
+ * mensagens privadas e as mensagens para a sala chegam à sala. A sala começa com três páginas de histórico.
+ */
+class CenarioDespacho implements Cenario {
+    private static final String ADMINISTRADOR = "admin"; // Precisa estar em chat.admins, na configuração do benchmark
+    private final String nomeSala;
+    private final ServidorChat.Handler cliente;
+    private final ServidorChat.Handler fulano;
+    private final String linha;
+    private final ByteBuffer quadro; // Opcode e campos, sem o tamanho; null no protocolo de texto
+
+    CenarioDespacho(String linha, String protocolo) {
+        boolean binario = protocolo.equals("binario");
+        Entregas entregas = new Entregas();
+        this.linha = linha;
+        this.nomeSala = "bench-despacho";
+        this.cliente = Cenarios.conectarComo(entregas, ADMINISTRADOR, binario);
+        this.fulano = Cenarios.conectarComo(entregas, "fulano", false);
+        cliente.processarLinha("/join " + nomeSala);
+        fulano.processarLinha("/join " + nomeSala);
+        for (int i = 0; i < 3 * ServidorChat.TAMANHO_PAGINA_HISTORICO; i++) {
+            fulano.processarLinha("Mensagem " + i + " do histórico");
+        }
+        ServidorChat.sala(nomeSala).aguardarPendentes();
+        if (binario) {
+            ByteBuffer completo = Protocolo.comando(linha);
+            Protocolo.lerNumero(completo); // Tamanho, já separado pelo decodificador na conexão real
+            this.quadro = completo.slice();
+        } else {
+            this.quadro = null;
+        }
+    }
+
+    @Override
+    public Object executar() {
+        if (quadro == null) {
+            cliente.processarLinha(linha);
+        } else {
+            cliente.processarQuadro(quadro.duplicate());
+        }
+        return cliente;
+    }
+
+    @Override
+    public void close() {
+        cliente.encerrar();
+        fulano.encerrar();
+        Cenarios.apagarSala(nomeSala);
+    }
+}
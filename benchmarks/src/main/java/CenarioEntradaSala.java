@@ -0,0 +1,38 @@
+import benchmarks.Cenario;
+
+/**
+ * Uma sala com histórico e sem membros. Cada execução é um /join, que envia as mensagens recentes
+ * ao cliente, seguido de /sair, até a sala processar os dois.
+ */
+class CenarioEntradaSala implements Cenario {
+    private static final String NOME_SALA = "bench-entrada";
+
+    private final Sala sala;
+    private final ServidorChat.Handler cliente;
+
+    CenarioEntradaSala() {
+        Entregas entregas = new Entregas();
+        ServidorChat.Handler autor = Cenarios.conectar(entregas, "autor");
+        autor.processarLinha("/join " + NOME_SALA);
+        for (int i = 0; i < ServidorChat.MENSAGENS_RECENTES; i++) {
+            autor.processarLinha("Mensagem " + i + " do histórico da sala");
+        }
+        autor.processarLinha("/sair");
+        this.sala = ServidorChat.sala(NOME_SALA);
+        this.cliente = Cenarios.conectar(entregas, "cliente");
+        sala.aguardarPendentes();
+    }
+
+    @Override
+    public Object executar() {
+        cliente.processarLinha("/join " + NOME_SALA);
+        cliente.processarLinha("/sair");
+        sala.aguardarPendentes();
+        return cliente;
+    }
+
+    @Override
+    public void close() {
+        Cenarios.apagarSala(NOME_SALA);
+    }
+}
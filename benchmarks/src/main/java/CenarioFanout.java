@@ -0,0 +1,38 @@
+import benchmarks.Cenario;
+
+/**
+ * Uma sala com o número de membros informado, em que um deles envia mensagens.
+ * Cada execução dura do envio até a entrega da mensagem ao último membro.
+ */
+class CenarioFanout implements Cenario {
+    private final Entregas entregas = new Entregas();
+    private final String nomeSala;
+    private final ServidorChat.Handler autor;
+    private final int destinatarios;
+
+    CenarioFanout(String membros) throws InterruptedException {
+        int quantidade = Integer.parseInt(membros);
+        this.nomeSala = "bench-fanout-" + quantidade;
+        this.destinatarios = quantidade - 1;
+        this.autor = Cenarios.conectar(entregas, "autor");
+        autor.processarLinha("/join " + nomeSala);
+        for (int i = 1; i < quantidade; i++) {
+            Cenarios.conectar(entregas, "membro").processarLinha("/join " + nomeSala);
+        }
+        ServidorChat.sala(nomeSala).aguardarPendentes();
+        entregas.aguardarSilencio();
+    }
+
+    @Override
+    public Object executar() {
+        long alvo = entregas.total() + destinatarios;
+        autor.processarLinha("Mensagem de teste para todos os membros da sala");
+        entregas.aguardar(alvo);
+        return alvo;
+    }
+
+    @Override
+    public void close() {
+        Cenarios.apagarSala(nomeSala);
+    }
+}
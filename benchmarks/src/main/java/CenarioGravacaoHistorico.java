@@ -0,0 +1,42 @@
+import benchmarks.Cenario;
+
+import java.io.*;
+import java.nio.file.Files;
+
+/**
+ * Um gravador de histórico sobre um log novo. Cada execução anexa um lote de mensagens
+ * e o grava no log, como a thread de escrita faz quando o lote enche.
+ */
+class CenarioGravacaoHistorico implements Cenario {
+    private final File diretorio;
+    private final LogSegmentado log;
+    private final AnexadorHistorico anexador;
+    private final int tamanhoLote;
+    private long proximaSequencia;
+
+    CenarioGravacaoHistorico(String lote) throws IOException {
+        this.tamanhoLote = Integer.parseInt(lote);
+        this.diretorio = Files.createTempDirectory("chat-gravacao").toFile();
+        this.log = new LogSegmentado(diretorio, ServidorChat.TAMANHO_SEGMENTO_HISTORICO, ServidorChat.INTERVALO_INDICE_SEGMENTO);
+        IndiceBusca indice = new IndiceBusca(log, new File(diretorio, "busca.idx"));
+        // Lote e intervalo grandes: a gravação acontece só no descarregar() medido
+        this.anexador = new AnexadorHistorico(log, Integer.MAX_VALUE, Long.MAX_VALUE / 2,
+                ServidorChat.SINCRONIZACAO_HISTORICO, indice);
+    }
+
+    @Override
+    public Object executar() {
+        long horario = System.currentTimeMillis();
+        for (int i = 0; i < tamanhoLote; i++) {
+            anexador.anexar(new Mensagem(proximaSequencia++, horario, "autor", "Mensagem de teste gravada no histórico da sala"));
+        }
+        anexador.descarregar();
+        return proximaSequencia;
+    }
+
+    @Override
+    public void close() {
+        anexador.fechar();
+        Cenarios.apagar(diretorio);
+    }
+}
@@ -0,0 +1,42 @@
+import benchmarks.Cenario;
+
+/**
+ * Uma sala com o número de usuários informado, em que um deles envia mensagens privadas aos outros,
+ * um de cada vez. Cada execução dura do envio até a entrega ao destinatário.
+ */
+class CenarioMensagemPrivada implements Cenario {
+    private final Entregas entregas = new Entregas();
+    private final String nomeSala;
+    private final ServidorChat.Handler remetente;
+    private final String[] destinatarios;
+    private int proximo;
+
+    CenarioMensagemPrivada(String usuarios) throws InterruptedException {
+        int quantidade = Integer.parseInt(usuarios);
+        this.nomeSala = "bench-privada-" + quantidade;
+        this.remetente = Cenarios.conectar(entregas, "remetente");
+        remetente.processarLinha("/join " + nomeSala);
+        this.destinatarios = new String[quantidade - 1];
+        for (int i = 0; i < destinatarios.length; i++) {
+            ServidorChat.Handler destinatario = Cenarios.conectar(entregas, "destinatario");
+            destinatario.processarLinha("/join " + nomeSala);
+            destinatarios[i] = destinatario.getNomeCliente();
+        }
+        ServidorChat.sala(nomeSala).aguardarPendentes();
+        entregas.aguardarSilencio();
+    }
+
+    @Override
+    public Object executar() {
+        long alvo = entregas.total() + 1;
+        remetente.processarLinha("@" + destinatarios[proximo] + " Mensagem privada de teste");
+        proximo = (proximo + 1) % destinatarios.length;
+        entregas.aguardar(alvo);
+        return alvo;
+    }
+
+    @Override
+    public void close() {
+        Cenarios.apagarSala(nomeSala);
+    }
+}
@@ -0,0 +1,37 @@
+import benchmarks.Cenario;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.List;
+
+/**
+ * Um histórico gravado com o número de mensagens informado e o índice de busca já carregado.
+ * Cada execução responde a uma consulta do /pesquisar.
+ */
+class CenarioPesquisa implements Cenario {
+    private final File diretorio;
+    private final LogSegmentado log;
+    private final IndiceBusca indice;
+    private final String consulta;
+
+    CenarioPesquisa(String mensagens, String consulta) throws IOException {
+        this.consulta = consulta;
+        this.diretorio = Files.createTempDirectory("chat-pesquisa").toFile();
+        Cenarios.gerarHistorico(diretorio, Integer.parseInt(mensagens));
+        this.log = new LogSegmentado(diretorio, ServidorChat.TAMANHO_SEGMENTO_HISTORICO, ServidorChat.INTERVALO_INDICE_SEGMENTO);
+        this.indice = new IndiceBusca(log, new File(diretorio, "busca.idx"));
+        indice.pesquisar(new IndiceBusca.Consulta(consulta, ServidorChat.LIMITE_PESQUISA)); // Monta o índice fora da medida
+    }
+
+    @Override
+    public Object executar() throws IOException {
+        List<Mensagem> resultados = indice.pesquisar(new IndiceBusca.Consulta(consulta, ServidorChat.LIMITE_PESQUISA));
+        return resultados;
+    }
+
+    @Override
+    public void close() throws IOException {
+        log.close();
+        Cenarios.apagar(diretorio);
+    }
+}
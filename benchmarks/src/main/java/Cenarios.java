@@ -0,0 +1,87 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Montagem comum dos cenários: clientes simulados, salas e históricos gerados.
+ */
+final class Cenarios {
+    private static final AtomicInteger proximoCliente = new AtomicInteger();
+    private static final int AUTORES = 50; // Autores distintos nos históricos gerados
+    private static final int VOCABULARIO = 2000; // Palavras distintas nos históricos gerados
+
+    private Cenarios() {
+    }
+
+    /**
+     * Conecta um cliente simulado e informa um nome livre.
+     */
+    static ServidorChat.Handler conectar(Entregas entregas, String prefixo) {
+        return conectar(entregas, prefixo, false);
+    }
+
+    /**
+     * @param binaria Se o cliente usa o protocolo binário; o nome é informado como linha, antes da negociação
+     */
+    static ServidorChat.Handler conectar(Entregas entregas, String prefixo, boolean binaria) {
+        return conectarComo(entregas, prefixo + proximoCliente.incrementAndGet(), binaria);
+    }
+
+    /**
+     * Conecta um cliente simulado com exatamente o nome informado, que precisa estar livre.
+     */
+    static ServidorChat.Handler conectarComo(Entregas entregas, String nome, boolean binaria) {
+        ServidorChat.Handler handler = new ServidorChat.Handler(new ConexaoNula(entregas, binaria));
+        handler.iniciar();
+        handler.processarLinha(nome);
+        return handler;
+    }
+
+    /**
+     * Espera a sala processar a caixa de mensagens, fecha o histórico e apaga os arquivos dela.
+     */
+    static void apagarSala(String nome) {
+        Sala sala = ServidorChat.sala(nome);
+        sala.aguardarPendentes();
+        sala.fechar();
+        apagar(new File(ServidorChat.HISTORICO_DIR, nome));
+        new File(ServidorChat.HISTORICO_DIR).delete(); // Só se não houver outras salas
+    }
+
+    /**
+     * Grava um histórico com mensagens de vários autores, com palavras em frequência decrescente:
+     * "palavra0" aparece em quase todas as mensagens e as últimas do vocabulário são raras.
+     */
+    static void gerarHistorico(File diretorio, int quantidade) throws IOException {
+        Random aleatorio = new Random(42);
+        long inicio = System.currentTimeMillis() - quantidade * 1000L;
+        try (LogSegmentado log = new LogSegmentado(diretorio, ServidorChat.TAMANHO_SEGMENTO_HISTORICO,
+                ServidorChat.INTERVALO_INDICE_SEGMENTO)) {
+            List<Mensagem> lote = new ArrayList<>();
+            for (long sequencia = log.proximaSequencia(); sequencia < quantidade; sequencia++) {
+                StringBuilder texto = new StringBuilder();
+                int palavras = 4 + aleatorio.nextInt(12);
+                for (int i = 0; i < palavras; i++) {
+                    double sorteio = aleatorio.nextDouble();
+                    texto.append(i == 0 ? "" : " ").append("palavra").append((int) (VOCABULARIO * sorteio * sorteio * sorteio));
+                }
+                lote.add(new Mensagem(sequencia, inicio + sequencia * 1000, "autor" + aleatorio.nextInt(AUTORES), texto.toString()));
+                if (lote.size() == 1024) {
+                    log.anexar(lote);
+                    lote.clear();
+                }
+            }
+            log.anexar(lote);
+        }
+    }
+
+    static void apagar(File arquivo) {
+        File[] filhos = arquivo.listFiles();
+        if (filhos != null) {
+            for (File filho : filhos) {
+                apagar(filho);
+            }
+        }
+        arquivo.delete();
+    }
+}
@@ -0,0 +1,46 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Conexão simulada dos benchmarks: descarta as linhas e só conta as entregas,
+ * para que a medida inclua o trabalho do servidor e não o do socket.
+ */
+class ConexaoNula implements Conexao {
+    private final Entregas entregas;
+    private final boolean binaria;
+
+    ConexaoNula(Entregas entregas) {
+        this(entregas, false);
+    }
+
+    /**
+     * @param binaria Se a conexão simula um cliente do protocolo binário
+     */
+    ConexaoNula(Entregas entregas, boolean binaria) {
+        this.entregas = entregas;
+        this.binaria = binaria;
+    }
+
+    @Override
+    public boolean binaria() {
+        return binaria;
+    }
+
+    @Override
+    public void enviar(ByteBuffer linha) {
+        entregas.registrar();
+    }
+
+    @Override
+    public void fechar() {
+    }
+
+    @Override
+    public int tamanhoFilaSaida() {
+        return 0;
+    }
+
+    @Override
+    public long mensagensDescartadas() {
+        return 0;
+    }
+}
@@ -0,0 +1,50 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Conta as linhas entregues às conexões simuladas dos benchmarks e permite esperar por elas,
+ * para medir uma operação até a última entrega, e não só até ela entrar na caixa da sala.
+ */
+final class Entregas {
+    private final AtomicLong total = new AtomicLong();
+    private volatile long alvo = Long.MAX_VALUE; // Total que acorda a thread esperando
+    private volatile Thread esperando;
+
+    void registrar() {
+        if (total.incrementAndGet() >= alvo) {
+            Thread thread = esperando;
+            if (thread != null) {
+                LockSupport.unpark(thread);
+            }
+        }
+    }
+
+    long total() {
+        return total.get();
+    }
+
+    /**
+     * Espera até que o total de entregas chegue ao valor informado.
+     */
+    void aguardar(long valor) {
+        esperando = Thread.currentThread();
+        alvo = valor;
+        while (total.get() < valor) {
+            LockSupport.park(this);
+        }
+        alvo = Long.MAX_VALUE;
+        esperando = null;
+    }
+
+    /**
+     * Espera as entregas pararem. Usado depois de montar uma sala grande, cujos avisos de entrada
+     * ainda podem estar sendo entregues pelas fatias.
+     */
+    void aguardarSilencio() throws InterruptedException {
+        long anterior;
+        do {
+            anterior = total.get();
+            Thread.sleep(200);
+        } while (total.get() != anterior);
+    }
+}
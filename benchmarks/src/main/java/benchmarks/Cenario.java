@@ -0,0 +1,33 @@
+package benchmarks;
+
+import java.lang.reflect.Constructor;
+import java.util.Arrays;
+
+/**
+ * Situação preparada para um benchmark: o servidor montado até o ponto a ser medido.
+ *
+ * O JMH não aceita benchmarks no pacote padrão, e o código do servidor está nele, onde um pacote
+ * nomeado não o enxerga. Por isso os benchmarks deste pacote só medem {@link #executar()}, e os
+ * cenários, que usam as classes do servidor diretamente, ficam no pacote padrão e são criados pelo nome.
+ */
+public interface Cenario extends AutoCloseable {
+
+    /**
+     * Executa uma vez a operação medida.
+     * @return Algo produzido pela operação, consumido pelo JMH para que ela não seja eliminada
+     */
+    Object executar() throws Exception;
+
+    /**
+     * Cria um cenário do pacote padrão.
+     * @param classe O nome da classe, que deve ter um construtor só com parâmetros String
+     * @param parametros Os valores dos {@code @Param} do benchmark
+     */
+    static Cenario criar(String classe, String... parametros) throws ReflectiveOperationException {
+        Class<?>[] tipos = new Class<?>[parametros.length];
+        Arrays.fill(tipos, String.class);
+        Constructor<?> construtor = Class.forName(classe).getDeclaredConstructor(tipos);
+        construtor.setAccessible(true);
+        return (Cenario) construtor.newInstance((Object[]) parametros);
+    }
+}
@@ -0,0 +1,43 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Interpretação de um comando recebido do cliente, como linha de texto ({@code Handler.processarLinha})
+ * ou como quadro do protocolo binário ({@code Handler.processarQuadro}), e a resposta a ele. O cliente
+ * é um administrador em uma sala com outro membro, então cada comando segue o caminho real.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Dchat.log.nivel=AVISO", "-Dchat.limite.chat=0", "-Dchat.limite.pesquisa=0", "-Dchat.limite.entrada=0",
+        "-Dchat.admins=admin"})
+public class DespachoBenchmark {
+
+    @Param({"/help", "/salas", "/usuarios", "/filas", "/historico 2", "@fulano oi", "mensagem para a sala"})
+    public String linha;
+
+    @Param({"texto", "binario"})
+    public String protocolo;
+
+    private Cenario cenario;
+
+    @Setup
+    public void preparar() throws Exception {
+        cenario = Cenario.criar("CenarioDespacho", linha, protocolo);
+    }
+
+    @Benchmark
+    public Object processarComando() throws Exception {
+        return cenario.executar();
+    }
+
+    @TearDown
+    public void encerrar() throws Exception {
+        cenario.close();
+    }
+}
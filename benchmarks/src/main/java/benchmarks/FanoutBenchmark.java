@@ -0,0 +1,38 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mensagem enviada a uma sala, do envio até a entrega ao último membro.
+ * A partir de {@code chat.fanout.limiar} membros a entrega é feita em paralelo, por fatias.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Dchat.log.nivel=AVISO", "-Dchat.limite.chat=0", "-Dchat.limite.pesquisa=0", "-Dchat.limite.entrada=0"})
+public class FanoutBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    public String membros;
+
+    private Cenario cenario;
+
+    @Setup
+    public void preparar() throws Exception {
+        cenario = Cenario.criar("CenarioFanout", membros);
+    }
+
+    @Benchmark
+    public Object enviarMensagem() throws Exception {
+        return cenario.executar();
+    }
+
+    @TearDown
+    public void encerrar() throws Exception {
+        cenario.close();
+    }
+}
@@ -0,0 +1,95 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gravação e leitura do histórico das salas: gravação de lotes no log, abertura do histórico
+ * de uma sala com as mensagens recentes e o envio delas no /join.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Dchat.log.nivel=AVISO", "-Dchat.limite.chat=0", "-Dchat.limite.pesquisa=0", "-Dchat.limite.entrada=0"})
+public class HistoricoBenchmark {
+
+    /**
+     * Um log novo a cada iteração, para que o disco usado não cresça durante toda a medida.
+     */
+    @State(Scope.Benchmark)
+    public static class Gravacao {
+        @Param({"1", "16", "256"})
+        public String lote;
+
+        Cenario cenario;
+
+        @Setup(Level.Iteration)
+        public void preparar() throws Exception {
+            cenario = Cenario.criar("CenarioGravacaoHistorico", lote);
+        }
+
+        @TearDown(Level.Iteration)
+        public void encerrar() throws Exception {
+            cenario.close();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Abertura {
+        @Param({"10000", "1000000"})
+        public String mensagens;
+
+        Cenario cenario;
+
+        @Setup
+        public void preparar() throws Exception {
+            cenario = Cenario.criar("CenarioAberturaHistorico", mensagens);
+        }
+
+        @TearDown
+        public void encerrar() throws Exception {
+            cenario.close();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Entrada {
+        Cenario cenario;
+
+        @Setup
+        public void preparar() throws Exception {
+            cenario = Cenario.criar("CenarioEntradaSala");
+        }
+
+        @TearDown
+        public void encerrar() throws Exception {
+            cenario.close();
+        }
+    }
+
+    /**
+     * Um lote de mensagens anexado e gravado no log.
+     */
+    @Benchmark
+    public Object gravarLote(Gravacao estado) throws Exception {
+        return estado.cenario.executar();
+    }
+
+    /**
+     * Abertura do histórico de uma sala, com a leitura das mensagens recentes.
+     */
+    @Benchmark
+    public Object abrirHistorico(Abertura estado) throws Exception {
+        return estado.cenario.executar();
+    }
+
+    /**
+     * Um /join, com o envio das mensagens recentes, seguido de /sair.
+     */
+    @Benchmark
+    public Object entrarNaSala(Entrada estado) throws Exception {
+        return estado.cenario.executar();
+    }
+}
@@ -0,0 +1,38 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mensagem privada ({@code @nome texto}) do envio até a entrega, em salas com cada vez mais usuários.
+ * O destinatário é procurado pelo nome entre os membros, sem percorrer os usuários.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Dchat.log.nivel=AVISO", "-Dchat.limite.chat=0", "-Dchat.limite.pesquisa=0", "-Dchat.limite.entrada=0"})
+public class MensagemPrivadaBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    public String usuarios;
+
+    private Cenario cenario;
+
+    @Setup
+    public void preparar() throws Exception {
+        cenario = Cenario.criar("CenarioMensagemPrivada", usuarios);
+    }
+
+    @Benchmark
+    public Object enviarMensagemPrivada() throws Exception {
+        return cenario.executar();
+    }
+
+    @TearDown
+    public void encerrar() throws Exception {
+        cenario.close();
+    }
+}
@@ -0,0 +1,41 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Consultas do /pesquisar pelo índice de busca em históricos grandes. As mensagens geradas usam
+ * "palavra0" em quase todas e "palavra1999" em poucas.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dchat.log.nivel=AVISO")
+public class PesquisaBenchmark {
+
+    @Param({"100000", "1000000"})
+    public String mensagens;
+
+    @Param({"palavra0", "palavra1999", "palavra1 palavra2", "\"palavra0 palavra0\"", "de:autor7 palavra10"})
+    public String consulta;
+
+    private Cenario cenario;
+
+    @Setup
+    public void preparar() throws Exception {
+        cenario = Cenario.criar("CenarioPesquisa", mensagens, consulta);
+    }
+
+    @Benchmark
+    public Object pesquisarMensagem() throws Exception {
+        return cenario.executar();
+    }
+
+    @TearDown
+    public void encerrar() throws Exception {
+        cenario.close();
+    }
+}
@@ -0,0 +1,69 @@
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Anel de hash consistente que decide o nó dono de cada chave (nome de sala ou de usuário).
+ * Cada nó ocupa vários pontos do anel (nós virtuais), o que espalha as chaves por igual;
+ * quando um nó entra ou sai, só as chaves dos pontos dele mudam de dono.
+ * Imutável: o cluster monta um anel novo a cada mudança de membros.
+ */
+final class AnelHash {
+    private final TreeMap<Long, String> pontos = new TreeMap<>();
+    private final Set<String> nos;
+
+    /**
+     * @param nos Os identificadores dos nós
+     * @param virtuais Pontos de cada nó no anel
+     */
+    AnelHash(Collection<String> nos, int virtuais) {
+        this.nos = Collections.unmodifiableSet(new TreeSet<>(nos));
+        for (String no : this.nos) {
+            for (int i = 0; i < virtuais; i++) {
+                pontos.put(hash(no + "#" + i), no);
+            }
+        }
+    }
+
+    /**
+     * @return O nó dono da chave: o primeiro ponto no sentido horário a partir do hash dela,
+     * ou null se o anel estiver vazio
+     */
+    String dono(String chave) {
+        if (pontos.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Long, String> ponto = pontos.ceilingEntry(hash(chave));
+        return (ponto != null ? ponto : pontos.firstEntry()).getValue();
+    }
+
+    Set<String> nos() {
+        return nos;
+    }
+
+    /**
+     * @return Um anel com os mesmos nós, exceto o informado
+     */
+    AnelHash sem(String no, int virtuais) {
+        List<String> restantes = new ArrayList<>(nos);
+        restantes.remove(no);
+        return new AnelHash(restantes, virtuais);
+    }
+
+    /**
+     * FNV-1a de 64 bits sobre o UTF-8 da chave, com a mistura final do MurmurHash3
+     * para que chaves parecidas ("sala1", "sala2") caiam longe umas das outras.
+     */
+    static long hash(String chave) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : chave.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xFF;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
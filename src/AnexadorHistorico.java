@@ -0,0 +1,137 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Grava o histórico de uma sala em segundo plano.
+ * As mensagens são enfileiradas pelos Handlers e escritas em lotes por uma thread de escrita
+ * compartilhada, quando o lote enche ou quando o intervalo máximo de espera passa.
+ * O log da sala fica aberto enquanto a sala existir, em vez de ser aberto e fechado a cada mensagem.
+ * Depois de gravar, repassa as mensagens ao índice de busca da sala.
+ */
+class AnexadorHistorico {
+
+    /**
+     * Quando forçar os dados gravados até o disco (fsync).
+     */
+    enum Sincronizacao {
+        NENHUMA,    // Deixa a cargo do sistema operacional
+        PERIODICA,  // No máximo uma vez por segundo
+        POR_LOTE    // Depois de cada lote escrito
+    }
+
+    private static final long INTERVALO_SINCRONIZACAO_MS = 1000; // Usado pela sincronização PERIODICA
+    private static final ScheduledExecutorService ESCRITOR = Executors.newSingleThreadScheduledExecutor(tarefa -> {
+        Thread thread = new Thread(tarefa, "escritor-historico");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        Metricas.registrarPool("historico", ESCRITOR);
+    }
+
+    private final LogSegmentado log;
+    private final int tamanhoLote;
+    private final long intervaloMillis;
+    private final Sincronizacao sincronizacao;
+    private final IndiceBusca indice; // Recebe as mensagens gravadas
+    private final Queue<Mensagem> pendentes = new ConcurrentLinkedQueue<>(); // Mensagens ainda não escritas
+    private final AtomicInteger quantidadePendente = new AtomicInteger();
+    private final AtomicBoolean agendado = new AtomicBoolean(); // Já existe uma escrita agendada pelo intervalo
+    private long ultimaSincronizacao;
+    private boolean fechado;
+
+    AnexadorHistorico(LogSegmentado log, int tamanhoLote, long intervaloMillis, Sincronizacao sincronizacao, IndiceBusca indice) {
+        this.log = log;
+        this.tamanhoLote = tamanhoLote;
+        this.intervaloMillis = intervaloMillis;
+        this.sincronizacao = sincronizacao;
+        this.indice = indice;
+    }
+
+    /**
+     * Enfileira uma mensagem para ser gravada no próximo lote. Não faz I/O na thread de quem chama.
+     * As mensagens precisam ser enfileiradas na ordem das suas sequências.
+     * @param mensagem A mensagem a ser gravada
+     */
+    void anexar(Mensagem mensagem) {
+        pendentes.add(mensagem);
+        if (quantidadePendente.incrementAndGet() == tamanhoLote) {
+            ESCRITOR.execute(this::descarregar); // Lote cheio: grava sem esperar o intervalo
+        } else if (agendado.compareAndSet(false, true)) {
+            ESCRITOR.schedule(this::descarregarAgendado, intervaloMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @return Mensagens enfileiradas ainda não gravadas
+     */
+    int pendentes() {
+        return quantidadePendente.get();
+    }
+
+    /**
+     * Grava imediatamente tudo o que está pendente.
+     * Usado antes de ler o log, para que a leitura veja as mensagens mais recentes.
+     */
+    synchronized void descarregar() {
+        if (fechado || pendentes.isEmpty()) {
+            return;
+        }
+
+        List<Mensagem> lote = new ArrayList<>();
+        Mensagem mensagem;
+        while ((mensagem = pendentes.poll()) != null) {
+            lote.add(mensagem);
+        }
+        quantidadePendente.addAndGet(-lote.size());
+
+        long inicio = System.nanoTime();
+        try {
+            log.anexar(lote);
+            sincronizar(false);
+            Metricas.GRAVACAO_HISTORICO.registrar(System.nanoTime() - inicio);
+        } catch (IOException e) {
+            // As mensagens não gravadas se perdem; o próximo lote preenche as suas sequências
+            Log.erro("Falha ao gravar o histórico: " + e);
+        }
+        long gravadas = log.proximaSequencia();
+        for (Mensagem gravada : lote) {
+            if (gravada.sequencia < gravadas) {
+                indice.indexar(gravada);
+            }
+        }
+    }
+
+    /**
+     * Grava o que estiver pendente, força os dados até o disco e fecha o log.
+     */
+    synchronized void fechar() {
+        descarregar();
+        fechado = true;
+        try {
+            sincronizar(true);
+            log.close();
+        } catch (IOException e) {
+            Log.erro("Falha ao fechar o histórico: " + e);
+        }
+    }
+
+    private void descarregarAgendado() {
+        agendado.set(false);
+        descarregar();
+    }
+
+    private void sincronizar(boolean sempre) throws IOException {
+        long agora = System.currentTimeMillis();
+        boolean deveSincronizar = sempre && sincronizacao != Sincronizacao.NENHUMA
+                || sincronizacao == Sincronizacao.POR_LOTE
+                || sincronizacao == Sincronizacao.PERIODICA && agora - ultimaSincronizacao >= INTERVALO_SINCRONIZACAO_MS;
+        if (deveSincronizar) {
+            log.forcar();
+            ultimaSincronizacao = agora;
+        }
+    }
+}
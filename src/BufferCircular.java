@@ -0,0 +1,51 @@
+import java.util.*;
+
+/**
+ * Buffer circular de capacidade fixa que guarda apenas os elementos mais recentes.
+ * @param <T> O tipo dos elementos
+ */
+class BufferCircular<T> {
+    private final Object[] elementos;
+    private int inicio; // Posição do elemento mais antigo
+    private int tamanho;
+
+    BufferCircular(int capacidade) {
+        this.elementos = new Object[capacidade];
+    }
+
+    /**
+     * Adiciona um elemento, descartando o mais antigo se o buffer estiver cheio.
+     */
+    synchronized void adicionar(T elemento) {
+        if (elementos.length == 0) {
+            return;
+        }
+        if (tamanho < elementos.length) {
+            elementos[(inicio + tamanho) % elementos.length] = elemento;
+            tamanho++;
+        } else {
+            elementos[inicio] = elemento;
+            inicio = (inicio + 1) % elementos.length;
+        }
+    }
+
+    /**
+     * @return Uma cópia dos elementos, do mais antigo para o mais recente
+     */
+    @SuppressWarnings("unchecked")
+    synchronized List<T> elementos() {
+        List<T> copia = new ArrayList<>(tamanho);
+        for (int i = 0; i < tamanho; i++) {
+            copia.add((T) elementos[(inicio + i) % elementos.length]);
+        }
+        return copia;
+    }
+
+    synchronized int tamanho() {
+        return tamanho;
+    }
+
+    int capacidade() {
+        return elementos.length;
+    }
+}
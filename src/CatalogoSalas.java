@@ -0,0 +1,109 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Catálogo de todas as salas já criadas, mantido em um arquivo com um nome de sala por linha.
+ * Na inicialização só o catálogo é lido: o estado e o histórico de cada sala são abertos no
+ * primeiro /join. Salas novas são acrescentadas ao fim do arquivo.
+ * Se o arquivo não existir, ele é montado uma vez a partir do diretório de histórico.
+ */
+class CatalogoSalas {
+    private final File arquivo;
+    private final NavigableSet<String> nomes = new ConcurrentSkipListSet<>(); // Em ordem alfabética, para listar por páginas
+    private Writer escritor; // Aberto em modo de acréscimo no primeiro registro
+
+    /**
+     * Lê o catálogo, ou o monta a partir do diretório de histórico se ainda não existir.
+     * @param diretorio O diretório de histórico das salas
+     * @param arquivo O arquivo do catálogo
+     */
+    CatalogoSalas(File diretorio, File arquivo) throws IOException {
+        this.arquivo = arquivo;
+        if (arquivo.exists()) {
+            try (BufferedReader leitor = new BufferedReader(new InputStreamReader(new FileInputStream(arquivo), StandardCharsets.UTF_8))) {
+                String nome;
+                while ((nome = leitor.readLine()) != null) {
+                    if (!nome.isEmpty()) {
+                        nomes.add(nome);
+                    }
+                }
+            }
+        } else {
+            montar(diretorio);
+        }
+    }
+
+    /**
+     * Acrescenta uma sala ao catálogo, se ainda não estiver nele.
+     * @return true se a sala é nova
+     */
+    boolean registrar(String nome) {
+        if (!nomes.add(nome)) {
+            return false;
+        }
+        synchronized (this) {
+            try {
+                if (escritor == null) {
+                    escritor = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(arquivo, true), StandardCharsets.UTF_8));
+                }
+                escritor.write(nome);
+                escritor.write('\n');
+                escritor.flush();
+            } catch (IOException e) {
+                Log.erro("Erro ao gravar a sala " + nome + " no catálogo: " + e); // A sala funciona mesmo assim; volta ao catálogo no próximo /join
+                nomes.remove(nome);
+            }
+        }
+        return true;
+    }
+
+    boolean contem(String nome) {
+        return nomes.contains(nome);
+    }
+
+    int tamanho() {
+        return nomes.size();
+    }
+
+    /**
+     * @param desde O primeiro nome da página, ou o início de um nome; vazio para começar do início
+     * @param quantidade Nomes na página
+     * @return Até quantidade nomes, em ordem alfabética, a partir de desde (inclusive)
+     */
+    List<String> pagina(String desde, int quantidade) {
+        List<String> pagina = new ArrayList<>(quantidade);
+        for (Iterator<String> nome = nomes.tailSet(desde, true).iterator(); nome.hasNext() && pagina.size() < quantidade; ) {
+            pagina.add(nome.next());
+        }
+        return pagina;
+    }
+
+    /**
+     * Monta o catálogo com os diretórios de log e os arquivos de texto ainda não migrados.
+     * O diretório é percorrido sem carregar a lista inteira de arquivos na memória.
+     */
+    private void montar(File diretorio) throws IOException {
+        Files.createDirectories(diretorio.toPath());
+        File temporario = Files.createTempFile(diretorio.toPath(), arquivo.getName(), ".tmp").toFile(); // Um por processo: os nós de um cluster dividem o diretório
+        try (DirectoryStream<Path> entradas = Files.newDirectoryStream(diretorio.toPath());
+             Writer saida = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temporario), StandardCharsets.UTF_8))) {
+            for (Path entrada : entradas) {
+                String nome = entrada.getFileName().toString();
+                if (!Files.isDirectory(entrada)) {
+                    if (!nome.endsWith(".txt")) {
+                        continue;
+                    }
+                    nome = nome.substring(0, nome.length() - 4);
+                }
+                if (nomes.add(nome)) {
+                    saida.write(nome);
+                    saida.write('\n');
+                }
+            }
+        }
+        Files.move(temporario.toPath(), arquivo.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
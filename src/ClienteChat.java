@@ -1,6 +1,14 @@
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Pattern;
 
 public class ClienteChat {
 
@@ -11,75 +19,517 @@ public class ClienteChat {
     private static final String ANSI_YELLOW = "\u001B[33m";  // Comandos
     private static final String ANSI_BLUE = "\u001B[34m";    // Mensagens de outros usuários
 
-    public static void main(String[] args) throws IOException {
-        String host = "localhost";  // Conectar ao servidor local
-        if (args.length > 0) {
-            host = args[0];
+    private static final long ESPERA_INICIAL_RECONEXAO_MS = 500; // Espera base entre tentativas de reconexão
+    private static final long ESPERA_MAXIMA_RECONEXAO_MS = 30_000; // Teto da espera entre tentativas
+    private static final long SILENCIO_PING_MS = 30_000; // Tempo sem nada do servidor até enviar um PING
+    private static final long SILENCIO_MAXIMO_MS = 75_000; // Tempo sem nada do servidor, nem PONG, até dar a conexão por perdida
+
+    private static final Terminal terminal = new Terminal(); // Toda a saída do cliente passa por aqui
+
+    // Estado usado para voltar à conversa depois de uma reconexão
+    private static volatile Sessao sessao; // Conexão atual, ou null enquanto reconecta
+    private static volatile String nome; // Nome aceito pelo servidor
+    private static volatile String nomePendente; // Nome enviado, aguardando as boas-vindas
+    private static volatile String sala; // Sala atual, confirmada pelo servidor
+    private static volatile long ultimaSequencia = -1; // Última mensagem da sala recebida (protocolo binário)
+    private static volatile boolean encerrando; // O usuário pediu para desconectar
+
+    /**
+     * Uma conexão com o servidor. As linhas digitadas e os pedidos da reconexão são enviados
+     * por threads diferentes, então o envio é sincronizado.
+     */
+    private static final class Sessao {
+        final Socket socket;
+        final OutputStream out;
+        final boolean binario;
+        volatile long ultimoRecebimento = System.nanoTime(); // Quando chegou a última linha ou quadro do servidor
+        long ultimoPing = ultimoRecebimento; // Usado só pela thread que vigia a conexão
+
+        Sessao(Socket socket, OutputStream out, boolean binario) {
+            this.socket = socket;
+            this.out = out;
+            this.binario = binario;
         }
 
-        // Conectar ao servidor na porta 5000
-        Socket socket = new Socket(host, 5000);
-        PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        /**
+         * Responde a um PING do servidor, no protocolo da sessão.
+         */
+        void responderPing() throws IOException {
+            if (binario) {
+                enviar(new Protocolo.Quadro(Protocolo.PONG).finalizar());
+            } else {
+                enviar(Protocolo.PONG_TEXTO);
+            }
+        }
 
-        // Thread para enviar mensagens para o servidor
-        Thread enviarThread = new Thread(() -> {
-            Scanner scanner = new Scanner(System.in);
-            while (true) {
-                String mensagem = scanner.nextLine();
+        /**
+         * Envia uma linha digitada: como texto, ou convertida no quadro do comando.
+         */
+        synchronized void enviar(String linha) throws IOException {
+            if (binario) {
+                enviar(Protocolo.comando(linha));
+            } else {
+                out.write((linha + "\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            }
+        }
 
-                if (mensagem.equalsIgnoreCase("/desconectar")) {
-                    out.println("/desconectar"); // Notifica o servidor da desconexão
-                    out.flush();
-                    try {
-                        Thread.sleep(150); // Aguarda para garantir que a mensagem de desconexão foi enviada
+        synchronized void enviar(ByteBuffer quadro) throws IOException {
+            byte[] bytes = new byte[quadro.remaining()];
+            quadro.get(bytes);
+            out.write(bytes);
+            out.flush();
+        }
+    }
 
-                        if (socket != null && !socket.isClosed()) {
-                            socket.close(); // Fecha o socket, após a mensagem ser enviada
-                        }
-                        if (scanner != null) {
-                            scanner.close(); // Fecha o scanner
+    /**
+     * Importância de uma linha para o usuário, usada quando o terminal não acompanha o servidor.
+     */
+    private enum Prioridade {
+        ALTA,   // Respostas aos comandos, avisos, erros e mensagens privadas: sempre exibidas
+        NORMAL, // Mensagens da sala, novas ou do histórico
+        BAIXA   // Avisos de entrada e saída da sala
+    }
+
+    // Aviso de entrada ou saída no protocolo de texto: sem horário quando é novo, com horário no histórico
+    private static final Pattern AVISO_SALA = Pattern.compile("(\\[\\d{2}-\\d{2}-\\d{4} \\d{2}:\\d{2}\\] )?Usuário \\S+ (entrou na|saiu da) sala\\.");
+
+    /**
+     * Saída do cliente no terminal. Quem lê o servidor só classifica as linhas e as coloca na fila;
+     * uma thread própria as escreve em lotes, em um stdout com buffer, com um único flush por lote
+     * e a cor repetida só quando muda. Assim, um terminal lento não atrasa a leitura do socket, e
+     * o cliente não vira o consumidor lento da sala no servidor.
+     *
+     * Se o terminal ficar para trás, com mais de {@link #LIMITE_PENDENTES} linhas na fila, as linhas
+     * de baixa prioridade deixam de ser exibidas; a partir do dobro, também as mensagens da sala.
+     * Depois de cada lote, uma linha informa quantas foram omitidas.
+     */
+    private static final class Terminal {
+        private static final int LIMITE_PENDENTES = 2000; // Linhas na fila a partir das quais as de baixa prioridade são omitidas
+        private static final int TAMANHO_BUFFER = 64 * 1024;
+
+        private final PrintStream saida = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), TAMANHO_BUFFER), false);
+        private final ArrayDeque<String[]> pendentes = new ArrayDeque<>(); // {cor, texto}; protegida por this
+        private final StringBuilder lote = new StringBuilder(TAMANHO_BUFFER); // Protegido por saida
+        private long omitidas; // Linhas descartadas desde o último lote; protegida por this
+
+        void iniciar() {
+            Thread thread = new Thread(this::escrever, "terminal");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        /**
+         * Enfileira uma linha sem esperar o terminal.
+         */
+        synchronized void exibir(Prioridade prioridade, String cor, String texto) {
+            int tamanho = pendentes.size();
+            if (prioridade == Prioridade.BAIXA && tamanho >= LIMITE_PENDENTES
+                    || prioridade == Prioridade.NORMAL && tamanho >= 2 * LIMITE_PENDENTES) {
+                omitidas++;
+                return;
+            }
+            pendentes.add(new String[] {cor, texto});
+            if (tamanho == 0) {
+                notifyAll();
+            }
+        }
+
+        /**
+         * Escreve na hora tudo o que está na fila. Usado antes de o cliente terminar.
+         */
+        void descarregar() {
+            synchronized (saida) {
+                escreverPendentes();
+            }
+        }
+
+        private void escrever() {
+            while (true) {
+                synchronized (this) {
+                    while (pendentes.isEmpty()) {
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            return;
                         }
-                    } catch (IOException | InterruptedException e) {
-                        System.out.println(ANSI_RED + "Erro ao fechar a conexão: " + e.getMessage() + ANSI_RESET);
                     }
-                    break;
-                } else {
-                    out.println(mensagem);
                 }
+                descarregar();
             }
-        });
+        }
 
-        // Thread para receber mensagens do servidor
-        Thread receberThread = new Thread(() -> {
-            try {
-                String mensagem;
-                while ((mensagem = in.readLine()) != null) {
-                    if (mensagem.contains("[Sistema] Desconectando do servidor...")) {
-                        System.out.println(ANSI_GREEN + "Desconectado do servidor com sucesso." + ANSI_RESET);
-                        break; // Sai do loop e permite que a thread seja finalizada
-                    } else if (mensagem.contains("[Sistema]")) {
-                        System.out.println(ANSI_GREEN + mensagem + ANSI_RESET);
-                    } else if (mensagem.contains("[Erro]")) {
-                        System.out.println(ANSI_RED + mensagem + ANSI_RESET);
-                    } else {
-                        System.out.println(ANSI_BLUE + mensagem + ANSI_RESET);
+        /**
+         * Junta as linhas pendentes em um texto, mudando a cor só quando necessário, e o escreve de uma vez.
+         */
+        private void escreverPendentes() {
+            long omitidasLote;
+            String corAtual = null;
+            synchronized (this) {
+                String[] linha;
+                while ((linha = pendentes.poll()) != null) {
+                    if (!linha[0].equals(corAtual)) {
+                        lote.append(linha[0]);
+                        corAtual = linha[0];
                     }
+                    lote.append(linha[1]).append('\n');
+                }
+                omitidasLote = omitidas;
+                omitidas = 0;
+            }
+            if (omitidasLote > 0) {
+                lote.append(ANSI_YELLOW).append("(").append(omitidasLote)
+                        .append(" linhas omitidas para acompanhar a conversa; use /historico para ver as mensagens da sala)\n");
+                corAtual = ANSI_YELLOW;
+            }
+            if (corAtual != null) {
+                lote.append(ANSI_RESET);
+                saida.print(lote);
+                saida.flush();
+            }
+            lote.setLength(0);
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        // Modo de teste de carga, sem interface: java ClienteChat --carga bots=1000 salas=10 taxa=500 ...
+        if (args.length > 0 && args[0].equals("--carga")) {
+            GeradorCarga.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
+        String host = "localhost";  // Conectar ao servidor local
+        int porta = 5000;
+        boolean forcarTexto = false; // --texto: não negocia o protocolo binário
+        List<String> posicionais = new ArrayList<>(); // [host [porta]]
+        for (String arg : args) {
+            if (arg.equals("--texto")) {
+                forcarTexto = true;
+            } else {
+                posicionais.add(arg);
+            }
+        }
+        if (!posicionais.isEmpty()) {
+            host = posicionais.get(0);
+        }
+        if (posicionais.size() > 1) {
+            porta = Integer.parseInt(posicionais.get(1)); // Outro nó do cluster, por exemplo
+        }
+
+        terminal.iniciar();
+
+        // Lê o teclado durante toda a execução; as linhas vão para a conexão atual
+        Thread enviarThread = new Thread(ClienteChat::lerTeclado);
+        enviarThread.setDaemon(true);
+        enviarThread.start();
+
+        // Envia PING quando o servidor fica em silêncio e derruba a conexão se ele não responder
+        Thread vigiaThread = new Thread(ClienteChat::vigiarConexao);
+        vigiaThread.setDaemon(true);
+        vigiaThread.start();
+
+        // Conecta e, se a conexão cair, reconecta com espera crescente e aleatória
+        int tentativas = 0;
+        while (!encerrando) {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress(host, porta), (int) ESPERA_MAXIMA_RECONEXAO_MS);
+                InputStream in = new BufferedInputStream(socket.getInputStream());
+                OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+                boolean binario = !forcarTexto && negociarProtocoloBinario(in, out, nome != null);
+                Sessao atual = new Sessao(socket, out, binario);
+                if (nome != null) {
+                    terminal.exibir(Prioridade.ALTA, ANSI_GREEN, "Conectado de novo ao servidor.");
+                    atual.enviar(nome); // A sala é retomada quando o nome for aceito
+                    nomePendente = nome;
+                }
+                sessao = atual;
+                tentativas = 0;
+                if (binario) {
+                    receberQuadros(atual, in);
+                } else {
+                    receberLinhas(atual, in);
+                }
+                if (!encerrando) {
+                    terminal.exibir(Prioridade.ALTA, ANSI_RED, "Conexão encerrada pelo servidor.");
                 }
             } catch (IOException e) {
-                System.out.println(ANSI_RED + "Erro na conexão: " + e.getMessage() + ANSI_RESET);
+                if (!encerrando) {
+                    terminal.exibir(Prioridade.ALTA, ANSI_RED, "Erro na conexão: " + e.getMessage());
+                }
             } finally {
-                try {
-                    if (in != null) {
-                        in.close();
-                    }
-                } catch (IOException e) {
-                    System.out.println(ANSI_RED + "Erro ao fechar a conexão: " + e.getMessage() + ANSI_RESET);
+                sessao = null;
+            }
+            if (encerrando) {
+                break;
+            }
+            long espera = esperaReconexao(tentativas++);
+            terminal.exibir(Prioridade.ALTA, ANSI_YELLOW, "Tentando reconectar em " + String.format("%.1f", espera / 1000.0) + " s...");
+            Thread.sleep(espera);
+        }
+        terminal.descarregar();
+    }
+
+    /**
+     * Espera antes da próxima tentativa: o teto cresce exponencialmente até ESPERA_MAXIMA_RECONEXAO_MS,
+     * e a espera é sorteada entre metade de ESPERA_INICIAL_RECONEXAO_MS e o teto, para que os clientes
+     * de um servidor que reiniciou não voltem todos ao mesmo tempo. O piso evita tentativas seguidas
+     * quando o sorteio cai perto de zero.
+     * @param tentativas As tentativas que já falharam desde a última conexão
+     */
+    static long esperaReconexao(int tentativas) {
+        long teto = Math.min(ESPERA_MAXIMA_RECONEXAO_MS, ESPERA_INICIAL_RECONEXAO_MS << Math.min(tentativas, 16));
+        return ThreadLocalRandom.current().nextLong(ESPERA_INICIAL_RECONEXAO_MS / 2, teto + 1);
+    }
+
+    /**
+     * Vigia a conexão atual: quando o servidor fica {@link #SILENCIO_PING_MS} sem enviar nada,
+     * envia um PING; depois de {@link #SILENCIO_MAXIMO_MS}, fecha o socket, e a leitura falha e
+     * reconecta. Sem isso, uma conexão meio aberta (servidor ou rede que sumiram sem fechar o
+     * TCP) deixaria o cliente esperando para sempre.
+     */
+    private static void vigiarConexao() {
+        while (!encerrando) {
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+                return;
+            }
+            Sessao atual = sessao;
+            if (atual == null) {
+                continue;
+            }
+            long agora = System.nanoTime();
+            long silencioMs = (agora - atual.ultimoRecebimento) / 1_000_000;
+            try {
+                if (silencioMs >= SILENCIO_MAXIMO_MS) {
+                    terminal.exibir(Prioridade.ALTA, ANSI_RED, "O servidor não responde há " + silencioMs / 1000 + " s.");
+                    atual.socket.close();
+                } else if (silencioMs >= SILENCIO_PING_MS && (agora - atual.ultimoPing) / 1_000_000 >= SILENCIO_PING_MS) {
+                    atual.ultimoPing = agora;
+                    atual.enviar(Protocolo.PING_TEXTO); // Vira um quadro PING no protocolo binário
                 }
+            } catch (IOException e) {
+                // A thread de leitura percebe a falha e reconecta
             }
-        });
+        }
+    }
 
-        enviarThread.start();
-        receberThread.start();
+    /**
+     * Envia as linhas digitadas pela conexão atual. Sem conexão, a linha é descartada com um aviso.
+     */
+    private static void lerTeclado() {
+        Scanner scanner = new Scanner(System.in);
+        while (true) {
+            String mensagem = scanner.hasNextLine() ? scanner.nextLine() : "/desconectar";
+            boolean desconectar = mensagem.equalsIgnoreCase("/desconectar");
+            if (desconectar) {
+                encerrando = true;
+            }
+            Sessao atual = sessao;
+            if (atual == null) {
+                if (desconectar) {
+                    terminal.descarregar();
+                    System.exit(0); // Nada a avisar ao servidor
+                }
+                terminal.exibir(Prioridade.ALTA, ANSI_RED, "Sem conexão com o servidor; a mensagem não foi enviada.");
+                continue;
+            }
+            try {
+                if (nome == null) {
+                    nomePendente = mensagem.trim(); // Confirmado quando o servidor der as boas-vindas
+                }
+                atual.enviar(mensagem); // Notifica o servidor da desconexão, no caso do /desconectar
+                if (desconectar) {
+                    Thread.sleep(150); // Aguarda para garantir que a mensagem de desconexão foi enviada
+                    atual.socket.close(); // Fecha o socket, após a mensagem ser enviada
+                    return;
+                }
+            } catch (IOException e) {
+                terminal.exibir(Prioridade.ALTA, ANSI_RED, "Erro ao enviar: " + e.getMessage());
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Acompanha as respostas do servidor que mudam o estado usado na reconexão: o nome aceito
+     * e a sala atual. Ao ter o nome aceito depois de reconectar, volta à sala, pedindo só as
+     * mensagens posteriores à última vista, quando o protocolo informa a sequência.
+     * @param texto Uma resposta do servidor, sem o prefixo do tipo
+     */
+    private static void acompanhar(String texto) throws IOException {
+        String pendente = nomePendente;
+        if (pendente != null && texto.startsWith("Bem vindo, " + pendente + "!")) {
+            boolean reconexao = nome != null;
+            nome = pendente;
+            nomePendente = null;
+            Sessao atual = sessao;
+            if (reconexao && sala != null && atual != null) {
+                if (atual.binario && ultimaSequencia >= 0) {
+                    atual.enviar(Protocolo.retomar(sala, ultimaSequencia));
+                } else {
+                    atual.enviar("/join " + sala);
+                }
+            }
+        } else if (texto.startsWith("Você entrou na ")) {
+            String nova = texto.substring("Você entrou na ".length());
+            if (!nova.equals(sala)) {
+                sala = nova;
+                ultimaSequencia = -1;
+            }
+        } else if (texto.startsWith("Você saiu da ")) {
+            sala = null;
+            ultimaSequencia = -1;
+        } else if (pendente != null && nome != null && texto.startsWith("O nome " + pendente + " já está em uso")) {
+            // A conexão anterior ainda não caiu no servidor: tenta de novo depois da espera
+            throw new IOException("o nome " + pendente + " ainda está em uso no servidor");
+        }
+    }
+
+    /**
+     * Pede o protocolo binário ao servidor. Um servidor antigo trata o pedido como um nome
+     * inválido, e o cliente continua no protocolo de texto.
+     * @param reconexao Se o nome já é conhecido: as boas-vindas e a confirmação não são exibidas
+     * @return true se o servidor confirmou o protocolo binário
+     */
+    private static boolean negociarProtocoloBinario(InputStream in, OutputStream out, boolean reconexao) throws IOException {
+        out.write((Protocolo.NEGOCIACAO + "\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        String boasVindas = lerLinha(in);
+        if (boasVindas != null && !reconexao) {
+            terminal.exibir(Prioridade.ALTA, ANSI_BLUE, boasVindas);
+        }
+        String resposta = lerLinha(in);
+        if (Protocolo.CONFIRMACAO.equals(resposta)) {
+            if (!reconexao) {
+                terminal.exibir(Prioridade.ALTA, ANSI_GREEN, resposta);
+            }
+            return true;
+        }
+        terminal.exibir(Prioridade.ALTA, ANSI_YELLOW, "O servidor não suporta o protocolo binário; usando o protocolo de texto.");
+        return false;
+    }
+
+    /**
+     * Lê uma linha em UTF-8 sem consumir bytes além dela, já que o que vem depois pode ser binário.
+     * @return A linha, ou null no fim do fluxo
+     */
+    private static String lerLinha(InputStream in) throws IOException {
+        ByteArrayOutputStream linha = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                return linha.size() == 0 ? null : linha.toString(StandardCharsets.UTF_8);
+            }
+            linha.write(b);
+        }
+        String texto = linha.toString(StandardCharsets.UTF_8);
+        return texto.endsWith("\r") ? texto.substring(0, texto.length() - 1) : texto;
+    }
+
+    /**
+     * Exibe as linhas recebidas até o fim da conexão ou a confirmação da desconexão. O tipo de
+     * cada linha sai do seu início: o prefixo dos avisos e erros, ou o "[" do horário das
+     * mensagens da sala, que não mudam o estado da reconexão e não passam por {@link #acompanhar}.
+     */
+    private static void receberLinhas(Sessao atual, InputStream in) throws IOException {
+        String mensagem;
+        while ((mensagem = lerLinha(in)) != null) {
+            atual.ultimoRecebimento = System.nanoTime();
+            if (mensagem.equals(Protocolo.PING_TEXTO)) {
+                atual.responderPing();
+            } else if (mensagem.equals(Protocolo.PONG_TEXTO)) {
+                continue;
+            } else if (mensagem.startsWith(Protocolo.Tipo.SISTEMA.prefixo)) {
+                if (mensagem.equals(Protocolo.Tipo.SISTEMA.prefixo + "Desconectando do servidor...")) {
+                    encerrando = true;
+                    terminal.exibir(Prioridade.ALTA, ANSI_GREEN, "Desconectado do servidor com sucesso.");
+                    break; // Sai do loop e permite que a thread seja finalizada
+                }
+                terminal.exibir(Prioridade.ALTA, ANSI_GREEN, mensagem);
+            } else if (mensagem.startsWith(Protocolo.Tipo.ERRO.prefixo)) {
+                acompanhar(mensagem.substring(Protocolo.Tipo.ERRO.prefixo.length()));
+                terminal.exibir(Prioridade.ALTA, ANSI_RED, mensagem);
+            } else if (AVISO_SALA.matcher(mensagem).matches()) {
+                terminal.exibir(Prioridade.BAIXA, ANSI_BLUE, mensagem);
+            } else if (mensagem.startsWith("[")) {
+                terminal.exibir(Prioridade.NORMAL, ANSI_BLUE, mensagem);
+            } else if (nome != null && mensagem.equals("Bem vindo! Informe seu nome:")) {
+                continue; // Reconexão: o nome é enviado automaticamente
+            } else {
+                acompanhar(mensagem);
+                terminal.exibir(Prioridade.ALTA, ANSI_BLUE, mensagem);
+            }
+        }
+    }
+
+    /**
+     * Exibe os quadros recebidos até o fim da conexão ou a confirmação da desconexão.
+     */
+    private static void receberQuadros(Sessao atual, InputStream in) throws IOException {
+        ByteBuffer quadro;
+        while ((quadro = Protocolo.lerQuadro(in)) != null) {
+            atual.ultimoRecebimento = System.nanoTime();
+            if (!exibir(atual, quadro)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Exibe um quadro recebido, com a cor do seu tipo. A cor vem do tipo informado pelo
+     * servidor, sem procurar marcadores no texto.
+     * Guarda a sequência das mensagens da sala atual, usada para retomar a sala ao reconectar,
+     * e responde aos PINGs do servidor.
+     * @return false se o servidor confirmou a desconexão
+     */
+    private static boolean exibir(Sessao atual, ByteBuffer quadro) throws IOException {
+        byte opcode = quadro.get();
+        if (opcode == Protocolo.LOTE) {
+            ByteBuffer item;
+            while ((item = Protocolo.proximoQuadro(quadro)) != null) {
+                if (!exibir(atual, item)) {
+                    return false;
+                }
+            }
+        } else if (opcode == Protocolo.PING) {
+            atual.responderPing();
+        } else if (opcode == Protocolo.TEXTO) {
+            Protocolo.Tipo tipo = Protocolo.lerTipo(quadro);
+            String texto = Protocolo.lerTexto(quadro);
+            acompanhar(texto);
+            if (tipo == Protocolo.Tipo.SISTEMA && texto.equals("Desconectando do servidor...")) {
+                encerrando = true;
+                terminal.exibir(Prioridade.ALTA, ANSI_GREEN, "Desconectado do servidor com sucesso.");
+                return false;
+            }
+            terminal.exibir(Prioridade.ALTA, cor(tipo), tipo.prefixo + texto);
+        } else if (opcode == Protocolo.MENSAGEM_SALA) {
+            Protocolo.Tipo tipo = Protocolo.lerTipo(quadro);
+            String salaMensagem = Protocolo.lerTexto(quadro);
+            long sequencia = Protocolo.lerNumero(quadro) - 1;
+            if (sequencia > ultimaSequencia && salaMensagem.equals(sala)) {
+                ultimaSequencia = sequencia;
+            }
+            long horario = Protocolo.lerNumero(quadro);
+            String autor = Protocolo.lerTexto(quadro);
+            String texto = Protocolo.lerTexto(quadro);
+            if (tipo == Protocolo.Tipo.PRIVADA) {
+                terminal.exibir(Prioridade.ALTA, cor(tipo), "Mensagem privada de " + autor + ": " + texto);
+            } else {
+                Mensagem mensagem = new Mensagem(sequencia, horario, autor.isEmpty() ? null : autor, texto);
+                terminal.exibir(tipo == Protocolo.Tipo.SISTEMA ? Prioridade.BAIXA : Prioridade.NORMAL, cor(tipo), mensagem.formatar());
+            }
+        }
+        return true; // Opcodes desconhecidos são ignorados
+    }
+
+    private static String cor(Protocolo.Tipo tipo) {
+        switch (tipo) {
+            case SISTEMA: return ANSI_GREEN;
+            case ERRO: return ANSI_RED;
+            default: return ANSI_BLUE;
+        }
     }
 }
@@ -0,0 +1,904 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Modo cluster: vários processos do servidor dividem as salas e os nomes de usuário.
+ *
+ * Cada sala pertence a um nó, escolhido por hash consistente ({@link AnelHash}) entre os nós no ar.
+ * Um cliente continua ligado ao nó em que conectou; quando a sala dele é de outro nó, os comandos
+ * viram pedidos ao dono ({@link SalaRemota}) e o dono trata o cliente como um membro remoto
+ * ({@link ConexaoRemota}). O dono manda cada mensagem da sala uma vez para cada nó com membros,
+ * que a entrega aos seus clientes; para isso cada nó mantém um espelho dos seus clientes nas
+ * salas de outros nós, atualizado pelo dono. Os nomes de usuário também têm um nó dono, que
+ * garante que o mesmo nome não seja usado em dois nós.
+ *
+ * Os nós se falam por ligações TCP persistentes ({@link LigacaoNo}), com quadros no formato do
+ * {@link Protocolo} e os opcodes abaixo. Os quadros de uma ligação são processados em ordem,
+ * na thread que a lê, então as mensagens de uma sala chegam a cada nó na ordem da sala.
+ *
+ * Quando um nó entra, as salas que passam a ser dele são transferidas: o dono antigo fecha o
+ * histórico, envia os membros ao novo dono e avisa com LIBERADAS; até lá o novo dono mantém
+ * suspensas as salas que eram do outro, para que o mesmo histórico não seja aberto por dois
+ * processos. Quando um nó cai, os outros tiram os clientes dele das salas e recolocam os seus
+ * clientes nas salas que eram dele, agora em outros donos. Os nós usam o mesmo diretório de histórico.
+ */
+class Cluster {
+    // Quadros entre os nós
+    static final byte OLA = 1;            // texto nó, varint horário, assinatura: primeiro quadro de cada ligação
+    // Pedidos ao dono de uma sala: varint saltos, texto sala, texto nó do usuário, texto usuário, campos do pedido
+    static final byte ENTRAR = 2;         // varint migração (1: já era membro, sem avisos)
+    static final byte SAIR = 3;           // varint confirmar (0: o usuário está desconectando)
+    static final byte PUBLICAR = 4;       // texto
+    static final byte PRIVADA = 5;        // texto destinatário, texto
+    static final byte MEMBROS = 6;
+    static final byte HISTORICO = 7;      // varint página
+    static final byte PESQUISAR = 8;      // texto consulta
+    // Do dono de uma sala para os nós dos membros
+    static final byte ENTROU = 9;         // texto sala, texto usuário: o nó passa a entregar a sala ao usuário
+    static final byte SAIU = 10;          // texto sala, texto usuário
+    static final byte DIFUNDIR = 11;      // texto sala, texto autor, quadro MENSAGEM_SALA: entregar a todos os membros do nó, exceto o autor
+    static final byte ENTREGAR = 12;      // texto usuário, quadro do Protocolo para o cliente
+    // Rebalanceamento
+    static final byte TRANSFERIR = 13;    // varint saltos, texto sala, varint n, n x (texto nó, texto usuário)
+    static final byte LIBERADAS = 14;     // o remetente fechou as salas que passaram ao destinatário
+    // Nomes de usuário e consultas
+    static final byte RESERVAR_NOME = 15; // varint id, texto nome, texto nó, varint forçado
+    static final byte LIBERAR_NOME = 16;  // texto nome, texto nó
+    static final byte LISTAR_SALAS = 17;  // varint id, texto primeira sala, varint quantidade
+    static final byte RESPOSTA = 18;      // varint id, campos da resposta
+    static final byte RETOMAR = 19;       // Pedido ao dono da sala, como ENTRAR: varint última sequência vista
+
+    private static final int SALTOS_MAXIMOS = 2; // Encaminhamentos de um pedido entre nós com visões diferentes do anel
+    private static final long ESPERA_CONSULTA_MS = 1000; // Espera pelas respostas dos outros nós no /salas
+    private static final int MAXIMO_SALAS_LISTADAS = 1000; // Salas por resposta a LISTAR_SALAS
+    private static final long VALIDADE_OLA_MS = 60_000; // Diferença máxima entre o horário do OLA e o deste nó
+    private static final int LOTE_ENTREGA = 16; // Entregas de uma fila antes de ceder a thread a outras filas
+
+    final String id; // "host:porta" da ligação entre os nós
+    private final int virtuais;
+    private final long esperaMs;
+    private final Map<String, LigacaoNo> ligacoes = new LinkedHashMap<>(); // Os outros nós configurados
+    private final Set<String> ativos = ConcurrentHashMap.newKeySet(); // Nós com a ligação no ar: formam o anel
+    private final Set<String> mortos = ConcurrentHashMap.newKeySet(); // Nós que não responderam ou caíram
+    private final Set<String> liberaram = ConcurrentHashMap.newKeySet(); // Nós que já enviaram LIBERADAS desde que conectaram
+    private final Map<String, List<Sala>> aguardandoLiberacao = new HashMap<>(); // Nó anterior -> salas suspensas; protegido por this
+    private volatile AnelHash anel; // Dono de cada sala e nome
+    private volatile AnelHash anelAnterior; // Os nós vivos, exceto este: quem seria o dono sem este nó
+    private final Map<String, Map<String, RegistroUsuarios.Usuario>> remotos = new ConcurrentHashMap<>(); // Nó -> nome -> membro remoto nas salas deste nó
+    private final Map<String, Espelho> espelhos = new ConcurrentHashMap<>(); // Sala de outro nó -> clientes deste nó nela
+    private final Map<String, String> nomes = new ConcurrentHashMap<>(); // Nome de usuário -> nó, para os nomes de que este nó é dono
+    private final Map<Long, CompletableFuture<ByteBuffer>> respostas = new ConcurrentHashMap<>(); // Pedidos aguardando RESPOSTA
+    private final AtomicLong proximoPedido = new AtomicLong(1);
+    private final AtomicLong proximoRemoto = new AtomicLong(1); // Ids dos membros remotos
+    private final LongAdder quadrosRecebidos = new LongAdder();
+    private final ExecutorService consultas; // /historico e /pesquisar pedidos por outros nós, que leem o disco
+    private final ExecutorSerial[] entregas; // Filas que entregam aos clientes deste nó as mensagens das salas de outros nós
+    private final ScheduledExecutorService agendador;
+
+    /**
+     * Clientes deste nó em uma sala de outro nó.
+     */
+    private static final class Espelho {
+        volatile String dono;
+        final Map<String, RegistroUsuarios.Usuario> membros = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @param id O endereço deste nó na malha do cluster, "host:porta"
+     * @param nos Os endereços de todos os nós, separados por vírgula
+     * @param virtuais Pontos de cada nó no anel
+     * @param esperaMs Espera pelos outros nós na inicialização e máxima de uma sala suspensa
+     * @param executorEntrega Pool que entrega aos clientes as mensagens recebidas dos outros nós
+     * @param filasEntrega Em quantas filas dividir os clientes; cada cliente fica sempre na mesma
+     */
+    Cluster(String id, String nos, int virtuais, long esperaMs, Executor executorEntrega, int filasEntrega) {
+        this.id = id;
+        this.virtuais = virtuais;
+        this.esperaMs = esperaMs;
+        for (String no : nos.split(",")) {
+            no = no.trim();
+            if (!no.isEmpty() && !no.equals(id)) {
+                ligacoes.put(no, new LigacaoNo(no, this));
+            }
+        }
+        recalcularAnel();
+        entregas = new ExecutorSerial[Math.max(1, filasEntrega)];
+        for (int i = 0; i < entregas.length; i++) {
+            entregas[i] = new ExecutorSerial(executorEntrega, LOTE_ENTREGA);
+        }
+        consultas = Executors.newFixedThreadPool(ServidorChat.THREADS_CONSULTAS_CLUSTER, tarefa -> {
+            Thread thread = new Thread(tarefa, "cluster-consulta");
+            thread.setDaemon(true);
+            return thread;
+        });
+        agendador = Executors.newSingleThreadScheduledExecutor(tarefa -> {
+            Thread thread = new Thread(tarefa, "cluster-agendador");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Abre a porta da malha, conecta aos outros nós e espera até esperaMs que todos respondam.
+     * Os que não responderem são tratados como fora do ar até conectarem.
+     */
+    void iniciar() throws IOException {
+        ServerSocket escuta = new ServerSocket(endereco(id).getPort(), ServidorChat.BACKLOG_CONEXOES);
+        Thread aceitar = new Thread(() -> aceitar(escuta), "cluster-escuta");
+        aceitar.setDaemon(true);
+        aceitar.start();
+        for (LigacaoNo ligacao : ligacoes.values()) {
+            ligacao.iniciar();
+        }
+
+        Metricas.registrarPool("cluster.consultas", consultas);
+        Metricas.registrarMedidor("cluster.nos.ativos", () -> ativos.size() + 1);
+        Metricas.registrarMedidor("cluster.quadros.enviados", LigacaoNo.QUADROS_ENVIADOS::sum);
+        Metricas.registrarMedidor("cluster.quadros.recebidos", quadrosRecebidos::sum);
+        Metricas.registrarMedidor("cluster.quadros.descartados", LigacaoNo.QUADROS_DESCARTADOS::sum);
+        Metricas.registrarMedidor("cluster.lotes.enviados", LigacaoNo.LOTES_ENVIADOS::sum);
+        Metricas.registrarMedidor("cluster.membros.remotos", () -> {
+            long total = 0;
+            for (Map<String, RegistroUsuarios.Usuario> doNo : remotos.values()) {
+                total += doNo.size();
+            }
+            return total;
+        });
+
+        long limite = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(esperaMs);
+        while (ativos.size() < ligacoes.size() && System.nanoTime() < limite) {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        for (String no : ligacoes.keySet()) {
+            if (!ativos.contains(no)) {
+                marcarMorto(no);
+            }
+        }
+        Log.info("Nó " + id + " no cluster com " + anel.nos().size() + " de " + (ligacoes.size() + 1) + " nós: " + anel.nos());
+    }
+
+    /**
+     * @return O nó dono da sala
+     */
+    String dono(String sala) {
+        return anel.dono(sala);
+    }
+
+    /**
+     * @return true se a sala pertence a este nó
+     */
+    boolean local(String sala) {
+        return id.equals(anel.dono(sala));
+    }
+
+    SalaRemota salaRemota(String nome) {
+        return new SalaRemota(this, nome);
+    }
+
+    // ---------------------------------------------------------------- Membros do cluster
+
+    /**
+     * A ligação deste nó com o outro entrou no ar: o outro entra no anel, as salas que passaram
+     * a ser dele são transferidas e, em seguida, ele é avisado de que pode abri-las.
+     * Chamado pela thread da ligação, antes de ela começar a escrever a fila.
+     */
+    void conectado(String no) {
+        AnelHash antes;
+        synchronized (this) {
+            antes = anel;
+            ativos.add(no);
+            mortos.remove(no);
+            recalcularAnel();
+        }
+        Log.info("Nó " + no + " conectado. Anel com " + anel.nos().size() + " nós.");
+        reanunciarNomes(antes);
+        List<CompletableFuture<Void>> transferencias = ServidorChat.transferirSalas(this);
+        CompletableFuture.allOf(transferencias.toArray(new CompletableFuture<?>[0]))
+                .thenRun(() -> enviar(no, new Protocolo.Quadro(LIBERADAS).finalizar()));
+    }
+
+    /**
+     * O outro nó caiu: sai do anel, os clientes dele saem das salas deste nó e os clientes deste
+     * nó nas salas dele voltam a entrar nas mesmas salas, agora com outros donos.
+     */
+    void desconectado(String no) {
+        AnelHash antes;
+        synchronized (this) {
+            antes = anel;
+            ativos.remove(no);
+            recalcularAnel();
+        }
+        marcarMorto(no);
+        Log.aviso("Nó " + no + " desconectado. Anel com " + anel.nos().size() + " nós.");
+
+        Map<String, RegistroUsuarios.Usuario> clientesDele = remotos.remove(no);
+        if (clientesDele != null) {
+            for (RegistroUsuarios.Usuario usuario : clientesDele.values()) {
+                if (!usuario.sala.isEmpty()) {
+                    ServidorChat.sairDaSala(usuario.sala, usuario, false);
+                }
+            }
+        }
+        nomes.values().removeIf(no::equals);
+        reanunciarNomes(antes);
+
+        for (Iterator<Map.Entry<String, Espelho>> it = espelhos.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Espelho> entrada = it.next();
+            if (no.equals(entrada.getValue().dono)) {
+                it.remove();
+                for (RegistroUsuarios.Usuario usuario : entrada.getValue().membros.values()) {
+                    ServidorChat.entrarNaSala(entrada.getKey(), usuario, true);
+                }
+            }
+        }
+    }
+
+    /**
+     * Um nó fora do ar não tem histórico aberto: as salas que esperavam por ele são retomadas.
+     */
+    private void marcarMorto(String no) {
+        List<Sala> suspensas;
+        synchronized (this) {
+            mortos.add(no);
+            liberaram.remove(no);
+            recalcularAnel();
+            suspensas = aguardandoLiberacao.remove(no);
+        }
+        retomar(suspensas);
+    }
+
+    private void recalcularAnel() {
+        List<String> nos = new ArrayList<>(ativos);
+        nos.add(id);
+        anel = new AnelHash(nos, virtuais);
+        List<String> vivos = new ArrayList<>(ligacoes.keySet());
+        vivos.removeAll(mortos);
+        anelAnterior = new AnelHash(vivos, virtuais);
+    }
+
+    /**
+     * Chamado ao ativar uma sala neste nó. Se ela seria de outro nó vivo que ainda não confirmou
+     * ter fechado as salas que passaram a este (LIBERADAS), a caixa da sala fica suspensa até a
+     * confirmação ou até esperaMs.
+     */
+    void aguardarLiberacao(Sala sala) {
+        String anterior = anelAnterior.dono(sala.nome);
+        synchronized (this) {
+            if (anterior == null || liberaram.contains(anterior)) {
+                return;
+            }
+            sala.suspender();
+            aguardandoLiberacao.computeIfAbsent(anterior, n -> new ArrayList<>()).add(sala);
+        }
+        agendador.schedule(() -> {
+            synchronized (this) {
+                List<Sala> suspensas = aguardandoLiberacao.get(anterior);
+                if (suspensas == null || !suspensas.remove(sala)) {
+                    return;
+                }
+            }
+            Log.aviso("O nó " + anterior + " não liberou a sala " + sala.nome + " a tempo; abrindo mesmo assim.");
+            sala.retomar();
+        }, esperaMs, TimeUnit.MILLISECONDS);
+    }
+
+    private static void retomar(List<Sala> suspensas) {
+        if (suspensas != null) {
+            for (Sala sala : suspensas) {
+                sala.retomar();
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------- Nomes de usuário
+
+    /**
+     * Reserva o nome no nó dono dele. Bloqueia até a resposta ou esperaMs; sem resposta, o nome é aceito.
+     * @return false se o nome já estiver em uso em outro nó
+     */
+    boolean reservarNome(String nome) {
+        String dono = anel.dono("@" + nome);
+        if (id.equals(dono)) {
+            return reservarNome(nome, id, false);
+        }
+        long pedido = proximoPedido.getAndIncrement();
+        CompletableFuture<ByteBuffer> resposta = new CompletableFuture<>();
+        respostas.put(pedido, resposta);
+        Protocolo.Quadro quadro = new Protocolo.Quadro(RESERVAR_NOME);
+        quadro.escrever(pedido);
+        quadro.escrever(nome);
+        quadro.escrever(id);
+        quadro.escrever(0);
+        enviar(dono, quadro.finalizar());
+        try {
+            return Protocolo.lerNumero(resposta.get(esperaMs, TimeUnit.MILLISECONDS)) == 1;
+        } catch (TimeoutException | ExecutionException e) {
+            Log.aviso("O nó " + dono + " não respondeu à reserva do nome " + nome + "; aceitando o nome.");
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return true;
+        } finally {
+            respostas.remove(pedido);
+        }
+    }
+
+    void liberarNome(String nome) {
+        String dono = anel.dono("@" + nome);
+        if (id.equals(dono)) {
+            nomes.remove(nome, id);
+            return;
+        }
+        Protocolo.Quadro quadro = new Protocolo.Quadro(LIBERAR_NOME);
+        quadro.escrever(nome);
+        quadro.escrever(id);
+        enviar(dono, quadro.finalizar());
+    }
+
+    private boolean reservarNome(String nome, String no, boolean forcado) {
+        if (forcado) {
+            nomes.put(nome, no);
+            return true;
+        }
+        String atual = nomes.putIfAbsent(nome, no);
+        return atual == null || atual.equals(no);
+    }
+
+    /**
+     * Depois de uma mudança no anel, registra os nomes dos clientes deste nó nos seus novos donos
+     * e esquece os nomes de que este nó deixou de ser dono.
+     */
+    private void reanunciarNomes(AnelHash antes) {
+        AnelHash depois = anel;
+        nomes.keySet().removeIf(nome -> !id.equals(depois.dono("@" + nome)));
+        for (RegistroUsuarios.Usuario usuario : ServidorChat.usuarios()) {
+            String chave = "@" + usuario.nome;
+            String dono = depois.dono(chave);
+            if (dono.equals(antes.dono(chave))) {
+                continue;
+            }
+            if (id.equals(dono)) {
+                nomes.put(usuario.nome, id);
+            } else {
+                Protocolo.Quadro quadro = new Protocolo.Quadro(RESERVAR_NOME);
+                quadro.escrever(0);
+                quadro.escrever(usuario.nome);
+                quadro.escrever(id);
+                quadro.escrever(1);
+                enviar(dono, quadro.finalizar());
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------- Salas
+
+    /**
+     * Envia ao dono da sala um pedido de um cliente, seja ele deste nó ou um membro remoto cujo
+     * pedido chegou aqui e está sendo repassado. Se o dono for este nó, o pedido é tratado aqui.
+     */
+    void pedir(byte opcode, String sala, RegistroUsuarios.Usuario usuario, Consumer<Protocolo.Quadro> campos) {
+        Protocolo.Quadro quadro = new Protocolo.Quadro(opcode);
+        quadro.escrever(0);
+        quadro.escrever(sala);
+        quadro.escrever(usuario.no != null ? usuario.no : id);
+        quadro.escrever(usuario.nome);
+        campos.accept(quadro);
+        String dono = dono(sala);
+        if (id.equals(dono)) {
+            ByteBuffer pedido = quadro.finalizar();
+            processar(id, Protocolo.proximoQuadro(pedido.duplicate()));
+        } else {
+            enviar(dono, quadro.finalizar());
+        }
+    }
+
+    /**
+     * Avisa o nó de um membro que ele entrou em uma sala deste nó.
+     */
+    void membroEntrou(String no, String sala, String usuario) {
+        Protocolo.Quadro quadro = new Protocolo.Quadro(ENTROU);
+        quadro.escrever(sala);
+        quadro.escrever(usuario);
+        enviar(no, quadro.finalizar());
+    }
+
+    void membroSaiu(String no, String sala, String usuario) {
+        Protocolo.Quadro quadro = new Protocolo.Quadro(SAIU);
+        quadro.escrever(sala);
+        quadro.escrever(usuario);
+        enviar(no, quadro.finalizar());
+    }
+
+    /**
+     * Envia uma mensagem da sala ao nó, que a entrega aos seus clientes na sala.
+     * @param mensagem O quadro MENSAGEM_SALA, codificado uma vez para todos os nós e clientes binários
+     */
+    void difundir(String no, String sala, String autor, ByteBuffer mensagem) {
+        Protocolo.Quadro quadro = new Protocolo.Quadro(DIFUNDIR);
+        quadro.escrever(sala);
+        quadro.escrever(autor);
+        quadro.escrever(mensagem.duplicate());
+        enviar(no, quadro.finalizar());
+    }
+
+    /**
+     * Envia um quadro do protocolo do cliente a um usuário conectado em outro nó.
+     */
+    void entregar(String no, String usuario, ByteBuffer conteudo) {
+        Protocolo.Quadro quadro = new Protocolo.Quadro(ENTREGAR);
+        quadro.escrever(usuario);
+        quadro.escrever(conteudo.duplicate());
+        enviar(no, quadro.finalizar());
+    }
+
+    /**
+     * Envia ao novo dono de uma sala os membros dela. Os membros remotos deixam de ser deste nó.
+     */
+    void transferir(String destino, String sala, List<RegistroUsuarios.Usuario> membros) {
+        Protocolo.Quadro quadro = new Protocolo.Quadro(TRANSFERIR);
+        quadro.escrever(0);
+        quadro.escrever(sala);
+        quadro.escrever(membros.size());
+        for (RegistroUsuarios.Usuario membro : membros) {
+            quadro.escrever(membro.no != null ? membro.no : id);
+            quadro.escrever(membro.nome);
+            if (membro.no != null) {
+                Map<String, RegistroUsuarios.Usuario> doNo = remotos.get(membro.no);
+                if (doNo != null) {
+                    doNo.remove(membro.nome, membro);
+                }
+            }
+        }
+        enviar(destino, quadro.finalizar());
+    }
+
+    /**
+     * Lista uma página das salas do catálogo de todos os nós no ar: cada nó responde com as suas
+     * primeiras salas a partir de desde, e a página é o começo da união das respostas. Nós que não
+     * responderem em ESPERA_CONSULTA_MS ficam de fora.
+     * @param desde A primeira sala da página; vazio para começar do início
+     * @param quantidade Salas na página, até MAXIMO_SALAS_LISTADAS
+     * @return Os nomes, em ordem alfabética
+     */
+    CompletableFuture<List<String>> listarSalas(String desde, int quantidade) {
+        Set<String> todas = new ConcurrentSkipListSet<>(ServidorChat.nomesSalas(desde, quantidade));
+        List<CompletableFuture<Void>> pedidos = new ArrayList<>();
+        for (String no : ativos) {
+            long pedido = proximoPedido.getAndIncrement();
+            CompletableFuture<ByteBuffer> resposta = new CompletableFuture<>();
+            respostas.put(pedido, resposta);
+            Protocolo.Quadro quadro = new Protocolo.Quadro(LISTAR_SALAS);
+            quadro.escrever(pedido);
+            quadro.escrever(desde);
+            quadro.escrever(quantidade);
+            enviar(no, quadro.finalizar());
+            pedidos.add(resposta.completeOnTimeout(null, ESPERA_CONSULTA_MS, TimeUnit.MILLISECONDS).thenAccept(campos -> {
+                respostas.remove(pedido);
+                if (campos != null) {
+                    for (long n = Protocolo.lerNumero(campos); n > 0; n--) {
+                        todas.add(Protocolo.lerTexto(campos));
+                    }
+                }
+            }));
+        }
+        return CompletableFuture.allOf(pedidos.toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+            List<String> pagina = new ArrayList<>(quantidade);
+            for (Iterator<String> nome = todas.iterator(); nome.hasNext() && pagina.size() < quantidade; ) {
+                pagina.add(nome.next());
+            }
+            return pagina;
+        });
+    }
+
+    // ---------------------------------------------------------------- Recepção
+
+    /**
+     * Aceita as ligações dos outros nós, cada uma lida por uma thread própria.
+     */
+    private void aceitar(ServerSocket escuta) {
+        while (true) {
+            try {
+                Socket socket = escuta.accept();
+                Thread leitura = new Thread(() -> ler(socket), "cluster-leitura");
+                leitura.setDaemon(true);
+                leitura.start();
+            } catch (IOException e) {
+                Log.erro("Erro ao aceitar uma ligação de outro nó: " + e);
+            }
+        }
+    }
+
+    /**
+     * Lê os quadros de outro nó até a ligação cair. O primeiro identifica o nó; uma nova ligação
+     * é uma nova sessão do outro nó, que precisa liberar de novo as salas que eram dele.
+     */
+    private void ler(Socket socket) {
+        String no = null;
+        try (Socket s = socket) {
+            InputStream in = new BufferedInputStream(s.getInputStream(), 64 * 1024);
+            ByteBuffer quadro = Protocolo.lerQuadro(in);
+            if (quadro == null || quadro.get() != OLA) {
+                return;
+            }
+            String apresentado = Protocolo.lerTexto(quadro);
+            if (!ligacoes.containsKey(apresentado)) {
+                Log.aviso("Ligação recusada de um nó fora da configuração: " + apresentado);
+                return;
+            }
+            // Uma apresentação recusada não derruba a ligação com o nó verdadeiro
+            if (!olaValido(apresentado, quadro)) {
+                Log.aviso("Ligação recusada de " + s.getRemoteSocketAddress() + ": apresentação de " + apresentado + " sem o segredo do cluster ou fora do horário");
+                return;
+            }
+            no = apresentado;
+            synchronized (this) {
+                mortos.remove(no);
+                liberaram.remove(no);
+                recalcularAnel();
+            }
+            while ((quadro = Protocolo.lerQuadro(in)) != null) {
+                quadrosRecebidos.increment();
+                try {
+                    processar(no, quadro);
+                } catch (RuntimeException e) {
+                    Log.erro("Erro ao processar um quadro de " + no + ": " + e);
+                }
+            }
+        } catch (IOException e) {
+            // Ligação perdida
+        } catch (RuntimeException e) {
+            Log.aviso("Ligação recusada de " + socket.getRemoteSocketAddress() + ": apresentação inválida (" + e + ")");
+        }
+        if (no != null && ligacoes.containsKey(no)) {
+            ligacoes.get(no).derrubar(); // Força a reconexão, que detecta se o nó caiu
+        }
+    }
+
+    /**
+     * Processa um quadro recebido de outro nó, ou um pedido deste nó para ele mesmo.
+     * @param de O nó que enviou
+     * @param quadro O opcode e os campos
+     */
+    private void processar(String de, ByteBuffer quadro) {
+        byte opcode = quadro.get();
+        switch (opcode) {
+            case ENTRAR: case RETOMAR: case SAIR: case PUBLICAR: case PRIVADA: case MEMBROS: case HISTORICO: case PESQUISAR:
+                processarPedido(opcode, quadro);
+                break;
+            case ENTROU: {
+                String sala = Protocolo.lerTexto(quadro);
+                RegistroUsuarios.Usuario usuario = ServidorChat.usuario(Protocolo.lerTexto(quadro));
+                if (usuario != null) {
+                    Espelho espelho = espelhos.computeIfAbsent(sala, s -> new Espelho());
+                    espelho.dono = de;
+                    espelho.membros.put(usuario.nome, usuario);
+                }
+                break;
+            }
+            case SAIU: {
+                String sala = Protocolo.lerTexto(quadro);
+                String usuario = Protocolo.lerTexto(quadro);
+                espelhos.computeIfPresent(sala, (s, espelho) -> {
+                    espelho.membros.remove(usuario);
+                    return espelho.membros.isEmpty() ? null : espelho;
+                });
+                break;
+            }
+            case DIFUNDIR:
+                entregarNaSala(Protocolo.lerTexto(quadro), Protocolo.lerTexto(quadro), quadro.slice());
+                break;
+            case ENTREGAR: {
+                RegistroUsuarios.Usuario usuario = ServidorChat.usuario(Protocolo.lerTexto(quadro));
+                if (usuario != null) {
+                    ByteBuffer mensagem = quadro.slice();
+                    entrega(usuario).execute(() -> usuario.conexao.enviarQuadro(mensagem));
+                }
+                break;
+            }
+            case TRANSFERIR:
+                receberTransferencia(quadro);
+                break;
+            case LIBERADAS: {
+                List<Sala> suspensas;
+                synchronized (this) {
+                    liberaram.add(de);
+                    suspensas = aguardandoLiberacao.remove(de);
+                }
+                retomar(suspensas);
+                break;
+            }
+            case RESERVAR_NOME: {
+                long pedido = Protocolo.lerNumero(quadro);
+                String nome = Protocolo.lerTexto(quadro);
+                String no = Protocolo.lerTexto(quadro);
+                boolean forcado = Protocolo.lerNumero(quadro) == 1;
+                boolean aceito = reservarNome(nome, no, forcado);
+                if (!forcado) {
+                    Protocolo.Quadro resposta = new Protocolo.Quadro(RESPOSTA);
+                    resposta.escrever(pedido);
+                    resposta.escrever(aceito ? 1 : 0);
+                    enviar(de, resposta.finalizar());
+                }
+                break;
+            }
+            case LIBERAR_NOME:
+                nomes.remove(Protocolo.lerTexto(quadro), Protocolo.lerTexto(quadro));
+                break;
+            case LISTAR_SALAS: {
+                long pedido = Protocolo.lerNumero(quadro);
+                String desde = Protocolo.lerTexto(quadro);
+                int quantidade = (int) Math.min(MAXIMO_SALAS_LISTADAS, Protocolo.lerNumero(quadro));
+                // Nomes muito longos, de antes de existir o limite das linhas, não podem estourar o quadro
+                List<String> salas = new ArrayList<>();
+                Protocolo.Quadro nomes = new Protocolo.Quadro(RESPOSTA);
+                for (String sala : ServidorChat.nomesSalas(desde, quantidade)) {
+                    nomes.escrever(sala);
+                    if (nomes.tamanho() > Protocolo.LIMITE_QUADRO / 2) {
+                        break;
+                    }
+                    salas.add(sala);
+                }
+                Protocolo.Quadro resposta = new Protocolo.Quadro(RESPOSTA);
+                resposta.escrever(pedido);
+                resposta.escrever(salas.size());
+                for (String sala : salas) {
+                    resposta.escrever(sala);
+                }
+                enviar(de, resposta.finalizar());
+                break;
+            }
+            case RESPOSTA: {
+                CompletableFuture<ByteBuffer> resposta = respostas.get(Protocolo.lerNumero(quadro));
+                if (resposta != null) {
+                    resposta.complete(quadro.slice());
+                }
+                break;
+            }
+            default:
+                Log.aviso("Quadro desconhecido do nó " + de + ": " + opcode);
+        }
+    }
+
+    /**
+     * Trata um pedido ao dono de uma sala. Se este nó não for o dono e não tiver a sala ativa,
+     * o pedido segue para o dono segundo o anel deste nó, até SALTOS_MAXIMOS vezes.
+     */
+    private void processarPedido(byte opcode, ByteBuffer quadro) {
+        int inicio = quadro.position();
+        long saltos = Protocolo.lerNumero(quadro);
+        String sala = Protocolo.lerTexto(quadro);
+        if (encaminhar(opcode, quadro, inicio, saltos, sala)) {
+            return;
+        }
+        String no = Protocolo.lerTexto(quadro);
+        RegistroUsuarios.Usuario usuario = usuario(no, Protocolo.lerTexto(quadro));
+        if (usuario == null) {
+            return; // Cliente deste nó que já desconectou
+        }
+        switch (opcode) {
+            case ENTRAR: {
+                boolean migracao = Protocolo.lerNumero(quadro) == 1;
+                usuario.sala = sala;
+                ServidorChat.reservarSala(sala).entrar(usuario, migracao);
+                break;
+            }
+            case RETOMAR: {
+                long ultimaSequencia = Protocolo.lerNumero(quadro);
+                usuario.sala = sala;
+                ServidorChat.reservarSala(sala).retomar(usuario, ultimaSequencia);
+                break;
+            }
+            case SAIR: {
+                Sala ativa = ServidorChat.sala(sala);
+                if (ativa != null) {
+                    ativa.sair(usuario, Protocolo.lerNumero(quadro) == 1);
+                    ServidorChat.liberarSala(ativa);
+                }
+                if (usuario.no != null) {
+                    usuario.sala = "";
+                    Map<String, RegistroUsuarios.Usuario> doNo = remotos.get(usuario.no);
+                    if (doNo != null) {
+                        doNo.remove(usuario.nome, usuario);
+                    }
+                }
+                break;
+            }
+            case PUBLICAR:
+                ServidorChat.ativarSala(sala).publicar(usuario, Protocolo.lerTexto(quadro));
+                break;
+            case PRIVADA:
+                ServidorChat.ativarSala(sala).enviarPrivada(usuario, Protocolo.lerTexto(quadro), Protocolo.lerTexto(quadro));
+                break;
+            case MEMBROS:
+                ServidorChat.ativarSala(sala).listarMembros(usuario);
+                break;
+            case HISTORICO: {
+                int pagina = (int) Protocolo.lerNumero(quadro);
+                consultas.execute(() -> ServidorChat.ativarSala(sala).enviarHistorico(usuario, pagina));
+                break;
+            }
+            case PESQUISAR: {
+                String consulta = Protocolo.lerTexto(quadro);
+                consultas.execute(() -> ServidorChat.ativarSala(sala).pesquisar(usuario, consulta));
+                break;
+            }
+        }
+    }
+
+    /**
+     * O novo dono recoloca os membros na sala, sem avisos. Os clientes deste nó que estavam nela
+     * deixam de ser entregues pelo espelho e passam a ser membros locais.
+     */
+    private void receberTransferencia(ByteBuffer quadro) {
+        int inicio = quadro.position();
+        long saltos = Protocolo.lerNumero(quadro);
+        String sala = Protocolo.lerTexto(quadro);
+        if (encaminhar(TRANSFERIR, quadro, inicio, saltos, sala)) {
+            return;
+        }
+        espelhos.remove(sala);
+        for (long n = Protocolo.lerNumero(quadro); n > 0; n--) {
+            RegistroUsuarios.Usuario usuario = usuario(Protocolo.lerTexto(quadro), Protocolo.lerTexto(quadro));
+            if (usuario != null) {
+                usuario.sala = sala;
+                ServidorChat.reservarSala(sala).entrar(usuario, true);
+            }
+        }
+    }
+
+    /**
+     * Repassa o quadro ao dono da sala, se este nó não for o dono e não tiver a sala ativa.
+     * @param inicio A posição dos saltos no quadro
+     * @return true se o quadro foi repassado
+     */
+    private boolean encaminhar(byte opcode, ByteBuffer quadro, int inicio, long saltos, String sala) {
+        String dono = dono(sala);
+        if (id.equals(dono) || saltos >= SALTOS_MAXIMOS || ServidorChat.sala(sala) != null) {
+            return false;
+        }
+        ByteBuffer resto = quadro.duplicate();
+        resto.position(inicio);
+        Protocolo.lerNumero(resto);
+        Protocolo.Quadro encaminhado = new Protocolo.Quadro(opcode);
+        encaminhado.escrever(saltos + 1);
+        encaminhado.escrever(resto);
+        enviar(dono, encaminhado.finalizar());
+        return true;
+    }
+
+    /**
+     * @return O cliente deste nó com o nome informado, ou o membro remoto que representa um cliente
+     * de outro nó, criado no primeiro pedido dele
+     */
+    private RegistroUsuarios.Usuario usuario(String no, String nome) {
+        if (id.equals(no)) {
+            return ServidorChat.usuario(nome);
+        }
+        return remotos.computeIfAbsent(no, n -> new ConcurrentHashMap<>())
+                .computeIfAbsent(nome, n -> new RegistroUsuarios.Usuario(proximoRemoto.getAndIncrement(), nome,
+                        new ConexaoRemota(this, no, nome), no));
+    }
+
+    /**
+     * Entrega uma mensagem de uma sala de outro nó aos clientes deste nó que estão nela.
+     * Os membros são separados aqui, pela fila de entrega de cada um, e o envio fica com as filas:
+     * um cliente lento não segura a leitura da ligação. A linha de texto é montada uma vez.
+     */
+    private void entregarNaSala(String sala, String autor, ByteBuffer mensagem) {
+        Espelho espelho = espelhos.get(sala);
+        if (espelho == null) {
+            return;
+        }
+        List<List<RegistroUsuarios.Usuario>> porFila = new ArrayList<>(Collections.nCopies(entregas.length, null));
+        ByteBuffer linha = null;
+        for (RegistroUsuarios.Usuario membro : espelho.membros.values()) {
+            if (membro.nome.equals(autor)) {
+                continue;
+            }
+            if (linha == null && !membro.conexao.binaria()) {
+                linha = Protocolo.paraTexto(mensagem);
+            }
+            int fila = fila(membro);
+            if (porFila.get(fila) == null) {
+                porFila.set(fila, new ArrayList<>());
+            }
+            porFila.get(fila).add(membro);
+        }
+        ByteBuffer texto = linha;
+        for (int fila = 0; fila < entregas.length; fila++) {
+            List<RegistroUsuarios.Usuario> membros = porFila.get(fila);
+            if (membros != null) {
+                entregas[fila].execute(() -> {
+                    for (RegistroUsuarios.Usuario membro : membros) {
+                        membro.conexao.enviar(membro.conexao.binaria() ? mensagem : texto);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * @return A fila que entrega ao usuário as mensagens dos outros nós, sempre a mesma para manter a ordem
+     */
+    private ExecutorSerial entrega(RegistroUsuarios.Usuario usuario) {
+        return entregas[fila(usuario)];
+    }
+
+    private int fila(RegistroUsuarios.Usuario usuario) {
+        return (int) (usuario.id % entregas.length);
+    }
+
+    private void enviar(String no, ByteBuffer quadro) {
+        LigacaoNo ligacao = ligacoes.get(no);
+        if (ligacao != null) {
+            ligacao.enviar(quadro);
+        }
+    }
+
+    /**
+     * @return O primeiro quadro das ligações deste nó, assinado com o segredo do cluster
+     */
+    ByteBuffer ola() {
+        long horario = System.currentTimeMillis();
+        Protocolo.Quadro quadro = new Protocolo.Quadro(OLA);
+        quadro.escrever(id);
+        quadro.escrever(horario);
+        quadro.escrever(ByteBuffer.wrap(assinatura(id, horario)));
+        return quadro.finalizar();
+    }
+
+    /**
+     * Confere o resto de um OLA: o horário precisa estar a até VALIDADE_OLA_MS do relógio deste nó,
+     * e a assinatura precisa ter sido feita com o mesmo segredo. Não protege a ligação em si,
+     * que não é cifrada; a malha deve ficar em uma rede privada.
+     */
+    private static boolean olaValido(String no, ByteBuffer quadro) {
+        long horario = Protocolo.lerNumero(quadro);
+        byte[] recebida = new byte[quadro.remaining()];
+        quadro.get(recebida);
+        return Math.abs(System.currentTimeMillis() - horario) <= VALIDADE_OLA_MS
+                && MessageDigest.isEqual(recebida, assinatura(no, horario));
+    }
+
+    /**
+     * @return HMAC-SHA256 do nó e do horário, com o segredo do cluster
+     */
+    private static byte[] assinatura(String no, long horario) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(ServidorChat.SEGREDO_CLUSTER.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+            mac.update(no.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            return mac.doFinal(Long.toString(horario).getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HMAC-SHA256 indisponível", e);
+        }
+    }
+
+    /**
+     * @param no Um endereço "host:porta"
+     */
+    static InetSocketAddress endereco(String no) {
+        int separador = no.lastIndexOf(':');
+        if (separador < 0) {
+            throw new IllegalArgumentException("Endereço de nó inválido (use host:porta): " + no);
+        }
+        return new InetSocketAddress(no.substring(0, separador), Integer.parseInt(no.substring(separador + 1)));
+    }
+}
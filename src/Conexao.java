@@ -0,0 +1,118 @@
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Canal de saída de um cliente conectado.
+ * Abstrai o motor de conexões (thread por conexão ou NIO) e o protocolo (texto ou binário)
+ * para o {@link ServidorChat.Handler}.
+ */
+interface Conexao {
+
+    /**
+     * @return true se o cliente negociou o {@link Protocolo} binário
+     */
+    default boolean binaria() {
+        return false;
+    }
+
+    /**
+     * Enfileira uma resposta de texto para o cliente. Não bloqueia esperando o socket,
+     * exceto quando a política da fila de saída é BLOQUEAR e ela está cheia.
+     * @param mensagem A mensagem a ser enviada, sem a quebra de linha final
+     */
+    default void enviar(String mensagem) {
+        enviar(Protocolo.Tipo.INFO, mensagem);
+    }
+
+    /**
+     * Enfileira uma resposta de texto de um tipo. No protocolo de texto, o tipo vira o prefixo
+     * da linha, como "[Erro] ".
+     */
+    default void enviar(Protocolo.Tipo tipo, String mensagem) {
+        enviar(binaria() ? Protocolo.texto(tipo, mensagem) : Mensagem.codificar(tipo.prefixo + mensagem));
+    }
+
+    /**
+     * Enfileira mensagens do histórico de uma sala. No protocolo binário elas vão em lotes,
+     * cada um com até {@link Protocolo#TAMANHO_MAXIMO_QUADRO} bytes de quadros.
+     */
+    default void enviar(List<Mensagem> mensagens, String sala) {
+        if (!binaria()) {
+            for (Mensagem mensagem : mensagens) {
+                enviar(mensagem.linha()); // Codificada uma vez, reaproveitada a cada envio
+            }
+        } else if (!mensagens.isEmpty()) {
+            List<ByteBuffer> quadros = new ArrayList<>(mensagens.size());
+            int tamanhoLote = 0;
+            for (Mensagem mensagem : mensagens) {
+                ByteBuffer quadro = mensagem.quadro(sala);
+                if (!quadros.isEmpty() && tamanhoLote + quadro.remaining() > Protocolo.TAMANHO_MAXIMO_QUADRO) {
+                    enviar(Protocolo.lote(quadros));
+                    quadros.clear();
+                    tamanhoLote = 0;
+                }
+                quadros.add(quadro);
+                tamanhoLote += quadro.remaining();
+            }
+            enviar(Protocolo.lote(quadros));
+        }
+    }
+
+    /**
+     * Enfileira uma mensagem privada recebida de outro membro da sala.
+     */
+    default void enviarPrivada(String sala, String remetente, String texto) {
+        enviar(binaria()
+                ? Protocolo.mensagem(Protocolo.Tipo.PRIVADA, sala, -1, System.currentTimeMillis(), remetente, texto)
+                : Mensagem.codificar("Mensagem privada de " + remetente + ": " + texto));
+    }
+
+    /**
+     * Enfileira quadros do protocolo binário vindos de outro nó do cluster, convertidos em
+     * linhas se o cliente usa o protocolo de texto.
+     * @param quadros Um ou mais quadros completos, com o tamanho na frente
+     */
+    default void enviarQuadro(ByteBuffer quadros) {
+        enviar(binaria() ? quadros : Protocolo.paraTexto(quadros));
+    }
+
+    /**
+     * Enfileira um sinal de vida, {@link Protocolo#PING} ou {@link Protocolo#PONG}, no protocolo da conexão.
+     */
+    default void enviarSinal(byte opcode) {
+        enviar(binaria() ? new Protocolo.Quadro(opcode).finalizar()
+                : Mensagem.codificar(opcode == Protocolo.PING ? Protocolo.PING_TEXTO : Protocolo.PONG_TEXTO));
+    }
+
+    /**
+     * Enfileira dados já codificados no protocolo desta conexão: uma linha em UTF-8 com a
+     * quebra de linha, ou um quadro binário completo.
+     * O buffer pode ser compartilhado por vários destinatários: a conexão usa uma cópia
+     * da posição e do limite ({@link ByteBuffer#duplicate()}), nunca altera o conteúdo.
+     * @param dados Os dados codificados, normalmente somente leitura
+     */
+    void enviar(ByteBuffer dados);
+
+    /**
+     * Fecha a conexão depois de entregar as mensagens já enviadas.
+     */
+    void fechar();
+
+    /**
+     * Fecha a conexão na hora, descartando as mensagens ainda não entregues. Usado quando o
+     * cliente parou de responder, e a saída pode nunca ser consumida.
+     */
+    default void derrubar() {
+        fechar();
+    }
+
+    /**
+     * @return Quantidade de mensagens aguardando escrita no socket
+     */
+    int tamanhoFilaSaida();
+
+    /**
+     * @return Quantidade de mensagens descartadas porque o cliente não as consumia a tempo
+     */
+    long mensagensDescartadas();
+}
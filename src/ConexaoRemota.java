@@ -0,0 +1,46 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Conexão de um membro de sala conectado em outro nó do cluster, usada pelo nó dono da sala.
+ * Fala o protocolo binário: as respostas e mensagens individuais, já codificadas como quadros
+ * do {@link Protocolo}, vão pela ligação com o nó do usuário, que as entrega a ele no protocolo
+ * que o cliente usa. As mensagens da sala não passam por aqui: vão uma vez para cada nó.
+ */
+class ConexaoRemota implements Conexao {
+    private final Cluster cluster;
+    private final String no; // Nó em que o usuário está conectado
+    private final String usuario;
+
+    ConexaoRemota(Cluster cluster, String no, String usuario) {
+        this.cluster = cluster;
+        this.no = no;
+        this.usuario = usuario;
+    }
+
+    @Override
+    public boolean binaria() {
+        return true;
+    }
+
+    @Override
+    public void enviar(ByteBuffer quadro) {
+        cluster.entregar(no, usuario, quadro);
+    }
+
+    /**
+     * A conexão é fechada pelo nó do usuário.
+     */
+    @Override
+    public void fechar() {
+    }
+
+    @Override
+    public int tamanhoFilaSaida() {
+        return 0;
+    }
+
+    @Override
+    public long mensagensDescartadas() {
+        return 0;
+    }
+}
@@ -0,0 +1,135 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.Executor;
+
+/**
+ * Conexão atendida por uma thread própria (virtual, quando disponível) com leituras bloqueantes.
+ * As escritas passam pela {@link FilaSaida} e são feitas por uma segunda tarefa da conexão.
+ */
+class ConexaoSocket implements Conexao, Runnable, DecodificadorEntrada.Destino {
+    private static final int LOTE_ESCRITA = 64; // Mensagens escritas antes de cada flush
+    private static final int TAMANHO_BUFFER = 8192; // Bytes lidos do socket de cada vez
+
+    private final Socket socket; // Socket do cliente
+    private final Executor executor; // Executa a tarefa de escrita
+    private final ServidorChat.Handler handler; // Processa os comandos do cliente
+    private final FilaSaida saida = ServidorChat.novaFilaSaida(); // Mensagens aguardando escrita
+    private final DecodificadorEntrada decodificador = new DecodificadorEntrada(); // Separa as linhas ou quadros recebidos
+    private volatile boolean binaria; // O cliente negociou o protocolo binário
+
+    ConexaoSocket(Socket socket, Executor executor) {
+        this.socket = socket;
+        this.executor = executor;
+        this.handler = new ServidorChat.Handler(this);
+    }
+
+    /**
+     * Lê as linhas ou quadros do cliente até o fim da conexão, repassando cada um ao Handler.
+     */
+    public void run() {
+        try {
+            InputStream in = socket.getInputStream();
+            executor.execute(this::escreverSaida);
+
+            handler.iniciar();
+            byte[] buffer = new byte[TAMANHO_BUFFER];
+            int lidos;
+            while ((lidos = in.read(buffer)) >= 0) {
+                Metricas.BYTES_RECEBIDOS.add(lidos);
+                handler.registrarLeitura();
+                if (!decodificador.receber(ByteBuffer.wrap(buffer, 0, lidos), this)) {
+                    Log.aviso("Usuário " + handler.getNomeCliente() + " enviou uma linha ou quadro grande demais e foi desconectado.");
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            Log.info("Usuário " + handler.getNomeCliente() + " desconectado do servidor.");
+        } finally {
+            handler.encerrar();
+            saida.fechar();
+            fecharSocket();
+        }
+    }
+
+    /**
+     * Escreve a fila de saída no socket, agrupando as mensagens disponíveis em um único flush.
+     * Ao fechar a fila, escreve o que restou e fecha o socket.
+     */
+    private void escreverSaida() {
+        try {
+            OutputStream stream = new BufferedOutputStream(socket.getOutputStream());
+            WritableByteChannel canal = Channels.newChannel(stream); // Aceita os buffers somente leitura compartilhados
+            List<ByteBuffer> lote = new ArrayList<>(LOTE_ESCRITA);
+            while (saida.retirarLote(lote, LOTE_ESCRITA)) {
+                for (ByteBuffer mensagem : lote) {
+                    while (mensagem.hasRemaining()) {
+                        canal.write(mensagem);
+                    }
+                }
+                stream.flush();
+                lote.clear();
+            }
+        } catch (IOException e) {
+            // O cliente caiu; a thread de leitura faz a limpeza
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            fecharSocket();
+        }
+    }
+
+    public void linha(String linha) {
+        handler.processarLinha(linha);
+    }
+
+    public void quadro(ByteBuffer quadro) {
+        handler.processarQuadro(quadro);
+    }
+
+    public void protocoloBinario() {
+        enviar(Mensagem.codificar(Protocolo.CONFIRMACAO)); // Última linha de texto
+        binaria = true;
+    }
+
+    public boolean binaria() {
+        return binaria;
+    }
+
+    public void enviar(ByteBuffer dados) {
+        Metricas.MENSAGENS_ENVIADAS.increment();
+        Metricas.BYTES_ENVIADOS.add(dados.remaining());
+        if (!saida.oferecer(dados.duplicate())) {
+            Log.aviso("Usuário " + handler.getNomeCliente() + " desconectado por não consumir as mensagens a tempo.");
+            derrubar();
+        }
+    }
+
+    public void fechar() {
+        saida.fechar(); // A tarefa de escrita entrega o que falta e fecha o socket
+    }
+
+    public void derrubar() {
+        saida.limpar();
+        saida.fechar();
+        fecharSocket(); // A leitura bloqueada falha, e a thread de leitura faz a limpeza
+    }
+
+    public int tamanhoFilaSaida() {
+        return saida.tamanho();
+    }
+
+    public long mensagensDescartadas() {
+        return saida.descartadas();
+    }
+
+    private void fecharSocket() {
+        try {
+            if (!socket.isClosed()) {socket.close();}
+        } catch (IOException e) {
+            Log.erro("ERRO AO FECHAR O SOCKET: " + e.getMessage());
+        }
+    }
+}
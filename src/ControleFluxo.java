@@ -0,0 +1,282 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limites de vazão dos clientes, com baldes de fichas: cada comando limitado gasta uma ficha,
+ * e as fichas voltam a uma taxa fixa até o tamanho da rajada. Há um balde por tipo de comando
+ * em cada escopo: a conexão, o nome do usuário (que continua valendo se ele reconectar) e a sala.
+ * O comando que encontra um balde vazio é descartado, e o cliente é avisado.
+ *
+ * Os baldes de usuários e salas ficam em mapas e são removidos quando voltam a ficar cheios,
+ * ou seja, quando o usuário ou a sala param de usar o comando.
+ */
+class ControleFluxo {
+    private static final long INTERVALO_LIMPEZA_S = 60; // Remoção dos baldes de usuários e salas parados
+
+    /**
+     * Comandos com orçamentos separados.
+     */
+    enum Tipo {
+        CHAT("mensagens"),            // Mensagens para a sala e privadas
+        PESQUISA("consultas"),        // /pesquisar e /historico, que leem o disco
+        ENTRADA("entradas em sala");  // /join
+
+        final String descricao;
+
+        Tipo(String descricao) {
+            this.descricao = descricao;
+        }
+    }
+
+    enum Escopo {
+        CONEXAO("conexão"),
+        USUARIO("usuário"),
+        SALA("sala");
+
+        final String descricao;
+
+        Escopo(String descricao) {
+            this.descricao = descricao;
+        }
+    }
+
+    /**
+     * Taxa e rajada de um balde.
+     */
+    static final class Limite {
+        final double porSegundo;
+        final int rajada;
+
+        Limite(double porSegundo, int rajada) {
+            this.porSegundo = porSegundo;
+            this.rajada = rajada;
+        }
+
+        /**
+         * Lê os limites de um tipo de comando no formato "taxa/rajada,taxa/rajada,taxa/rajada",
+         * na ordem conexão, usuário e sala. Um escopo com taxa 0 (ou só "0", para todos) não é limitado.
+         * @return Um limite por escopo, null nos escopos sem limite
+         */
+        static Limite[] ler(String configuracao) {
+            Limite[] limites = new Limite[Escopo.values().length];
+            String[] partes = configuracao.split(",");
+            for (int i = 0; i < limites.length && i < partes.length; i++) {
+                String[] valores = partes[i].trim().split("/");
+                double porSegundo = Double.parseDouble(valores[0]);
+                int rajada = valores.length > 1 ? Integer.parseInt(valores[1]) : (int) Math.ceil(porSegundo);
+                if (porSegundo > 0) {
+                    limites[i] = new Limite(porSegundo, Math.max(1, rajada));
+                }
+            }
+            return limites;
+        }
+
+        @Override
+        public String toString() {
+            return porSegundo + "/s (rajada " + rajada + ")";
+        }
+    }
+
+    /**
+     * Balde de fichas, reabastecido na hora do consumo conforme o tempo passado.
+     */
+    static final class Balde {
+        private final Limite limite;
+        private double fichas;
+        private long ultimaRecarga = System.nanoTime();
+
+        Balde(Limite limite) {
+            this.limite = limite;
+            this.fichas = limite.rajada;
+        }
+
+        /**
+         * @return true se havia uma ficha, que foi gasta
+         */
+        synchronized boolean consumir() {
+            recarregar();
+            if (fichas < 1) {
+                return false;
+            }
+            fichas--;
+            return true;
+        }
+
+        synchronized boolean cheio() {
+            recarregar();
+            return fichas >= limite.rajada;
+        }
+
+        private void recarregar() {
+            long agora = System.nanoTime();
+            fichas = Math.min(limite.rajada, fichas + (agora - ultimaRecarga) * limite.porSegundo / 1e9);
+            ultimaRecarga = agora;
+        }
+    }
+
+    /**
+     * Os baldes de uma conexão, usuário ou sala, um por tipo de comando, e quantos comandos
+     * foram descartados por eles.
+     */
+    static final class Cota {
+        private final Balde[] baldes = new Balde[Tipo.values().length]; // null nos tipos sem limite neste escopo
+        private final LongAdder limitados = new LongAdder();
+
+        /**
+         * @return true se todos os baldes estão cheios: a cota pode ser esquecida, com a contagem de descartes
+         */
+        private boolean parada() {
+            for (Balde balde : baldes) {
+                if (balde != null && !balde.cheio()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private final Limite[][] limites = new Limite[Tipo.values().length][]; // [tipo][escopo]
+    private final Map<String, Cota> usuarios = new ConcurrentHashMap<>();
+    private final Map<String, Cota> salas = new ConcurrentHashMap<>();
+    private final LongAdder[][] limitados = new LongAdder[Tipo.values().length][Escopo.values().length]; // Comandos descartados
+
+    /**
+     * @param chat Limites das mensagens, no formato de {@link Limite#ler(String)}
+     * @param pesquisa Limites do /pesquisar e do /historico
+     * @param entrada Limites do /join
+     */
+    ControleFluxo(String chat, String pesquisa, String entrada) {
+        limites[Tipo.CHAT.ordinal()] = Limite.ler(chat);
+        limites[Tipo.PESQUISA.ordinal()] = Limite.ler(pesquisa);
+        limites[Tipo.ENTRADA.ordinal()] = Limite.ler(entrada);
+        for (LongAdder[] porEscopo : limitados) {
+            for (int i = 0; i < porEscopo.length; i++) {
+                porEscopo[i] = new LongAdder();
+            }
+        }
+    }
+
+    /**
+     * @return Os baldes de uma nova conexão
+     */
+    Cota novaConexao() {
+        return novaCota(Escopo.CONEXAO);
+    }
+
+    /**
+     * Gasta uma ficha do tipo de comando na conexão, no usuário e na sala, nessa ordem.
+     * Um comando descartado conta para o usuário e para a sala, qualquer que seja o limite atingido.
+     * @param conexao Os baldes da conexão
+     * @param usuario O nome do usuário, ou null
+     * @param sala A sala afetada pelo comando, ou null
+     * @return null se o comando pode seguir, ou o escopo cujo limite foi atingido
+     */
+    Escopo permitir(Tipo tipo, Cota conexao, String usuario, String sala) {
+        Escopo escopo = null;
+        if (!consumir(conexao, tipo)) {
+            escopo = Escopo.CONEXAO;
+        } else if (usuario != null && limitado(tipo, Escopo.USUARIO) && !consumir(cota(usuarios, usuario, Escopo.USUARIO), tipo)) {
+            escopo = Escopo.USUARIO;
+        } else if (sala != null && limitado(tipo, Escopo.SALA) && !consumir(cota(salas, sala, Escopo.SALA), tipo)) {
+            escopo = Escopo.SALA;
+        }
+        if (escopo != null) {
+            limitados[tipo.ordinal()][escopo.ordinal()].increment();
+            if (usuario != null) {
+                cota(usuarios, usuario, Escopo.USUARIO).limitados.increment();
+            }
+            if (sala != null) {
+                cota(salas, sala, Escopo.SALA).limitados.increment();
+            }
+        }
+        return escopo;
+    }
+
+    /**
+     * Registra os contadores de comandos descartados, por tipo e escopo, exibidos no /stats.
+     */
+    void registrarMedidores() {
+        for (Tipo tipo : Tipo.values()) {
+            for (Escopo escopo : Escopo.values()) {
+                LongAdder contador = limitados[tipo.ordinal()][escopo.ordinal()];
+                Metricas.registrarMedidor("limite." + tipo.name().toLowerCase(Locale.ROOT) + "." + escopo.name().toLowerCase(Locale.ROOT), contador::sum);
+            }
+        }
+    }
+
+    /**
+     * @return Os usuários e as salas com mais comandos descartados, entre os que ainda têm baldes
+     */
+    List<String> relatorio(int quantidade) {
+        List<String> linhas = new ArrayList<>();
+        linhas.add("Limites (conexão, usuário, sala): chat " + Arrays.toString(limites[Tipo.CHAT.ordinal()])
+                + ", consultas " + Arrays.toString(limites[Tipo.PESQUISA.ordinal()])
+                + ", entradas " + Arrays.toString(limites[Tipo.ENTRADA.ordinal()]));
+        linhas.add("Usuários mais limitados: " + maisLimitados(usuarios, quantidade));
+        linhas.add("Salas mais limitadas: " + maisLimitados(salas, quantidade));
+        return linhas;
+    }
+
+    /**
+     * Remove periodicamente os baldes de usuários e salas que voltaram a ficar cheios.
+     */
+    void iniciarLimpeza() {
+        ScheduledExecutorService agendador = Executors.newSingleThreadScheduledExecutor(tarefa -> {
+            Thread thread = new Thread(tarefa, "limites-limpeza");
+            thread.setDaemon(true);
+            return thread;
+        });
+        agendador.scheduleWithFixedDelay(() -> {
+            usuarios.values().removeIf(Cota::parada);
+            salas.values().removeIf(Cota::parada);
+        }, INTERVALO_LIMPEZA_S, INTERVALO_LIMPEZA_S, TimeUnit.SECONDS);
+    }
+
+    private Cota novaCota(Escopo escopo) {
+        Cota cota = new Cota();
+        for (Tipo tipo : Tipo.values()) {
+            Limite limite = limites[tipo.ordinal()][escopo.ordinal()];
+            if (limite != null) {
+                cota.baldes[tipo.ordinal()] = new Balde(limite);
+            }
+        }
+        return cota;
+    }
+
+    private boolean limitado(Tipo tipo, Escopo escopo) {
+        return limites[tipo.ordinal()][escopo.ordinal()] != null;
+    }
+
+    private Cota cota(Map<String, Cota> cotas, String nome, Escopo escopo) {
+        return cotas.computeIfAbsent(nome, n -> novaCota(escopo));
+    }
+
+    private static boolean consumir(Cota cota, Tipo tipo) {
+        Balde balde = cota.baldes[tipo.ordinal()];
+        return balde == null || balde.consumir();
+    }
+
+    /**
+     * Os contadores continuam mudando durante o relatório, então cada um é lido uma vez, e a
+     * ordenação usa essas leituras.
+     */
+    private static String maisLimitados(Map<String, Cota> cotas, int quantidade) {
+        List<Map.Entry<String, Long>> entradas = new ArrayList<>();
+        for (Map.Entry<String, Cota> entrada : cotas.entrySet()) {
+            long limitados = entrada.getValue().limitados.sum();
+            if (limitados > 0) {
+                entradas.add(Map.entry(entrada.getKey(), limitados));
+            }
+        }
+        if (entradas.isEmpty()) {
+            return "nenhum";
+        }
+        entradas.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        StringJoiner nomes = new StringJoiner(", ");
+        for (Map.Entry<String, Long> entrada : entradas.subList(0, Math.min(quantidade, entradas.size()))) {
+            nomes.add(entrada.getKey() + " (" + entrada.getValue() + ")");
+        }
+        return nomes.toString();
+    }
+}
@@ -0,0 +1,115 @@
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Separa os bytes recebidos de uma conexão em linhas de texto ou, depois da negociação,
+ * em quadros do {@link Protocolo} binário. Usado pelos dois motores de conexão.
+ * Se a primeira linha for {@link Protocolo#NEGOCIACAO}, os bytes seguintes, inclusive os que
+ * chegaram junto com ela, já são lidos como quadros.
+ */
+class DecodificadorEntrada {
+
+    /**
+     * Quem recebe o que foi decodificado.
+     */
+    interface Destino {
+        void linha(String linha);
+
+        /**
+         * @param quadro O opcode e os campos de um quadro completo
+         */
+        void quadro(ByteBuffer quadro);
+
+        /**
+         * O cliente pediu o protocolo binário; os próximos dados serão quadros.
+         */
+        void protocoloBinario();
+    }
+
+    private boolean binario;
+    private boolean primeiraLinha = true;
+    private ByteArrayOutputStream parcial; // Bytes recebidos desde a última linha ou quadro completo; null se não houver
+    private int tamanhoQuadro = -1; // Tamanho do quadro em leitura, ou -1 se ainda não foi lido
+    private int tamanhoLido; // Valor parcial do varint do tamanho
+    private int deslocamento; // Bits do varint do tamanho já lidos
+
+    /**
+     * Processa os bytes recebidos.
+     * @return false se uma linha ou quadro passou do tamanho máximo, e a conexão deve ser derrubada
+     */
+    boolean receber(ByteBuffer dados, Destino destino) {
+        while (dados.hasRemaining()) {
+            if (!(binario ? receberQuadro(dados, destino) : receberLinha(dados, destino))) {
+                return false;
+            }
+        }
+        if (parcial != null && parcial.size() == 0) {
+            parcial = null; // Não mantém buffer para conexões ociosas
+        }
+        return true;
+    }
+
+    private boolean receberLinha(ByteBuffer dados, Destino destino) {
+        while (dados.hasRemaining()) {
+            byte b = dados.get();
+            if (parcial == null) {
+                parcial = new ByteArrayOutputStream(128);
+            }
+            if (b == '\n') {
+                String linha = parcial.toString(StandardCharsets.UTF_8);
+                parcial.reset();
+                if (linha.endsWith("\r")) {
+                    linha = linha.substring(0, linha.length() - 1);
+                }
+                if (primeiraLinha && linha.equals(Protocolo.NEGOCIACAO)) {
+                    binario = true;
+                    destino.protocoloBinario();
+                    return true; // O resto dos dados já é binário
+                }
+                primeiraLinha = false;
+                destino.linha(linha);
+            } else if (parcial.size() >= Protocolo.TAMANHO_MAXIMO_QUADRO) {
+                return false;
+            } else {
+                parcial.write(b);
+            }
+        }
+        return true;
+    }
+
+    private boolean receberQuadro(ByteBuffer dados, Destino destino) {
+        while (tamanhoQuadro < 0) {
+            if (!dados.hasRemaining()) {
+                return true;
+            }
+            byte b = dados.get();
+            tamanhoLido |= (b & 0x7F) << deslocamento;
+            deslocamento += 7;
+            if (b >= 0) {
+                if (tamanhoLido < 1 || tamanhoLido > Protocolo.TAMANHO_MAXIMO_QUADRO) {
+                    return false;
+                }
+                tamanhoQuadro = tamanhoLido;
+                tamanhoLido = 0;
+                deslocamento = 0;
+            } else if (deslocamento > 21) {
+                return false; // Mais de 3 bytes: maior que o tamanho máximo
+            }
+        }
+
+        if (parcial == null) {
+            parcial = new ByteArrayOutputStream(Math.min(tamanhoQuadro, 1024));
+        }
+        int quantidade = Math.min(tamanhoQuadro - parcial.size(), dados.remaining());
+        byte[] pedaco = new byte[quantidade];
+        dados.get(pedaco);
+        parcial.write(pedaco, 0, quantidade);
+        if (parcial.size() == tamanhoQuadro) {
+            destino.quadro(ByteBuffer.wrap(parcial.toByteArray()));
+            parcial.reset();
+            tamanhoQuadro = -1;
+        }
+        return true;
+    }
+}
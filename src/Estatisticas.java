@@ -0,0 +1,69 @@
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Implementação do MBean de métricas, que apenas lê os valores de {@link Metricas}.
+ */
+public class Estatisticas implements EstatisticasMBean {
+
+    /**
+     * Registra o MBean no servidor de MBeans da plataforma.
+     */
+    static void registrar() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new Estatisticas(), new ObjectName("chat:type=Estatisticas"));
+        } catch (JMException e) {
+            Log.aviso("Não foi possível registrar as estatísticas no JMX: " + e.getMessage());
+        }
+    }
+
+    public long getConexoesAtivas() {
+        return Metricas.CONEXOES_ATIVAS.sum();
+    }
+
+    public long getConexoesAbertas() {
+        return Metricas.CONEXOES_ABERTAS.sum();
+    }
+
+    public long getMensagensRecebidas() {
+        return Metricas.MENSAGENS_RECEBIDAS.sum();
+    }
+
+    public long getMensagensEnviadas() {
+        return Metricas.MENSAGENS_ENVIADAS.sum();
+    }
+
+    public long getBytesRecebidos() {
+        return Metricas.BYTES_RECEBIDOS.sum();
+    }
+
+    public long getBytesEnviados() {
+        return Metricas.BYTES_ENVIADOS.sum();
+    }
+
+    public double getFanoutP99Millis() {
+        return Metricas.FANOUT.percentilMillis(99);
+    }
+
+    public double getGravacaoHistoricoP99Millis() {
+        return Metricas.GRAVACAO_HISTORICO.percentilMillis(99);
+    }
+
+    public double getReproducaoHistoricoP99Millis() {
+        return Metricas.REPRODUCAO_HISTORICO.percentilMillis(99);
+    }
+
+    public double getPesquisaP99Millis() {
+        return Metricas.PESQUISA.percentilMillis(99);
+    }
+
+    public Map<String, Long> getMedidores() {
+        return Metricas.medidores();
+    }
+
+    public String getRelatorio() {
+        return String.join("\n", Metricas.relatorio());
+    }
+}
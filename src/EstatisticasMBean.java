@@ -0,0 +1,36 @@
+import java.util.Map;
+
+/**
+ * Métricas do servidor expostas por JMX (por exemplo, no jconsole, em chat:type=Estatisticas).
+ */
+public interface EstatisticasMBean {
+    long getConexoesAtivas();
+
+    long getConexoesAbertas();
+
+    long getMensagensRecebidas();
+
+    long getMensagensEnviadas();
+
+    long getBytesRecebidos();
+
+    long getBytesEnviados();
+
+    double getFanoutP99Millis();
+
+    double getGravacaoHistoricoP99Millis();
+
+    double getReproducaoHistoricoP99Millis();
+
+    double getPesquisaP99Millis();
+
+    /**
+     * @return Tamanhos de filas e pools, pelo nome do medidor
+     */
+    Map<String, Long> getMedidores();
+
+    /**
+     * @return O mesmo relatório do comando /stats
+     */
+    String getRelatorio();
+}
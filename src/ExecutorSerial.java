@@ -0,0 +1,73 @@
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executa tarefas uma de cada vez, na ordem de chegada, sobre um pool compartilhado.
+ * Não ocupa thread enquanto está vazio; depois de um lote de tarefas, cede a thread
+ * para que outros executores do mesmo pool também avancem.
+ */
+class ExecutorSerial implements Executor {
+    private final Executor pool;
+    private final int lote; // Tarefas processadas antes de ceder a thread
+    private final Queue<Runnable> tarefas = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean agendado = new AtomicBoolean(); // Há uma tarefa do pool processando a fila
+    private final AtomicInteger suspensoes = new AtomicInteger(); // Enquanto maior que zero, as tarefas ficam na fila
+
+    ExecutorSerial(Executor pool, int lote) {
+        this.pool = pool;
+        this.lote = lote;
+    }
+
+    public void execute(Runnable tarefa) {
+        tarefas.add(tarefa);
+        agendar();
+    }
+
+    /**
+     * Para de executar as tarefas; as novas continuam entrando na fila.
+     * Cada suspensão precisa do seu {@link #retomar()}.
+     */
+    void suspender() {
+        suspensoes.incrementAndGet();
+    }
+
+    /**
+     * Desfaz uma suspensão. Sem outras pendentes, volta a executar as tarefas, a começar pelas
+     * que chegaram durante a suspensão.
+     */
+    void retomar() {
+        if (suspensoes.decrementAndGet() == 0) {
+            agendar();
+        }
+    }
+
+    /**
+     * Garante que exista no máximo uma tarefa do pool processando esta fila por vez.
+     */
+    private void agendar() {
+        if (agendado.compareAndSet(false, true)) {
+            pool.execute(this::processar);
+        }
+    }
+
+    private void processar() {
+        try {
+            Runnable tarefa;
+            for (int i = 0; i < lote && suspensoes.get() == 0 && (tarefa = tarefas.poll()) != null; i++) {
+                try {
+                    tarefa.run();
+                } catch (RuntimeException e) {
+                    Log.erro("Erro em uma tarefa: " + e);
+                }
+            }
+        } finally {
+            agendado.set(false);
+            if (suspensoes.get() == 0 && !tarefas.isEmpty()) {
+                agendar();
+            }
+        }
+    }
+}
@@ -0,0 +1,174 @@
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.*;
+
+/**
+ * Fila limitada de mensagens aguardando escrita no socket de um cliente.
+ * Quem envia apenas enfileira; a escrita é feita pela tarefa de escrita da conexão,
+ * de modo que um cliente lento não trava quem está mandando mensagens para a sala.
+ */
+class FilaSaida {
+
+    /**
+     * O que fazer quando a fila do destinatário está cheia.
+     */
+    enum Politica {
+        DESCARTAR_ANTIGA, // Descarta a mensagem mais antiga da fila
+        DESCONECTAR,      // Derruba o consumidor lento
+        BLOQUEAR          // Espera até haver espaço; derruba o consumidor se o tempo limite estourar
+    }
+
+    private final ArrayDeque<ByteBuffer> itens = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition naoVazia = lock.newCondition();
+    private final Condition naoCheia = lock.newCondition();
+    private final int capacidade;
+    private final Politica politica;
+    private final long timeoutNanos;
+    private long descartadas; // Mensagens perdidas pela política DESCARTAR_ANTIGA
+    private boolean fechada;
+
+    FilaSaida(int capacidade, Politica politica, long timeoutMillis) {
+        this.capacidade = capacidade;
+        this.politica = politica;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    /**
+     * Enfileira uma mensagem, aplicando a política de transbordo se a fila estiver cheia.
+     * @param mensagem Os bytes da mensagem
+     * @return false se o consumidor deve ser desconectado por não acompanhar o ritmo
+     */
+    boolean oferecer(ByteBuffer mensagem) {
+        lock.lock();
+        try {
+            if (fechada) {
+                return true; // A conexão já está sendo encerrada; a mensagem é ignorada
+            }
+            if (itens.size() >= capacidade) {
+                switch (politica) {
+                    case DESCARTAR_ANTIGA:
+                        itens.pollFirst();
+                        descartadas++;
+                        break;
+                    case DESCONECTAR:
+                        return false;
+                    case BLOQUEAR:
+                        long restante = timeoutNanos;
+                        try {
+                            while (itens.size() >= capacidade && !fechada) {
+                                if (restante <= 0) {
+                                    return false;
+                                }
+                                restante = naoCheia.awaitNanos(restante);
+                            }
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return false;
+                        }
+                        if (fechada) {
+                            return true;
+                        }
+                        break;
+                }
+            }
+            itens.addLast(mensagem);
+            naoVazia.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Retira a próxima mensagem sem esperar.
+     * @return A mensagem, ou null se a fila estiver vazia
+     */
+    ByteBuffer retirar() {
+        lock.lock();
+        try {
+            ByteBuffer mensagem = itens.pollFirst();
+            if (mensagem != null) {
+                naoCheia.signal();
+            }
+            return mensagem;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Espera por mensagens e move todas as disponíveis (até o limite) para o lote.
+     * @return false quando a fila foi fechada e não há mais nada para escrever
+     */
+    boolean retirarLote(List<ByteBuffer> lote, int maximo) throws InterruptedException {
+        lock.lock();
+        try {
+            while (itens.isEmpty()) {
+                if (fechada) {
+                    return false;
+                }
+                naoVazia.await();
+            }
+            while (!itens.isEmpty() && lote.size() < maximo) {
+                lote.add(itens.pollFirst());
+            }
+            naoCheia.signalAll();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Impede novas mensagens. O que já está na fila ainda pode ser retirado.
+     */
+    void fechar() {
+        lock.lock();
+        try {
+            fechada = true;
+            naoVazia.signalAll();
+            naoCheia.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Descarta tudo o que ainda não foi escrito.
+     */
+    void limpar() {
+        lock.lock();
+        try {
+            itens.clear();
+            naoCheia.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Quantidade de mensagens aguardando escrita
+     */
+    int tamanho() {
+        lock.lock();
+        try {
+            return itens.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Quantidade de mensagens descartadas por falta de espaço
+     */
+    long descartadas() {
+        lock.lock();
+        try {
+            return descartadas;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,312 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Modo sem interface do ClienteChat para teste de carga: abre muitos clientes simulados (bots)
+ * em uma única JVM, distribui os bots pelas salas, envia mensagens em uma taxa alvo e mede o
+ * tempo de entrega de cada mensagem a cada membro da sala.
+ *
+ * Cada mensagem leva o instante do envio (System.nanoTime), e como todos os bots estão na mesma
+ * JVM a latência é calculada diretamente quando a mensagem chega. Uma única thread com um
+ * {@link Selector} lê todas as conexões.
+ *
+ * Uso: java ClienteChat --carga [opcao=valor ...], com as opções:
+ * host, porta, bots, salas, distribuicao (uniforme ou zipf), taxa (mensagens/s no total),
+ * tamanho (bytes de texto por mensagem), aquecimento e duracao (segundos), nome (prefixo dos bots)
+ * e saida (arquivo JSON com o resultado).
+ */
+class GeradorCarga {
+    private static final String MARCADOR = "#LT "; // Precede o instante de envio no texto das mensagens
+    private static final int TAMANHO_BUFFER = 64 * 1024;
+
+    private final String host;
+    private final int porta;
+    private final int numBots;
+    private final int numSalas;
+    private final String distribuicao;
+    private final double taxa;
+    private final int tamanho;
+    private final int aquecimentoS;
+    private final int duracaoS;
+    private final String prefixo;
+    private final File saida;
+
+    private final List<Bot> bots = new ArrayList<>();
+    private final MedidorTempo latencia = new MedidorTempo();
+    private final AtomicLong enviadas = new AtomicLong();
+    private final AtomicLong entregas = new AtomicLong();
+    private final AtomicLong erros = new AtomicLong(); // Linhas [Erro] recebidas e falhas de escrita
+    private final AtomicInteger entradas = new AtomicInteger(); // Bots que já entraram na sala
+    private volatile boolean medindo; // Falso durante o aquecimento
+    private volatile boolean encerrado;
+
+    /**
+     * Um cliente simulado.
+     */
+    private static final class Bot {
+        final int id;
+        final String nome;
+        final String sala;
+        final SocketChannel canal;
+        final ByteArrayOutputStream linhaParcial = new ByteArrayOutputStream();
+
+        Bot(int id, String nome, String sala, SocketChannel canal) {
+            this.id = id;
+            this.nome = nome;
+            this.sala = sala;
+            this.canal = canal;
+        }
+
+        /**
+         * Escreve a linha inteira; a conexão fica em modo não bloqueante por causa do seletor.
+         */
+        synchronized void enviar(String linha) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap((linha + "\n").getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                if (canal.write(buffer) == 0) {
+                    Thread.onSpinWait(); // Janela TCP cheia: o servidor não está lendo este bot
+                }
+            }
+        }
+    }
+
+    GeradorCarga(Map<String, String> opcoes) {
+        this.host = opcoes.getOrDefault("host", "localhost");
+        this.porta = Integer.parseInt(opcoes.getOrDefault("porta", "5000"));
+        this.numBots = Integer.parseInt(opcoes.getOrDefault("bots", "100"));
+        this.numSalas = Integer.parseInt(opcoes.getOrDefault("salas", "10"));
+        this.distribuicao = opcoes.getOrDefault("distribuicao", "uniforme");
+        this.taxa = Double.parseDouble(opcoes.getOrDefault("taxa", "100"));
+        this.tamanho = Integer.parseInt(opcoes.getOrDefault("tamanho", "64"));
+        this.aquecimentoS = Integer.parseInt(opcoes.getOrDefault("aquecimento", "5"));
+        this.duracaoS = Integer.parseInt(opcoes.getOrDefault("duracao", "30"));
+        this.prefixo = opcoes.getOrDefault("nome", "bot");
+        this.saida = new File(opcoes.getOrDefault("saida", "resultado-carga.json"));
+        if (!distribuicao.equals("uniforme") && !distribuicao.equals("zipf")) {
+            throw new IllegalArgumentException("distribuicao deve ser uniforme ou zipf");
+        }
+    }
+
+    /**
+     * Interpreta as opções no formato opcao=valor e executa o teste.
+     */
+    static void main(String[] args) throws IOException, InterruptedException {
+        Map<String, String> opcoes = new HashMap<>();
+        for (String arg : args) {
+            int igual = arg.indexOf('=');
+            if (igual <= 0) {
+                throw new IllegalArgumentException("Opção inválida: " + arg + " (use opcao=valor)");
+            }
+            opcoes.put(arg.substring(0, igual), arg.substring(igual + 1));
+        }
+        new GeradorCarga(opcoes).executar();
+    }
+
+    void executar() throws IOException, InterruptedException {
+        Selector seletor = Selector.open();
+        conectar(seletor);
+
+        Thread leitor = new Thread(() -> ler(seletor), "carga-leitor");
+        leitor.setDaemon(true);
+        leitor.start();
+
+        long limiteEntrada = System.currentTimeMillis() + 60_000;
+        while (entradas.get() < numBots && System.currentTimeMillis() < limiteEntrada) {
+            Thread.sleep(50);
+        }
+        System.out.println(entradas.get() + " de " + numBots + " bots nas salas. Aquecendo por " + aquecimentoS + " s...");
+
+        long inicio = System.nanoTime();
+        long inicioMedicao = inicio + aquecimentoS * 1_000_000_000L;
+        long fim = inicioMedicao + duracaoS * 1_000_000_000L;
+        long enviadasAntes = 0;
+        long entregasAntes = 0;
+        String preenchimento = "x".repeat(Math.max(0, tamanho - 30));
+        long intervalo = (long) (1_000_000_000L / taxa);
+        long proximo = inicio;
+        int vez = 0;
+
+        while (true) {
+            long agora = System.nanoTime();
+            if (!medindo && agora >= inicioMedicao) {
+                enviadasAntes = enviadas.get();
+                entregasAntes = entregas.get();
+                medindo = true;
+                System.out.println("Medindo por " + duracaoS + " s...");
+            }
+            if (agora >= fim) {
+                break;
+            }
+            if (agora < proximo) {
+                LockSupport.parkNanos(proximo - agora);
+                continue;
+            }
+            proximo += intervalo;
+
+            Bot bot = bots.get(vez++ % bots.size());
+            try {
+                bot.enviar(MARCADOR + System.nanoTime() + " " + bot.id + " " + preenchimento);
+                enviadas.incrementAndGet();
+            } catch (IOException e) {
+                erros.incrementAndGet();
+            }
+        }
+        medindo = false;
+        long totalEnviadas = enviadas.get() - enviadasAntes;
+        long totalEntregas = entregas.get() - entregasAntes;
+        encerrado = true;
+
+        for (Bot bot : bots) {
+            bot.canal.close();
+        }
+        seletor.wakeup();
+
+        String resultado = resultado(totalEnviadas, totalEntregas);
+        try (Writer escritor = new OutputStreamWriter(new FileOutputStream(saida), StandardCharsets.UTF_8)) {
+            escritor.write(resultado);
+        }
+        System.out.println(resultado);
+        System.out.println("Resultado gravado em " + saida.getAbsolutePath());
+    }
+
+    /**
+     * Abre as conexões, registra os nomes e coloca cada bot na sua sala.
+     */
+    private void conectar(Selector seletor) throws IOException {
+        Random aleatorio = new Random(42); // Mesma distribuição em todas as execuções
+        double[] acumulada = distribuicao.equals("zipf") ? zipfAcumulada(numSalas) : null;
+        for (int i = 0; i < numBots; i++) {
+            int indiceSala = acumulada == null ? i % numSalas : sortear(acumulada, aleatorio.nextDouble());
+            SocketChannel canal = SocketChannel.open(new InetSocketAddress(host, porta));
+            canal.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            canal.configureBlocking(false);
+            Bot bot = new Bot(i, prefixo + i, "carga" + indiceSala, canal);
+            canal.register(seletor, SelectionKey.OP_READ, bot);
+            bots.add(bot);
+            bot.enviar(bot.nome);
+            bot.enviar("/join " + bot.sala);
+        }
+    }
+
+    /**
+     * Lê todas as conexões, separa as linhas e mede as mensagens de carga recebidas.
+     */
+    private void ler(Selector seletor) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(TAMANHO_BUFFER);
+        try {
+            while (!encerrado) {
+                seletor.select();
+                Iterator<SelectionKey> chaves = seletor.selectedKeys().iterator();
+                while (chaves.hasNext()) {
+                    SelectionKey chave = chaves.next();
+                    chaves.remove();
+                    Bot bot = (Bot) chave.attachment();
+                    buffer.clear();
+                    int lidos;
+                    try {
+                        lidos = bot.canal.read(buffer);
+                    } catch (IOException e) {
+                        lidos = -1;
+                    }
+                    if (lidos < 0) {
+                        chave.cancel();
+                        continue;
+                    }
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        byte b = buffer.get();
+                        if (b == '\n') {
+                            processarLinha(bot, bot.linhaParcial.toString(StandardCharsets.UTF_8));
+                            bot.linhaParcial.reset();
+                        } else {
+                            bot.linhaParcial.write(b);
+                        }
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            // Encerrado
+        }
+    }
+
+    private void processarLinha(Bot bot, String linha) {
+        long agora = System.nanoTime();
+        int marcador = linha.indexOf(MARCADOR);
+        if (linha.equals(Protocolo.PING_TEXTO)) {
+            try {
+                bot.enviar(Protocolo.PONG_TEXTO); // Senão o servidor derruba os bots que ficam em silêncio
+            } catch (IOException e) {
+                erros.incrementAndGet();
+            }
+        } else if (marcador >= 0) {
+            int inicio = marcador + MARCADOR.length();
+            int fim = linha.indexOf(' ', inicio);
+            try {
+                long enviadoEm = Long.parseLong(fim < 0 ? linha.substring(inicio) : linha.substring(inicio, fim));
+                if (medindo) {
+                    latencia.registrar(agora - enviadoEm);
+                    entregas.incrementAndGet();
+                }
+            } catch (NumberFormatException e) {
+                // Linha do histórico com formato diferente; ignorada
+            }
+        } else if (linha.startsWith("Você entrou na")) {
+            entradas.incrementAndGet();
+        } else if (linha.contains("[Erro]")) {
+            erros.incrementAndGet();
+        }
+    }
+
+    private String resultado(long totalEnviadas, long totalEntregas) {
+        Locale l = Locale.ROOT;
+        return "{\n"
+                + "  \"data\": \"" + LocalDateTime.now() + "\",\n"
+                + "  \"host\": \"" + host + ":" + porta + "\",\n"
+                + "  \"bots\": " + numBots + ",\n"
+                + "  \"botsNasSalas\": " + entradas.get() + ",\n"
+                + "  \"salas\": " + numSalas + ",\n"
+                + "  \"distribuicao\": \"" + distribuicao + "\",\n"
+                + "  \"taxaAlvo\": " + taxa + ",\n"
+                + "  \"tamanho\": " + tamanho + ",\n"
+                + "  \"duracaoS\": " + duracaoS + ",\n"
+                + "  \"enviadas\": " + totalEnviadas + ",\n"
+                + "  \"entregas\": " + totalEntregas + ",\n"
+                + String.format(l, "  \"enviadasPorSegundo\": %.1f,%n", totalEnviadas / (double) duracaoS)
+                + String.format(l, "  \"entregasPorSegundo\": %.1f,%n", totalEntregas / (double) duracaoS)
+                + "  \"erros\": " + erros.get() + ",\n"
+                + "  \"latenciaMs\": {"
+                + String.format(l, "\"media\": %.3f, \"p50\": %.3f, \"p99\": %.3f, \"p999\": %.3f, \"max\": %.3f",
+                        latencia.mediaMillis(), latencia.percentilMillis(50), latencia.percentilMillis(99),
+                        latencia.percentilMillis(99.9), latencia.maximoMillis())
+                + "}\n"
+                + "}\n";
+    }
+
+    /**
+     * Distribuição de Zipf (expoente 1) sobre as salas: a sala 0 é a mais cheia.
+     */
+    private static double[] zipfAcumulada(int salas) {
+        double[] acumulada = new double[salas];
+        double soma = 0;
+        for (int i = 0; i < salas; i++) {
+            soma += 1.0 / (i + 1);
+            acumulada[i] = soma;
+        }
+        for (int i = 0; i < salas; i++) {
+            acumulada[i] /= soma;
+        }
+        return acumulada;
+    }
+
+    private static int sortear(double[] acumulada, double valor) {
+        int indice = Arrays.binarySearch(acumulada, valor);
+        return Math.min(acumulada.length - 1, indice >= 0 ? indice : -indice - 1);
+    }
+}
@@ -0,0 +1,123 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * Histórico de uma sala ativa: o log segmentado em disco, o gravador em lote, o índice de busca
+ * e as mensagens mais recentes em memória, usadas para responder ao /join sem ler o disco.
+ * Cada mensagem recebe da sala uma sequência crescente, que a identifica no log.
+ */
+class HistoricoSala {
+    private final LogSegmentado log;
+    private final AnexadorHistorico anexador;
+    private final IndiceBusca indice;
+    private final BufferCircular<Mensagem> recentes;
+    private long proximaSequencia; // Alterada apenas pela tarefa da sala
+
+    /**
+     * Abre o histórico da sala, migrando o arquivo de texto antigo se ainda não houver log,
+     * e carrega as últimas mensagens para a memória.
+     * @param diretorio O diretório do log da sala
+     * @param arquivoTexto O histórico no formato de texto antigo, que pode não existir
+     * @param capacidadeRecentes Quantas mensagens manter em memória
+     * @param salva O estado da sala no instantâneo do último desligamento, ou null. As mensagens
+     * recentes vêm dele, sem ler o log, se o log ainda terminar onde terminava ao desligar.
+     */
+    HistoricoSala(File diretorio, File arquivoTexto, int capacidadeRecentes, InstantaneoSalas.Sala salva) throws IOException {
+        if (!diretorio.exists() && arquivoTexto.exists()) {
+            long importadas = MigradorHistorico.migrar(arquivoTexto, diretorio,
+                    ServidorChat.TAMANHO_SEGMENTO_HISTORICO, ServidorChat.INTERVALO_INDICE_SEGMENTO);
+            Log.info("Histórico de " + arquivoTexto.getName() + " migrado (" + importadas + " mensagens).");
+        }
+
+        this.log = new LogSegmentado(diretorio, ServidorChat.TAMANHO_SEGMENTO_HISTORICO, ServidorChat.INTERVALO_INDICE_SEGMENTO);
+        this.indice = new IndiceBusca(log, new File(diretorio, "busca.idx"));
+        this.anexador = new AnexadorHistorico(log, ServidorChat.LOTE_HISTORICO, ServidorChat.INTERVALO_HISTORICO_MS,
+                ServidorChat.SINCRONIZACAO_HISTORICO, indice);
+        this.recentes = new BufferCircular<>(capacidadeRecentes);
+        this.proximaSequencia = log.proximaSequencia();
+
+        List<Mensagem> ultimas = salva != null && salva.proximaSequencia == proximaSequencia
+                ? salva.recentes
+                : log.ler(Math.max(0, proximaSequencia - capacidadeRecentes), capacidadeRecentes);
+        for (Mensagem mensagem : ultimas) {
+            recentes.adicionar(mensagem);
+        }
+    }
+
+    /**
+     * @return A sequência da próxima mensagem da sala, gravada ou não
+     */
+    long proximaSequencia() {
+        return proximaSequencia;
+    }
+
+    /**
+     * Registra uma mensagem na memória e a enfileira para gravação no log.
+     * Chamado apenas pela tarefa da sala, que define a ordem das mensagens.
+     * @param autor Quem enviou, ou null para avisos do sistema
+     * @param texto O texto da mensagem
+     * @return A mensagem, com sequência e horário atribuídos
+     */
+    Mensagem anexar(String autor, String texto) {
+        Mensagem mensagem = new Mensagem(proximaSequencia++, System.currentTimeMillis(), autor, texto);
+        recentes.adicionar(mensagem);
+        anexador.anexar(mensagem);
+        return mensagem;
+    }
+
+    /**
+     * @return Mensagens aguardando gravação no log
+     */
+    int pendentes() {
+        return anexador.pendentes();
+    }
+
+    /**
+     * @return As mensagens mais recentes da sala, da mais antiga para a mais nova
+     */
+    List<Mensagem> recentes() {
+        return recentes.elementos();
+    }
+
+    /**
+     * @return true se pode haver mensagens mais antigas do que as guardadas em memória
+     */
+    boolean temMaisQueRecentes() {
+        return recentes.tamanho() == recentes.capacidade();
+    }
+
+    /**
+     * Lê uma página do histórico, contando a partir da mensagem mais recente.
+     * A página é localizada pela sequência, sem percorrer o log desde o início.
+     * @param numero O número da página (1 é a mais recente)
+     * @param tamanho Quantidade de mensagens por página
+     * @return As mensagens da página, da mais antiga para a mais nova
+     */
+    List<Mensagem> pagina(int numero, int tamanho) throws IOException {
+        anexador.descarregar(); // Garante que as mensagens mais recentes estão no log
+        long fim = log.proximaSequencia() - (long) (numero - 1) * tamanho;
+        if (fim <= 0) {
+            return Collections.emptyList();
+        }
+        long inicio = Math.max(0, fim - tamanho);
+        return log.ler(inicio, (int) (fim - inicio));
+    }
+
+    /**
+     * Pesquisa o histórico da sala pelo índice, sem percorrer o log.
+     * @param consulta A consulta já interpretada
+     * @return As mensagens encontradas, da mais antiga para a mais nova
+     */
+    List<Mensagem> pesquisar(IndiceBusca.Consulta consulta) throws IOException {
+        anexador.descarregar(); // Garante que as mensagens mais recentes estão indexadas
+        return indice.pesquisar(consulta);
+    }
+
+    /**
+     * Grava as mensagens pendentes, fecha o log e salva o índice de busca.
+     */
+    void fechar() {
+        anexador.fechar();
+        indice.salvar();
+    }
+}
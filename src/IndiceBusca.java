@@ -0,0 +1,524 @@
+import java.io.*;
+import java.nio.file.*;
+import java.text.Normalizer;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+/**
+ * Índice invertido do histórico de uma sala, usado pelo /pesquisar.
+ * Cada palavra aponta para as sequências das mensagens em que aparece, e cada mensagem guarda
+ * o autor e o horário para os filtros. O índice é atualizado à medida que o histórico é gravado
+ * e salvo em disco junto com a sequência até onde já foi indexado; ao reabrir, apenas as
+ * mensagens posteriores precisam ser lidas do log.
+ * <p>
+ * A indexação roda na thread que grava o histórico de todas as salas, então nunca espera por
+ * uma pesquisa: as estruturas em memória ficam sob uma trava curta, e a mensagem que não
+ * consegue a trava fica na fila de pendentes, aplicada por quem a pegar depois. A montagem
+ * do índice e as leituras do log de cada pesquisa são feitas fora da trava.
+ */
+class IndiceBusca {
+    private static final int MAGICO = 0x49445832; // "IDX2"
+    private static final int MENSAGENS_PARA_SALVAR = 10_000; // Mensagens indexadas na recuperação que justificam salvar logo
+    private static final int LOTE_CANDIDATOS = 256; // Candidatos separados por vez sob a trava, antes de ler o log
+    private static final int SEM_HORARIO = Integer.MIN_VALUE;
+    private static final int SEM_AUTOR = -1;
+    private static final DateTimeFormatter FORMATO_DATA = DateTimeFormatter.ofPattern("dd-MM-yyyy");
+    private static final Pattern ACENTOS = Pattern.compile("\\p{M}");
+
+    private final LogSegmentado log;
+    private final File arquivoIndice;
+
+    private final Object carga = new Object(); // Uma pesquisa monta o índice por vez
+    private final ReentrantLock trava = new ReentrantLock(); // Protege as estruturas abaixo depois de carregado
+    private final Queue<Mensagem> pendentes = new ConcurrentLinkedQueue<>(); // Gravadas e ainda não indexadas
+    private volatile boolean aceitando; // A montagem começou: as mensagens gravadas vão para os pendentes
+    private volatile boolean carregado; // O índice só é montado na primeira pesquisa da sala; publica as estruturas
+    private boolean alterado; // Há mensagens indexadas que ainda não foram salvas
+
+    private int[] horarios = new int[64]; // Minutos desde a época de cada mensagem, ou SEM_HORARIO
+    private int[] autores = new int[64]; // Autor de cada mensagem, ou SEM_AUTOR
+    private int totalMensagens; // Também é a sequência da próxima mensagem a indexar
+    private final List<String> nomesAutores = new ArrayList<>();
+    private final Map<String, Integer> idsAutores = new HashMap<>();
+    private final Map<String, Postagens> postagens = new HashMap<>(); // Palavra -> mensagens em que aparece
+
+    IndiceBusca(LogSegmentado log, File arquivoIndice) {
+        this.log = log;
+        this.arquivoIndice = arquivoIndice;
+    }
+
+    /**
+     * Indexa uma mensagem recém-gravada no log. Ignorada enquanto o índice não começar a ser
+     * montado, pois as mensagens não indexadas são lidas ao carregar. Não espera pela trava:
+     * se uma pesquisa estiver com ela, a mensagem fica nos pendentes.
+     * @param mensagem A mensagem gravada
+     */
+    void indexar(Mensagem mensagem) {
+        if (!aceitando) {
+            return;
+        }
+        pendentes.add(mensagem);
+        if (carregado && trava.tryLock()) {
+            try {
+                aplicarPendentes();
+            } finally {
+                trava.unlock();
+            }
+        }
+    }
+
+    /**
+     * Indexa as mensagens pendentes. Chamado com a trava.
+     */
+    private void aplicarPendentes() {
+        Mensagem mensagem;
+        while ((mensagem = pendentes.poll()) != null) {
+            if (mensagem.sequencia == totalMensagens) { // As anteriores já vieram do log na montagem
+                adicionarMensagem(mensagem);
+                alterado = true;
+            }
+        }
+    }
+
+    /**
+     * Pesquisa mensagens do histórico.
+     * @param consulta A consulta já interpretada
+     * @return As mensagens encontradas, da mais antiga para a mais nova, no máximo o limite da consulta
+     */
+    List<Mensagem> pesquisar(Consulta consulta) throws IOException {
+        carregar();
+
+        List<Postagens> listas = new ArrayList<>();
+        int autor = SEM_AUTOR;
+        int proximo; // Próximo candidato, do mais recente para o mais antigo
+        trava.lock();
+        try {
+            aplicarPendentes(); // Inclui as mensagens que a indexação deixou para depois
+
+            // Todas as palavras precisam aparecer; começa pela lista mais curta
+            for (String palavra : consulta.palavras) {
+                Postagens lista = postagens.get(palavra);
+                if (lista == null) {
+                    return Collections.emptyList();
+                }
+                listas.add(lista);
+            }
+            listas.sort(Comparator.comparingInt(lista -> lista.tamanho));
+
+            if (consulta.autor != null) {
+                Integer id = idsAutores.get(consulta.autor);
+                if (id == null) {
+                    return Collections.emptyList();
+                }
+                autor = id;
+            }
+            proximo = candidatosMaisRecentes(listas);
+        } finally {
+            trava.unlock();
+        }
+
+        // Separa os candidatos em lotes sob a trava e lê cada lote do log fora dela. As listas só
+        // crescem no fim, então as posições já vistas continuam valendo entre um lote e outro.
+        LinkedList<Mensagem> resultados = new LinkedList<>();
+        int[] candidatos = new int[Math.min(consulta.limite, LOTE_CANDIDATOS)];
+        while (proximo >= 0 && resultados.size() < consulta.limite) {
+            int quantidade = 0;
+            trava.lock();
+            try {
+                for (; proximo >= 0 && quantidade < candidatos.length; proximo--) {
+                    int sequencia = listas.isEmpty() ? proximo : listas.get(0).ids[proximo];
+                    if (atendeFiltros(sequencia, listas, autor, consulta)) {
+                        candidatos[quantidade++] = sequencia;
+                    }
+                }
+            } finally {
+                trava.unlock();
+            }
+            for (int i = 0; i < quantidade && resultados.size() < consulta.limite; i++) {
+                Mensagem mensagem = log.ler(candidatos[i], 1).get(0);
+                if (consulta.contemFrases(mensagem.texto)) {
+                    resultados.addFirst(mensagem);
+                }
+            }
+        }
+        return resultados;
+    }
+
+    /**
+     * Salva o índice em disco, se houver alterações. A indexação não espera pela gravação:
+     * as mensagens gravadas enquanto isso ficam nos pendentes.
+     */
+    void salvar() {
+        if (!carregado) {
+            return;
+        }
+        trava.lock();
+        try {
+            aplicarPendentes();
+            gravar();
+        } finally {
+            trava.unlock();
+        }
+    }
+
+    /**
+     * Grava o índice em um arquivo temporário e o coloca no lugar do anterior. Chamado com a trava.
+     */
+    private void gravar() {
+        if (!alterado) {
+            return;
+        }
+        File temporario = new File(arquivoIndice.getPath() + ".tmp");
+        try (DataOutputStream dados = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporario)))) {
+            dados.writeInt(MAGICO);
+            dados.writeInt(totalMensagens);
+            for (int i = 0; i < totalMensagens; i++) {
+                dados.writeInt(horarios[i]);
+                dados.writeInt(autores[i]);
+            }
+            dados.writeInt(nomesAutores.size());
+            for (String nome : nomesAutores) {
+                dados.writeUTF(nome);
+            }
+            dados.writeInt(postagens.size());
+            for (Map.Entry<String, Postagens> entry : postagens.entrySet()) {
+                dados.writeUTF(entry.getKey());
+                Postagens lista = entry.getValue();
+                dados.writeInt(lista.tamanho);
+                for (int i = 0; i < lista.tamanho; i++) {
+                    dados.writeInt(lista.ids[i]);
+                }
+            }
+        } catch (IOException e) {
+            Log.erro("Erro ao gravar o índice " + temporario + ": " + e);
+            return;
+        }
+        try {
+            Files.move(temporario.toPath(), arquivoIndice.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            alterado = false;
+        } catch (IOException e) {
+            Log.erro("Erro ao substituir o índice " + arquivoIndice + ": " + e);
+        }
+    }
+
+    /**
+     * Carrega o índice salvo e indexa as mensagens gravadas depois dele. A montagem é feita fora
+     * da trava, pois ninguém mais usa as estruturas até {@link #carregado} as publicar; as
+     * mensagens gravadas durante a montagem vão para os pendentes e são aplicadas em seguida.
+     */
+    private void carregar() throws IOException {
+        if (carregado) {
+            return;
+        }
+        synchronized (carga) {
+            if (carregado) {
+                return;
+            }
+            aceitando = true; // Antes de ler o log: o que for gravado depois da leitura vai para os pendentes
+            int anteriores;
+            try {
+                if (arquivoIndice.exists()) {
+                    try {
+                        lerIndiceSalvo();
+                    } catch (IOException e) {
+                        Log.aviso("Índice de busca de " + arquivoIndice.getParent() + " inválido; reconstruindo.");
+                        limpar();
+                    }
+                }
+                if (totalMensagens > log.proximaSequencia()) {
+                    limpar(); // O log foi substituído desde que o índice foi salvo
+                }
+                anteriores = totalMensagens;
+                log.percorrer(totalMensagens, Long.MAX_VALUE, this::adicionarMensagem);
+            } catch (IOException | RuntimeException e) {
+                aceitando = false; // A próxima pesquisa tenta de novo, do zero
+                pendentes.clear();
+                limpar();
+                throw e;
+            }
+
+            trava.lock();
+            try {
+                alterado |= totalMensagens > anteriores;
+                carregado = true;
+                aplicarPendentes();
+                if (totalMensagens - anteriores >= MENSAGENS_PARA_SALVAR) {
+                    gravar();
+                }
+            } finally {
+                trava.unlock();
+            }
+        }
+    }
+
+    private void lerIndiceSalvo() throws IOException {
+        try (DataInputStream dados = new DataInputStream(new BufferedInputStream(new FileInputStream(arquivoIndice)))) {
+            if (dados.readInt() != MAGICO) {
+                throw new IOException("Formato de índice desconhecido");
+            }
+            int mensagens = dados.readInt();
+            garantirCapacidade(mensagens);
+            for (int i = 0; i < mensagens; i++) {
+                horarios[i] = dados.readInt();
+                autores[i] = dados.readInt();
+            }
+            totalMensagens = mensagens;
+            int quantidadeAutores = dados.readInt();
+            for (int i = 0; i < quantidadeAutores; i++) {
+                String nome = dados.readUTF();
+                idsAutores.put(nome, nomesAutores.size());
+                nomesAutores.add(nome);
+            }
+            int quantidadePalavras = dados.readInt();
+            for (int i = 0; i < quantidadePalavras; i++) {
+                String palavra = dados.readUTF();
+                int quantidade = dados.readInt();
+                Postagens lista = new Postagens(quantidade);
+                for (int j = 0; j < quantidade; j++) {
+                    lista.adicionar(dados.readInt());
+                }
+                postagens.put(palavra, lista);
+            }
+        }
+    }
+
+    private void adicionarMensagem(Mensagem mensagem) {
+        int id = totalMensagens;
+        garantirCapacidade(id + 1);
+        horarios[id] = mensagem.horario == 0 ? SEM_HORARIO : (int) (mensagem.horario / 60_000);
+        autores[id] = mensagem.autor == null ? SEM_AUTOR : idAutor(normalizar(mensagem.autor));
+
+        for (String palavra : palavras(mensagem.autor == null ? mensagem.texto : mensagem.autor + " " + mensagem.texto)) {
+            postagens.computeIfAbsent(palavra, p -> new Postagens(4)).adicionarSemRepetir(id);
+        }
+        totalMensagens++;
+    }
+
+    private int idAutor(String nome) {
+        Integer id = idsAutores.get(nome);
+        if (id == null) {
+            id = nomesAutores.size();
+            nomesAutores.add(nome);
+            idsAutores.put(nome, id);
+        }
+        return id;
+    }
+
+    /**
+     * @return O índice do candidato mais recente: na lista mais curta ou, sem palavras, a última mensagem
+     */
+    private int candidatosMaisRecentes(List<Postagens> listas) {
+        return listas.isEmpty() ? totalMensagens - 1 : listas.get(0).tamanho - 1;
+    }
+
+    private boolean atendeFiltros(int sequencia, List<Postagens> listas, int autor, Consulta consulta) {
+        for (int i = 1; i < listas.size(); i++) {
+            if (!listas.get(i).contem(sequencia)) {
+                return false;
+            }
+        }
+        if (autor != SEM_AUTOR && autores[sequencia] != autor) {
+            return false;
+        }
+        if (consulta.desde != SEM_HORARIO && (horarios[sequencia] == SEM_HORARIO || horarios[sequencia] < consulta.desde)) {
+            return false;
+        }
+        return consulta.ate == SEM_HORARIO || (horarios[sequencia] != SEM_HORARIO && horarios[sequencia] <= consulta.ate);
+    }
+
+    private void garantirCapacidade(int mensagens) {
+        if (mensagens > horarios.length) {
+            int capacidade = Math.max(mensagens, horarios.length * 2);
+            horarios = Arrays.copyOf(horarios, capacidade);
+            autores = Arrays.copyOf(autores, capacidade);
+        }
+    }
+
+    private void limpar() {
+        totalMensagens = 0;
+        nomesAutores.clear();
+        idsAutores.clear();
+        postagens.clear();
+        alterado = true;
+    }
+
+    /**
+     * Coloca o texto em minúsculas e remove os acentos, para que "Olá" e "ola" sejam iguais.
+     */
+    static String normalizar(String texto) {
+        boolean ascii = true;
+        for (int i = 0; i < texto.length() && ascii; i++) {
+            ascii = texto.charAt(i) < 0x80;
+        }
+        if (ascii) {
+            return texto.toLowerCase(Locale.ROOT); // Sem acentos: evita o custo da normalização Unicode
+        }
+        String semAcentos = ACENTOS.matcher(Normalizer.normalize(texto, Normalizer.Form.NFD)).replaceAll("");
+        return semAcentos.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Separa o texto em palavras normalizadas (sequências de letras e dígitos).
+     */
+    static List<String> palavras(String texto) {
+        List<String> palavras = new ArrayList<>();
+        String normalizado = normalizar(texto);
+        int inicio = -1;
+        for (int i = 0; i <= normalizado.length(); i++) {
+            boolean letra = i < normalizado.length() && Character.isLetterOrDigit(normalizado.charAt(i));
+            if (letra && inicio < 0) {
+                inicio = i;
+            } else if (!letra && inicio >= 0) {
+                palavras.add(normalizado.substring(inicio, i));
+                inicio = -1;
+            }
+        }
+        return palavras;
+    }
+
+    /**
+     * Lista crescente das sequências das mensagens em que uma palavra aparece.
+     */
+    private static class Postagens {
+        private int[] ids;
+        private int tamanho;
+
+        Postagens(int capacidade) {
+            ids = new int[Math.max(capacidade, 1)];
+        }
+
+        void adicionar(int id) {
+            if (tamanho == ids.length) {
+                ids = Arrays.copyOf(ids, tamanho * 2);
+            }
+            ids[tamanho++] = id;
+        }
+
+        void adicionarSemRepetir(int id) {
+            if (tamanho == 0 || ids[tamanho - 1] != id) {
+                adicionar(id);
+            }
+        }
+
+        boolean contem(int id) {
+            return Arrays.binarySearch(ids, 0, tamanho, id) >= 0;
+        }
+    }
+
+    /**
+     * Consulta do /pesquisar. Aceita palavras soltas, "frases entre aspas" e os filtros
+     * de:nome, desde:dd-MM-yyyy, ate:dd-MM-yyyy e limite:N.
+     */
+    static class Consulta {
+        private final List<String> palavras = new ArrayList<>(); // Todas precisam aparecer na mensagem
+        private final List<String> frases = new ArrayList<>(); // Palavras separadas por espaço; precisam aparecer inteiras e nesta ordem
+        private String autor;
+        private int desde = SEM_HORARIO;
+        private int ate = SEM_HORARIO;
+        private int limite;
+
+        /**
+         * Interpreta o texto digitado no /pesquisar.
+         * @param texto A consulta
+         * @param limitePadrao Limite de resultados quando a consulta não informa um
+         * @throws IllegalArgumentException Se algum filtro for inválido ou a consulta estiver vazia
+         */
+        Consulta(String texto, int limitePadrao) {
+            this.limite = limitePadrao;
+            for (String parte : separar(texto)) {
+                String minuscula = parte.toLowerCase(Locale.ROOT);
+                if (parte.startsWith("\"")) {
+                    List<String> frase = palavras(parte.substring(1));
+                    palavras.addAll(frase);
+                    if (!frase.isEmpty()) {
+                        frases.add(String.join(" ", frase));
+                    }
+                } else if (minuscula.startsWith("de:")) {
+                    autor = normalizar(parte.substring(3));
+                } else if (minuscula.startsWith("desde:")) {
+                    desde = minutos(data(parte.substring(6)).atStartOfDay());
+                } else if (minuscula.startsWith("ate:")) {
+                    ate = minutos(data(parte.substring(4)).atTime(23, 59));
+                } else if (minuscula.startsWith("limite:")) {
+                    try {
+                        limite = Integer.parseInt(parte.substring(7));
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("Limite inválido: " + parte.substring(7) + ".");
+                    }
+                    if (limite < 1) {
+                        throw new IllegalArgumentException("O limite precisa ser maior que zero.");
+                    }
+                } else {
+                    palavras.addAll(palavras(parte));
+                }
+            }
+            if (palavras.isEmpty() && autor == null && desde == SEM_HORARIO && ate == SEM_HORARIO) {
+                throw new IllegalArgumentException("Digite uma mensagem a ser pesquisada.");
+            }
+        }
+
+        /**
+         * Compara palavras inteiras: com espaços nas pontas, "ola mundo" não casa com "cola mundos".
+         */
+        private boolean contemFrases(String texto) {
+            if (frases.isEmpty()) {
+                return true;
+            }
+            String linha = " " + String.join(" ", palavras(texto)) + " ";
+            for (String frase : frases) {
+                if (!linha.contains(" " + frase + " ")) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static LocalDate data(String texto) {
+            try {
+                return LocalDate.parse(texto, FORMATO_DATA);
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("Data inválida: " + texto + ". Use dd-MM-yyyy.");
+            }
+        }
+
+        private static int minutos(LocalDateTime horario) {
+            return (int) (horario.atZone(ZoneId.systemDefault()).toEpochSecond() / 60);
+        }
+
+        /**
+         * Separa a consulta por espaços, mantendo juntas as frases entre aspas (marcadas com a aspa inicial).
+         */
+        private static List<String> separar(String texto) {
+            List<String> partes = new ArrayList<>();
+            int i = 0;
+            while (i < texto.length()) {
+                char c = texto.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    i++;
+                } else if (c == '"') {
+                    int fim = texto.indexOf('"', i + 1);
+                    if (fim < 0) {
+                        fim = texto.length();
+                    }
+                    partes.add(texto.substring(i, fim)); // Mantém a aspa inicial como marcador
+                    i = fim + 1;
+                } else {
+                    int fim = i;
+                    while (fim < texto.length() && !Character.isWhitespace(texto.charAt(fim))) {
+                        fim++;
+                    }
+                    partes.add(texto.substring(i, fim));
+                    i = fim;
+                }
+            }
+            return partes;
+        }
+    }
+}
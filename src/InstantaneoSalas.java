@@ -0,0 +1,105 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Instantâneo das salas ativas, gravado ao desligar o servidor e lido na inicialização seguinte,
+ * para que os primeiros /join sejam respondidos com as mensagens recentes já em memória.
+ * Para cada sala guarda a próxima sequência do histórico e as mensagens recentes.
+ *
+ * O instantâneo só vale para a próxima inicialização: é apagado depois de lido. As mensagens
+ * de uma sala só são usadas se o log dela ainda terminar na sequência gravada; caso contrário
+ * (uma queda depois do instantâneo, ou outro nó do cluster que escreveu na sala), o histórico
+ * é lido do disco, como sempre.
+ */
+class InstantaneoSalas {
+    private static final int VERSAO = 1;
+
+    /**
+     * O estado salvo de uma sala.
+     */
+    static final class Sala {
+        final String nome;
+        final long proximaSequencia; // Sequência da próxima mensagem do log quando o instantâneo foi gravado
+        final List<Mensagem> recentes; // Da mais antiga para a mais nova
+
+        Sala(String nome, long proximaSequencia, List<Mensagem> recentes) {
+            this.nome = nome;
+            this.proximaSequencia = proximaSequencia;
+            this.recentes = recentes;
+        }
+    }
+
+    private InstantaneoSalas() {
+    }
+
+    /**
+     * Grava o instantâneo em um arquivo temporário e o move para o lugar do anterior.
+     */
+    static void gravar(File arquivo, Collection<Sala> salas) throws IOException {
+        File temporario = Files.createTempFile(arquivo.getParentFile().toPath(), arquivo.getName(), ".tmp").toFile();
+        try (DataOutputStream saida = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporario)))) {
+            saida.writeInt(VERSAO);
+            saida.writeInt(salas.size());
+            for (Sala sala : salas) {
+                saida.writeUTF(sala.nome);
+                saida.writeLong(sala.proximaSequencia);
+                saida.writeInt(sala.recentes.size());
+                for (Mensagem mensagem : sala.recentes) {
+                    saida.writeLong(mensagem.sequencia);
+                    saida.writeLong(mensagem.horario);
+                    saida.writeUTF(mensagem.autor == null ? "" : mensagem.autor);
+                    byte[] texto = mensagem.texto.getBytes(StandardCharsets.UTF_8); // writeUTF limita a 64 KB
+                    saida.writeInt(texto.length);
+                    saida.write(texto);
+                }
+            }
+        }
+        Files.move(temporario.toPath(), arquivo.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Lê e apaga o instantâneo. Um arquivo ausente, de outra versão ou corrompido resulta em
+     * nenhuma sala: o servidor só perde o aquecimento.
+     * @return As salas salvas, pelo nome
+     */
+    static Map<String, Sala> ler(File arquivo) {
+        Map<String, Sala> salas = new HashMap<>();
+        if (!arquivo.exists()) {
+            return salas;
+        }
+        try (DataInputStream entrada = new DataInputStream(new BufferedInputStream(new FileInputStream(arquivo)))) {
+            if (entrada.readInt() != VERSAO) {
+                return salas;
+            }
+            int quantidade = entrada.readInt();
+            for (int i = 0; i < quantidade; i++) {
+                String nome = entrada.readUTF();
+                long proximaSequencia = entrada.readLong();
+                int numRecentes = entrada.readInt();
+                List<Mensagem> recentes = new ArrayList<>(Math.min(numRecentes, ServidorChat.MENSAGENS_RECENTES));
+                for (int j = 0; j < numRecentes; j++) {
+                    long sequencia = entrada.readLong();
+                    long horario = entrada.readLong();
+                    String autor = entrada.readUTF();
+                    int tamanho = entrada.readInt();
+                    if (tamanho < 0 || tamanho > Protocolo.TAMANHO_MAXIMO_QUADRO) {
+                        throw new IOException("mensagem com tamanho inválido");
+                    }
+                    byte[] texto = new byte[tamanho];
+                    entrada.readFully(texto);
+                    recentes.add(new Mensagem(sequencia, horario, autor.isEmpty() ? null : autor,
+                            new String(texto, StandardCharsets.UTF_8)));
+                }
+                salas.put(nome, new Sala(nome, proximaSequencia, recentes));
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.aviso("Instantâneo das salas ignorado: " + e.getMessage());
+            salas.clear();
+        } finally {
+            arquivo.delete();
+        }
+        return salas;
+    }
+}
@@ -0,0 +1,136 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Ligação persistente deste nó com outro nó do cluster, usada só para enviar; o outro nó responde
+ * pela ligação dele com este. Uma thread própria conecta, escreve os quadros enfileirados em lotes
+ * (tudo o que estiver na fila vai em um único flush) e reconecta com espera crescente quando cai.
+ * Quadros enviados com a ligação fora do ar são descartados: o nó sai do anel até reconectar.
+ */
+class LigacaoNo {
+    private static final int CAPACIDADE_FILA = 65536; // Quadros aguardando envio antes de descartar
+    private static final int LOTE_ESCRITA = 512; // Quadros escritos antes de cada flush
+    private static final long ESPERA_MAXIMA_MS = 2000; // Espera máxima entre tentativas de conexão
+
+    static final LongAdder QUADROS_ENVIADOS = new LongAdder();
+    static final LongAdder LOTES_ENVIADOS = new LongAdder();
+    static final LongAdder QUADROS_DESCARTADOS = new LongAdder();
+
+    final String no; // "host:porta" do outro nó
+    private final InetSocketAddress endereco;
+    private final Cluster cluster;
+    private final BlockingQueue<ByteBuffer> fila = new LinkedBlockingQueue<>(CAPACIDADE_FILA);
+    private volatile boolean conectada;
+    private volatile Socket socket;
+    private Thread thread;
+
+    LigacaoNo(String no, Cluster cluster) {
+        this.no = no;
+        this.endereco = Cluster.endereco(no);
+        this.cluster = cluster;
+    }
+
+    void iniciar() {
+        thread = new Thread(this::manter, "cluster-" + no);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    boolean conectada() {
+        return conectada;
+    }
+
+    /**
+     * Enfileira um quadro já codificado para o outro nó.
+     */
+    void enviar(ByteBuffer quadro) {
+        if (!conectada || !fila.offer(quadro)) {
+            QUADROS_DESCARTADOS.increment();
+        }
+    }
+
+    /**
+     * Fecha a ligação, que volta a ser tentada em seguida. Usado quando a ligação do outro nó
+     * com este cai, o que em geral indica que o processo dele terminou.
+     */
+    void derrubar() {
+        Socket atual = socket;
+        if (atual != null) {
+            try {
+                atual.close();
+            } catch (IOException e) {
+                // Já fechado
+            }
+        }
+        thread.interrupt();
+    }
+
+    /**
+     * Conecta, escreve até a ligação cair e tenta de novo.
+     */
+    private void manter() {
+        long espera = 100;
+        while (true) {
+            try (Socket novo = new Socket()) {
+                novo.connect(endereco, (int) ESPERA_MAXIMA_MS);
+                novo.setTcpNoDelay(true);
+                novo.setKeepAlive(true);
+                socket = novo;
+                OutputStream stream = new BufferedOutputStream(novo.getOutputStream(), 64 * 1024);
+                WritableByteChannel canal = Channels.newChannel(stream); // Aceita os buffers somente leitura
+                escrever(canal, cluster.ola());
+                stream.flush();
+
+                fila.clear();
+                conectada = true;
+                espera = 100;
+                cluster.conectado(no);
+                escreverFila(canal, stream);
+            } catch (IOException e) {
+                // Nó fora do ar ou ligação perdida
+            } catch (InterruptedException e) {
+                // Ligação derrubada
+            }
+            socket = null;
+            if (conectada) {
+                conectada = false;
+                fila.clear();
+                cluster.desconectado(no);
+            }
+            Thread.interrupted(); // Limpa a interrupção de derrubar() antes de esperar
+            try {
+                Thread.sleep(espera);
+            } catch (InterruptedException e) {
+                // Tenta de novo em seguida
+            }
+            espera = Math.min(espera * 2, ESPERA_MAXIMA_MS);
+        }
+    }
+
+    private void escreverFila(WritableByteChannel canal, OutputStream stream) throws IOException, InterruptedException {
+        List<ByteBuffer> lote = new ArrayList<>(LOTE_ESCRITA);
+        while (true) {
+            lote.add(fila.take());
+            fila.drainTo(lote, LOTE_ESCRITA - 1);
+            for (ByteBuffer quadro : lote) {
+                escrever(canal, quadro);
+            }
+            stream.flush();
+            QUADROS_ENVIADOS.add(lote.size());
+            LOTES_ENVIADOS.increment();
+            lote.clear();
+        }
+    }
+
+    private static void escrever(WritableByteChannel canal, ByteBuffer quadro) throws IOException {
+        ByteBuffer copia = quadro.duplicate();
+        while (copia.hasRemaining()) {
+            canal.write(copia);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Log assíncrono do servidor, com níveis.
+ * As threads que atendem os clientes só colocam a linha em uma fila limitada; uma thread
+ * própria escreve no console em lotes. Se a fila encher, as linhas excedentes são descartadas
+ * e contadas, para que o log nunca segure o atendimento.
+ */
+final class Log {
+
+    enum Nivel { DEBUG, INFO, AVISO, ERRO }
+
+    static final Nivel NIVEL = Nivel.valueOf(System.getProperty("chat.log.nivel", "INFO").toUpperCase()); // Linhas abaixo deste nível são ignoradas
+    private static final int CAPACIDADE = 16 * 1024; // Linhas aguardando escrita
+    private static final int LOTE = 256; // Linhas escritas antes de cada flush
+
+    private static final BlockingQueue<String> fila = new ArrayBlockingQueue<>(CAPACIDADE);
+    private static final LongAdder descartadas = new LongAdder();
+
+    static {
+        Thread escritor = new Thread(Log::escrever, "log");
+        escritor.setDaemon(true);
+        escritor.start();
+    }
+
+    private Log() {
+    }
+
+    static boolean ativo(Nivel nivel) {
+        return nivel.compareTo(NIVEL) >= 0;
+    }
+
+    static void debug(String mensagem) {
+        registrar(Nivel.DEBUG, mensagem);
+    }
+
+    static void info(String mensagem) {
+        registrar(Nivel.INFO, mensagem);
+    }
+
+    static void aviso(String mensagem) {
+        registrar(Nivel.AVISO, mensagem);
+    }
+
+    static void erro(String mensagem) {
+        registrar(Nivel.ERRO, mensagem);
+    }
+
+    /**
+     * @return Linhas descartadas porque a fila do log estava cheia
+     */
+    static long descartadas() {
+        return descartadas.sum();
+    }
+
+    /**
+     * Escreve imediatamente as linhas pendentes. Usado ao encerrar o servidor.
+     */
+    static void descarregar() {
+        List<String> lote = new ArrayList<>();
+        fila.drainTo(lote);
+        imprimir(lote);
+    }
+
+    private static void registrar(Nivel nivel, String mensagem) {
+        if (!ativo(nivel)) {
+            return;
+        }
+        String linha = nivel == Nivel.INFO ? mensagem : "[" + nivel + "] " + mensagem;
+        if (!fila.offer(linha)) {
+            descartadas.increment();
+        }
+    }
+
+    private static void escrever() {
+        List<String> lote = new ArrayList<>(LOTE);
+        while (true) {
+            try {
+                lote.add(fila.take());
+                fila.drainTo(lote, LOTE - 1);
+                imprimir(lote);
+                lote.clear();
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private static void imprimir(List<String> lote) {
+        if (lote.isEmpty()) {
+            return;
+        }
+        StringBuilder texto = new StringBuilder();
+        for (String linha : lote) {
+            texto.append(linha).append(System.lineSeparator());
+        }
+        synchronized (System.out) {
+            System.out.print(texto);
+            System.out.flush();
+        }
+    }
+}
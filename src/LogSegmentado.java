@@ -0,0 +1,418 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Histórico binário de uma sala, dividido em segmentos de tamanho fixo.
+ * Cada segmento é um arquivo pré-alocado e mapeado em memória, nomeado pela sequência da sua
+ * primeira mensagem. Os registros têm tamanho prefixado:
+ * [int tamanho][int crc][long sequência][long horário][short bytes do autor][autor][texto].
+ * Um índice esparso por segmento (sequência relativa -> posição) permite achar
+ * qualquer mensagem lendo apenas alguns registros.
+ */
+class LogSegmentado implements Closeable {
+    private static final String EXTENSAO_LOG = ".log";
+    private static final String EXTENSAO_INDICE = ".ind";
+    private static final int CABECALHO = 8; // tamanho + crc
+    private static final int FIXO = 8 + 8 + 2; // sequência + horário + tamanho do autor
+    private static final int MAXIMO_AUTOR = 0xFFFF; // Bytes do autor: o tamanho é lido como um short sem sinal
+    private static final String MENSAGEM_PERDIDA = "(mensagem não gravada no histórico)";
+
+    private final File diretorio;
+    private final int tamanhoSegmento;
+    private final int intervaloIndice; // Bytes de log entre duas entradas do índice esparso
+    private final TreeMap<Long, Segmento> segmentos = new TreeMap<>();
+    private Segmento ativo;
+    private long proximaSequencia;
+
+    /**
+     * Abre (ou cria) o histórico no diretório, recuperando o fim do último segmento.
+     * Um registro incompleto ou corrompido no fim, deixado por uma queda do servidor, é descartado.
+     */
+    LogSegmentado(File diretorio, int tamanhoSegmento, int intervaloIndice) throws IOException {
+        this.diretorio = diretorio;
+        this.tamanhoSegmento = tamanhoSegmento;
+        this.intervaloIndice = intervaloIndice;
+        if (!diretorio.exists() && !diretorio.mkdirs()) {
+            throw new IOException("Não foi possível criar " + diretorio);
+        }
+
+        File[] arquivos = diretorio.listFiles((dir, nome) -> nome.endsWith(EXTENSAO_LOG));
+        if (arquivos != null) {
+            for (File arquivo : arquivos) {
+                long base = Long.parseLong(arquivo.getName().substring(0, arquivo.getName().length() - EXTENSAO_LOG.length()));
+                segmentos.put(base, new Segmento(base));
+            }
+        }
+        if (segmentos.isEmpty()) {
+            ativo = new Segmento(0);
+            segmentos.put(0L, ativo);
+        } else {
+            ativo = segmentos.lastEntry().getValue();
+        }
+        ativo.recuperar();
+        proximaSequencia = ativo.base + ativo.quantidade;
+    }
+
+    /**
+     * @return A sequência que a próxima mensagem gravada deve ter
+     */
+    synchronized long proximaSequencia() {
+        return proximaSequencia;
+    }
+
+    /**
+     * Grava mensagens no fim do histórico. As sequências precisam continuar a partir de {@link #proximaSequencia()}.
+     * Um problema em uma mensagem não impede a gravação das seguintes: uma mensagem já gravada é
+     * ignorada, as sequências que faltam (perdidas em uma falha anterior) são preenchidas com um
+     * aviso, e um texto que não cabe em um segmento é cortado.
+     */
+    synchronized void anexar(List<Mensagem> mensagens) throws IOException {
+        for (Mensagem mensagem : mensagens) {
+            if (mensagem.sequencia < proximaSequencia) {
+                Log.aviso("Mensagem " + mensagem.sequencia + " já gravada em " + diretorio + "; ignorada.");
+                continue;
+            }
+            if (mensagem.sequencia > proximaSequencia) {
+                Log.aviso("Mensagens " + proximaSequencia + " a " + (mensagem.sequencia - 1) + " perdidas em " + diretorio + ".");
+                while (proximaSequencia < mensagem.sequencia) {
+                    gravar(new Mensagem(proximaSequencia, mensagem.horario, null, MENSAGEM_PERDIDA));
+                }
+            }
+            gravar(mensagem);
+        }
+        ativo.gravarIndicePendente();
+    }
+
+    /**
+     * Grava a mensagem com a sequência {@link #proximaSequencia}, abrindo um novo segmento se
+     * ela não couber no atual.
+     */
+    private void gravar(Mensagem mensagem) throws IOException {
+        byte[] autor = mensagem.autor == null ? new byte[0] : mensagem.autor.getBytes(StandardCharsets.UTF_8);
+        if (autor.length > MAXIMO_AUTOR) {
+            autor = cortar(autor, MAXIMO_AUTOR); // O tamanho do autor é gravado em 2 bytes
+        }
+        byte[] texto = mensagem.texto.getBytes(StandardCharsets.UTF_8);
+        int tamanho = FIXO + autor.length + texto.length;
+        if (CABECALHO + tamanho > tamanhoSegmento) {
+            Log.aviso("Mensagem " + mensagem.sequencia + " maior que um segmento do histórico em " + diretorio + "; o texto foi cortado.");
+            texto = cortar(texto, tamanhoSegmento - CABECALHO - FIXO - autor.length);
+            tamanho = FIXO + autor.length + texto.length;
+        }
+        if (ativo.posicao + CABECALHO + tamanho > ativo.capacidade) {
+            ativo.lacrar();
+            ativo = new Segmento(proximaSequencia);
+            ativo.recuperar();
+            segmentos.put(ativo.base, ativo);
+        }
+        ativo.gravar(mensagem, autor, texto, tamanho);
+        proximaSequencia++;
+    }
+
+    /**
+     * Força as mensagens gravadas até o disco.
+     */
+    synchronized void forcar() throws IOException {
+        ativo.forcar();
+    }
+
+    /**
+     * Lê mensagens consecutivas a partir de uma sequência.
+     * @param desde A primeira sequência
+     * @param quantidade Quantidade máxima de mensagens
+     */
+    synchronized List<Mensagem> ler(long desde, int quantidade) throws IOException {
+        List<Mensagem> mensagens = new ArrayList<>(Math.min(quantidade, 1024));
+        percorrer(desde, quantidade, mensagens::add);
+        return mensagens;
+    }
+
+    /**
+     * Entrega ao consumidor as mensagens a partir de uma sequência, em ordem.
+     * @param desde A primeira sequência
+     * @param limite Quantidade máxima de mensagens
+     */
+    synchronized void percorrer(long desde, long limite, Consumer<Mensagem> consumidor) throws IOException {
+        long sequencia = Math.max(desde, 0);
+        long fim = Math.min(proximaSequencia, sequencia + limite);
+        while (sequencia < fim) {
+            Segmento segmento = segmentos.floorEntry(sequencia).getValue();
+            ByteBuffer mapa = segmento.mapa().duplicate();
+            mapa.position(segmento.localizar(sequencia));
+            long fimSegmento = Math.min(fim, segmento.base + segmento.quantidade);
+            while (sequencia < fimSegmento) {
+                consumidor.accept(lerRegistro(mapa));
+                sequencia++;
+            }
+        }
+    }
+
+    public synchronized void close() throws IOException {
+        for (Segmento segmento : segmentos.values()) {
+            segmento.fechar();
+        }
+    }
+
+    /**
+     * Lê o registro na posição atual do buffer, avançando-o para o próximo.
+     */
+    private static Mensagem lerRegistro(ByteBuffer mapa) {
+        int tamanho = mapa.getInt();
+        mapa.getInt(); // CRC: verificado apenas na recuperação
+        long sequencia = mapa.getLong();
+        long horario = mapa.getLong();
+        int bytesAutor = mapa.getShort() & 0xFFFF;
+        String autor = bytesAutor == 0 ? null : texto(mapa, bytesAutor);
+        String texto = texto(mapa, tamanho - FIXO - bytesAutor);
+        return new Mensagem(sequencia, horario, autor, texto);
+    }
+
+    /**
+     * @return Os primeiros bytes de um texto em UTF-8, até o limite, sem partir um caractere
+     */
+    private static byte[] cortar(byte[] texto, int limite) {
+        int fim = Math.max(0, limite);
+        while (fim > 0 && (texto[fim] & 0xC0) == 0x80) {
+            fim--; // Byte de continuação: o caractere começou antes do limite
+        }
+        return Arrays.copyOf(texto, fim);
+    }
+
+    private static String texto(ByteBuffer mapa, int tamanho) {
+        byte[] bytes = new byte[tamanho];
+        mapa.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Um arquivo de tamanho fixo do histórico e seu índice esparso.
+     */
+    private class Segmento {
+        private final long base; // Sequência da primeira mensagem
+        private final File arquivoLog;
+        private final File arquivoIndice;
+        private MappedByteBuffer mapa;
+        private int capacidade; // Tamanho do arquivo do segmento
+        private int posicao; // Fim dos dados gravados
+        private int quantidade; // Mensagens no segmento
+        private int[] indiceSequencias = new int[16]; // Sequências relativas indexadas
+        private int[] indicePosicoes = new int[16]; // Posição de cada uma delas
+        private int entradasIndice;
+        private int entradasGravadas; // Entradas do índice já escritas no arquivo
+        private int ultimaPosicaoIndexada = -1;
+
+        Segmento(long base) {
+            this.base = base;
+            this.arquivoLog = new File(diretorio, String.format("%020d", base) + EXTENSAO_LOG);
+            this.arquivoIndice = new File(diretorio, String.format("%020d", base) + EXTENSAO_INDICE);
+        }
+
+        /**
+         * Mapeia o segmento, criando o arquivo com o tamanho fixo se for novo.
+         * O mapeamento continua válido depois que o canal é fechado, então nenhum descritor fica aberto.
+         */
+        MappedByteBuffer mapa() throws IOException {
+            if (mapa == null) {
+                try (RandomAccessFile raf = new RandomAccessFile(arquivoLog, "rw")) {
+                    if (raf.length() < tamanhoSegmento) {
+                        raf.setLength(tamanhoSegmento); // Arquivo esparso: o disco só é usado à medida que é escrito
+                    }
+                    capacidade = (int) raf.length();
+                    mapa = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacidade);
+                }
+                carregarIndice();
+            }
+            return mapa;
+        }
+
+        /**
+         * Garante que o segmento está mapeado e que o fim dos dados é conhecido.
+         * Um registro incompleto ou corrompido no fim é descartado.
+         */
+        void recuperar() throws IOException {
+            mapa();
+        }
+
+        /**
+         * Carrega o índice esparso salvo e conta as mensagens, validando apenas os registros
+         * depois da última entrada do índice.
+         */
+        private void carregarIndice() throws IOException {
+            if (arquivoIndice.exists()) {
+                try (DataInputStream dados = new DataInputStream(new BufferedInputStream(new FileInputStream(arquivoIndice)))) {
+                    long entradas = arquivoIndice.length() / 8;
+                    for (long i = 0; i < entradas; i++) {
+                        adicionarEntrada(dados.readInt(), dados.readInt());
+                    }
+                }
+            }
+            entradasGravadas = entradasIndice;
+
+            // Percorre os registros a partir da última entrada válida do índice
+            ByteBuffer leitura = mapa.duplicate();
+            int relativa = 0;
+            int inicio = 0;
+            if (entradasIndice > 0) {
+                relativa = indiceSequencias[entradasIndice - 1];
+                inicio = indicePosicoes[entradasIndice - 1];
+                entradasIndice--; // Será adicionada de novo ao validar o registro
+                ultimaPosicaoIndexada = entradasIndice > 0 ? indicePosicoes[entradasIndice - 1] : -1;
+            }
+            leitura.position(inicio);
+            while (true) {
+                int registro = leitura.position();
+                if (!registroValido(leitura, base + relativa)) {
+                    break;
+                }
+                indexar(relativa, registro);
+                relativa++;
+            }
+            posicao = leitura.position();
+            quantidade = relativa;
+            if (entradasGravadas > entradasIndice) {
+                entradasGravadas = entradasIndice;
+                truncarIndice();
+            }
+
+            // Zera o que sobrou de um registro incompleto, para que não pareça válido depois
+            ByteBuffer limpeza = mapa.duplicate();
+            limpeza.position(posicao);
+            while (limpeza.hasRemaining() && limpeza.position() < posicao + CABECALHO) {
+                limpeza.put((byte) 0);
+            }
+        }
+
+        /**
+         * Confere tamanho, CRC e sequência do registro na posição atual, avançando até o próximo se for válido.
+         */
+        private boolean registroValido(ByteBuffer leitura, long sequenciaEsperada) {
+            if (leitura.remaining() < CABECALHO + FIXO) {
+                return false;
+            }
+            int inicio = leitura.position();
+            int tamanho = leitura.getInt();
+            int crc = leitura.getInt();
+            if (tamanho < FIXO || tamanho > leitura.remaining()) {
+                leitura.position(inicio);
+                return false;
+            }
+            ByteBuffer corpo = leitura.slice();
+            corpo.limit(tamanho);
+            CRC32 calculado = new CRC32();
+            calculado.update(corpo.duplicate());
+            if ((int) calculado.getValue() != crc || corpo.getLong(0) != sequenciaEsperada) {
+                leitura.position(inicio);
+                return false;
+            }
+            leitura.position(leitura.position() + tamanho);
+            return true;
+        }
+
+        void gravar(Mensagem mensagem, byte[] autor, byte[] texto, int tamanho) throws IOException {
+            ByteBuffer escrita = mapa().duplicate();
+            escrita.position(posicao + CABECALHO);
+            escrita.putLong(mensagem.sequencia);
+            escrita.putLong(mensagem.horario);
+            escrita.putShort((short) autor.length);
+            escrita.put(autor);
+            escrita.put(texto);
+
+            ByteBuffer corpo = mapa.duplicate();
+            corpo.position(posicao + CABECALHO);
+            corpo.limit(posicao + CABECALHO + tamanho);
+            CRC32 crc = new CRC32();
+            crc.update(corpo);
+            // O cabeçalho é escrito por último, para que um registro pela metade nunca pareça válido
+            mapa.putInt(posicao + 4, (int) crc.getValue());
+            mapa.putInt(posicao, tamanho);
+
+            indexar(quantidade, posicao);
+            posicao += CABECALHO + tamanho;
+            quantidade++;
+        }
+
+        /**
+         * @return A posição do registro da sequência, lendo a partir da entrada mais próxima do índice
+         */
+        int localizar(long sequencia) {
+            int relativa = (int) (sequencia - base);
+            int entrada = Arrays.binarySearch(indiceSequencias, 0, entradasIndice, relativa);
+            if (entrada < 0) {
+                entrada = -entrada - 2;
+            }
+            int atual = indiceSequencias[entrada];
+            int posicaoRegistro = indicePosicoes[entrada];
+            while (atual < relativa) {
+                posicaoRegistro += CABECALHO + mapa.getInt(posicaoRegistro);
+                atual++;
+            }
+            return posicaoRegistro;
+        }
+
+        private void indexar(int relativa, int posicaoRegistro) {
+            if (ultimaPosicaoIndexada < 0 || posicaoRegistro - ultimaPosicaoIndexada >= intervaloIndice) {
+                adicionarEntrada(relativa, posicaoRegistro);
+                ultimaPosicaoIndexada = posicaoRegistro;
+            }
+        }
+
+        private void adicionarEntrada(int relativa, int posicaoRegistro) {
+            if (entradasIndice == indiceSequencias.length) {
+                indiceSequencias = Arrays.copyOf(indiceSequencias, entradasIndice * 2);
+                indicePosicoes = Arrays.copyOf(indicePosicoes, entradasIndice * 2);
+            }
+            indiceSequencias[entradasIndice] = relativa;
+            indicePosicoes[entradasIndice] = posicaoRegistro;
+            entradasIndice++;
+        }
+
+        /**
+         * Acrescenta ao arquivo de índice as entradas criadas desde a última gravação.
+         */
+        void gravarIndicePendente() throws IOException {
+            if (entradasGravadas == entradasIndice) {
+                return;
+            }
+            try (DataOutputStream dados = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(arquivoIndice, true)))) {
+                for (int i = entradasGravadas; i < entradasIndice; i++) {
+                    dados.writeInt(indiceSequencias[i]);
+                    dados.writeInt(indicePosicoes[i]);
+                }
+            }
+            entradasGravadas = entradasIndice;
+        }
+
+        private void truncarIndice() throws IOException {
+            try (RandomAccessFile raf = new RandomAccessFile(arquivoIndice, "rw")) {
+                raf.setLength((long) entradasGravadas * 8);
+            }
+        }
+
+        /**
+         * Segmento cheio: grava o índice e força os dados até o disco.
+         */
+        void lacrar() throws IOException {
+            gravarIndicePendente();
+            forcar();
+        }
+
+        void forcar() {
+            if (mapa != null) {
+                mapa.force();
+            }
+        }
+
+        void fechar() throws IOException {
+            if (mapa != null) {
+                gravarIndicePendente();
+                forcar();
+            }
+        }
+    }
+}
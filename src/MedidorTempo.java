@@ -0,0 +1,107 @@
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histograma de durações de uma operação, atualizado sem travas por várias threads.
+ * As durações são contadas em microssegundos, em faixas que dobram de tamanho a cada
+ * potência de 2, cada uma dividida em 8 partes: o erro dos percentis fica abaixo de 12,5%.
+ */
+class MedidorTempo {
+    private static final int SUBFAIXAS = 8; // Divisões de cada potência de 2
+    private static final int BITS_SUBFAIXA = 3;
+    private static final int FAIXAS = 16 + (40 - 4) * SUBFAIXAS; // Até 2^40 µs (cerca de 12 dias)
+
+    private final LongAdder quantidade = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maximoNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder[] faixas = new LongAdder[FAIXAS];
+
+    MedidorTempo() {
+        for (int i = 0; i < faixas.length; i++) {
+            faixas[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Registra uma ocorrência da operação.
+     * @param nanos A duração, em nanossegundos
+     */
+    void registrar(long nanos) {
+        quantidade.increment();
+        totalNanos.add(nanos);
+        maximoNanos.accumulate(nanos);
+        faixas[faixa(Math.max(0, nanos / 1000))].increment();
+    }
+
+    long quantidade() {
+        return quantidade.sum();
+    }
+
+    /**
+     * @return A duração média, em milissegundos, ou 0 se nada foi registrado
+     */
+    double mediaMillis() {
+        long n = quantidade.sum();
+        return n == 0 ? 0 : totalNanos.sum() / (n * 1_000_000.0);
+    }
+
+    /**
+     * @return A maior duração registrada, em milissegundos
+     */
+    double maximoMillis() {
+        return maximoNanos.get() / 1_000_000.0;
+    }
+
+    /**
+     * Calcula um percentil aproximado pelo limite superior da faixa em que ele cai.
+     * @param percentil Entre 0 e 100, por exemplo 99.9
+     * @return A duração, em milissegundos, ou 0 se nada foi registrado
+     */
+    double percentilMillis(double percentil) {
+        long[] contagens = new long[faixas.length];
+        long total = 0;
+        for (int i = 0; i < faixas.length; i++) {
+            contagens[i] = faixas[i].sum();
+            total += contagens[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long alvo = (long) Math.ceil(total * percentil / 100.0);
+        long acumulado = 0;
+        for (int i = 0; i < contagens.length; i++) {
+            acumulado += contagens[i];
+            if (acumulado >= alvo) {
+                return Math.min(limiteSuperior(i) / 1000.0, maximoMillis());
+            }
+        }
+        return maximoMillis();
+    }
+
+    /**
+     * @return Uma linha com quantidade, média, p50, p99, p999 e máximo
+     */
+    String resumo() {
+        return String.format(Locale.ROOT, "n=%d média=%.3fms p50=%.3fms p99=%.3fms p999=%.3fms máx=%.3fms",
+                quantidade(), mediaMillis(), percentilMillis(50), percentilMillis(99), percentilMillis(99.9), maximoMillis());
+    }
+
+    private static int faixa(long micros) {
+        if (micros < 16) {
+            return (int) micros;
+        }
+        int expoente = 63 - Long.numberOfLeadingZeros(micros); // 4 ou mais
+        int sub = (int) (micros >>> (expoente - BITS_SUBFAIXA)) & (SUBFAIXAS - 1);
+        return Math.min(FAIXAS - 1, 16 + (expoente - 4) * SUBFAIXAS + sub);
+    }
+
+    private static long limiteSuperior(int faixa) {
+        if (faixa < 16) {
+            return faixa + 1;
+        }
+        int expoente = (faixa - 16) / SUBFAIXAS + 4;
+        int sub = (faixa - 16) % SUBFAIXAS;
+        return (1L << expoente) + ((long) (sub + 1) << (expoente - BITS_SUBFAIXA));
+    }
+}
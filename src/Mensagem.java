@@ -0,0 +1,102 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Uma mensagem do histórico de uma sala.
+ */
+final class Mensagem {
+    static final DateTimeFormatter FORMATO_HORARIO = DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm").withZone(ZoneId.systemDefault());
+
+    /**
+     * Horário já formatado de um minuto; todas as mensagens do mesmo minuto reaproveitam o texto.
+     */
+    private static final class MinutoFormatado {
+        final long minuto;
+        final String texto;
+
+        MinutoFormatado(long minuto, String texto) {
+            this.minuto = minuto;
+            this.texto = texto;
+        }
+    }
+
+    private static volatile MinutoFormatado ultimoMinuto = new MinutoFormatado(-1, "");
+
+    final long sequencia; // Posição da mensagem na sala, a partir de 0
+    final long horario; // Milissegundos desde a época, ou 0 se desconhecido (históricos antigos)
+    final String autor; // Quem enviou, ou null para avisos do sistema
+    final String texto;
+    private volatile ByteBuffer linha; // Linha formatada e codificada, criada no primeiro envio
+    private volatile ByteBuffer quadro; // Quadro do protocolo binário, criado no primeiro envio a um cliente binário
+
+    Mensagem(long sequencia, long horario, String autor, String texto) {
+        this.sequencia = sequencia;
+        this.horario = horario;
+        this.autor = autor;
+        this.texto = texto;
+    }
+
+    /**
+     * Formata a mensagem como ela aparece para os clientes:
+     * "[dd-MM-yyyy HH:mm] nome: texto", "[dd-MM-yyyy HH:mm] aviso" ou, sem horário, "[nome]: texto".
+     */
+    String formatar() {
+        if (horario == 0) {
+            return autor == null ? texto : "[" + autor + "]: " + texto;
+        }
+        String dataHora = formatarHorario(horario);
+        return autor == null ? "[" + dataHora + "] " + texto : "[" + dataHora + "] " + autor + ": " + texto;
+    }
+
+    /**
+     * Retorna a linha formatada, codificada uma única vez e compartilhada por todos os destinatários.
+     * @return Um buffer somente leitura; cada conexão usa a própria cópia da posição
+     */
+    ByteBuffer linha() {
+        ByteBuffer atual = linha;
+        if (atual == null) {
+            atual = codificar(formatar());
+            linha = atual; // Sem sincronização: no pior caso duas threads codificam a mesma linha
+        }
+        return atual;
+    }
+
+    /**
+     * Retorna o quadro MENSAGEM_SALA do protocolo binário, codificado uma única vez.
+     * @param sala A sala da mensagem
+     * @return Um buffer somente leitura; cada conexão usa a própria cópia da posição
+     */
+    ByteBuffer quadro(String sala) {
+        ByteBuffer atual = quadro;
+        if (atual == null) {
+            atual = Protocolo.mensagem(autor == null ? Protocolo.Tipo.SISTEMA : Protocolo.Tipo.CHAT,
+                    sala, sequencia, horario, autor, texto);
+            quadro = atual;
+        }
+        return atual;
+    }
+
+    /**
+     * Codifica uma linha para envio, em UTF-8 e com a quebra de linha final.
+     * @return Um buffer somente leitura, que pode ser enviado a vários clientes
+     */
+    static ByteBuffer codificar(String linha) {
+        return ByteBuffer.wrap((linha + "\n").getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+    }
+
+    /**
+     * Formata o horário no padrão dd-MM-yyyy HH:mm, reaproveitando o texto enquanto o minuto não muda.
+     */
+    private static String formatarHorario(long horario) {
+        long minuto = Math.floorDiv(horario, 60_000L);
+        MinutoFormatado cache = ultimoMinuto;
+        if (cache.minuto != minuto) {
+            cache = new MinutoFormatado(minuto, FORMATO_HORARIO.format(Instant.ofEpochMilli(horario)));
+            ultimoMinuto = cache;
+        }
+        return cache.texto;
+    }
+}
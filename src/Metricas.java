@@ -0,0 +1,98 @@
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Métricas do servidor: contadores, histogramas de latência e medidores (valores lidos na hora,
+ * como o tamanho de filas e pools). São expostas pelo comando /stats, pelo MBean
+ * {@link EstatisticasMBean} e por um relatório periódico no log.
+ */
+final class Metricas {
+    static final LongAdder CONEXOES_ABERTAS = new LongAdder(); // Conexões atendidas desde o início
+    static final LongAdder CONEXOES_ATIVAS = new LongAdder();
+    static final LongAdder CONEXOES_EXPIRADAS = new LongAdder(); // Derrubadas por não responderem aos PINGs
+    static final LongAdder CONEXOES_OCIOSAS = new LongAdder(); // Fechadas por ficarem sem comandos
+    static final LongAdder MENSAGENS_RECEBIDAS = new LongAdder(); // Linhas recebidas dos clientes
+    static final LongAdder MENSAGENS_ENVIADAS = new LongAdder(); // Linhas colocadas nas filas de saída
+    static final LongAdder BYTES_RECEBIDOS = new LongAdder();
+    static final LongAdder BYTES_ENVIADOS = new LongAdder();
+    static final LongAdder RETOMADAS = new LongAdder(); // Entradas em sala a partir da última mensagem vista (reconexões)
+
+    static final MedidorTempo FANOUT = new MedidorTempo(); // Da sala receber uma mensagem até a última entrega
+    static final MedidorTempo GRAVACAO_HISTORICO = new MedidorTempo(); // Gravação de um lote no log
+    static final MedidorTempo REPRODUCAO_HISTORICO = new MedidorTempo(); // Envio das mensagens recentes no /join
+    static final MedidorTempo PESQUISA = new MedidorTempo(); // Resposta ao /pesquisar
+
+    private static final Map<String, LongSupplier> medidores = new ConcurrentSkipListMap<>();
+    private static final DateTimeFormatter FORMATO_RELATORIO = DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm:ss");
+
+    private Metricas() {
+    }
+
+    /**
+     * Registra um valor lido no momento do relatório, como o tamanho de uma fila.
+     * @param nome Nome do medidor, por exemplo "fila.salas"
+     */
+    static void registrarMedidor(String nome, LongSupplier valor) {
+        medidores.put(nome, valor);
+    }
+
+    /**
+     * Registra o tamanho da fila e as threads ocupadas de um pool.
+     */
+    static void registrarPool(String nome, ExecutorService pool) {
+        if (pool instanceof ThreadPoolExecutor) {
+            ThreadPoolExecutor executor = (ThreadPoolExecutor) pool;
+            registrarMedidor("pool." + nome + ".fila", () -> executor.getQueue().size());
+            registrarMedidor("pool." + nome + ".ativas", executor::getActiveCount);
+        }
+    }
+
+    /**
+     * @return Os valores atuais de todos os medidores registrados
+     */
+    static Map<String, Long> medidores() {
+        Map<String, Long> valores = new LinkedHashMap<>();
+        medidores.forEach((nome, valor) -> valores.put(nome, valor.getAsLong()));
+        return valores;
+    }
+
+    /**
+     * Monta o relatório em texto usado pelo /stats e pelo relatório periódico.
+     */
+    static List<String> relatorio() {
+        List<String> linhas = new ArrayList<>();
+        linhas.add("-- Estatísticas do servidor (" + LocalDateTime.now().format(FORMATO_RELATORIO) + ") --");
+        linhas.add("Conexões: " + CONEXOES_ATIVAS.sum() + " ativas, " + CONEXOES_ABERTAS.sum() + " desde o início, "
+                + CONEXOES_EXPIRADAS.sum() + " derrubadas sem resposta, " + CONEXOES_OCIOSAS.sum() + " fechadas por inatividade");
+        linhas.add("Mensagens: " + MENSAGENS_RECEBIDAS.sum() + " recebidas, " + MENSAGENS_ENVIADAS.sum() + " enviadas");
+        linhas.add("Bytes: " + BYTES_RECEBIDOS.sum() + " recebidos, " + BYTES_ENVIADOS.sum() + " enviados");
+        linhas.add("Entrega nas salas: " + FANOUT.resumo());
+        linhas.add("Gravação do histórico: " + GRAVACAO_HISTORICO.resumo());
+        linhas.add("Histórico no /join: " + REPRODUCAO_HISTORICO.resumo() + " (" + RETOMADAS.sum() + " retomadas)");
+        linhas.add("Pesquisa: " + PESQUISA.resumo());
+        medidores().forEach((nome, valor) -> linhas.add(nome + " = " + valor));
+        linhas.add("log.descartadas = " + Log.descartadas());
+        return linhas;
+    }
+
+    /**
+     * Escreve o relatório no log a cada intervalo.
+     * @param intervaloSegundos O intervalo; 0 desativa o relatório
+     */
+    static void iniciarRelatorioPeriodico(long intervaloSegundos) {
+        if (intervaloSegundos <= 0) {
+            return;
+        }
+        ScheduledExecutorService agendador = Executors.newSingleThreadScheduledExecutor(tarefa -> {
+            Thread thread = new Thread(tarefa, "relatorio-metricas");
+            thread.setDaemon(true);
+            return thread;
+        });
+        agendador.scheduleAtFixedRate(() -> Log.info(String.join(System.lineSeparator(), relatorio())),
+                intervaloSegundos, intervaloSegundos, TimeUnit.SECONDS);
+    }
+}
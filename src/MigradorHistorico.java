@@ -0,0 +1,137 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.*;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+
+/**
+ * Importa os históricos em texto (HistoricoSalas/&lt;sala&gt;.txt) para o formato segmentado.
+ * Pode ser executado sozinho (java MigradorHistorico [diretorio]); o servidor também migra
+ * automaticamente uma sala antiga na primeira vez que ela é aberta.
+ */
+public class MigradorHistorico {
+    private static final DateTimeFormatter FORMATO_HORARIO = DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm");
+    private static final int LOTE = 1000; // Mensagens gravadas por vez
+
+    public static void main(String[] args) throws IOException {
+        File diretorio = new File(args.length > 0 ? args[0] : ServidorChat.HISTORICO_DIR);
+        File[] arquivos = diretorio.listFiles((dir, nome) -> nome.endsWith(".txt"));
+        if (arquivos == null || arquivos.length == 0) {
+            System.out.println("Nenhum histórico em texto encontrado em " + diretorio + ".");
+            return;
+        }
+        for (File arquivo : arquivos) {
+            String sala = arquivo.getName().substring(0, arquivo.getName().length() - 4);
+            File destino = new File(diretorio, sala);
+            if (destino.exists()) {
+                System.out.println("Sala '" + sala + "' já está no formato segmentado; ignorada.");
+                continue;
+            }
+            long mensagens = migrar(arquivo, destino, ServidorChat.TAMANHO_SEGMENTO_HISTORICO, ServidorChat.INTERVALO_INDICE_SEGMENTO);
+            System.out.println("Sala '" + sala + "': " + mensagens + " mensagens importadas.");
+        }
+    }
+
+    /**
+     * Importa um histórico em texto para um novo diretório de log segmentado
+     * e renomeia o arquivo original para &lt;sala&gt;.txt.migrado.
+     * @return Quantidade de mensagens importadas
+     */
+    static long migrar(File arquivoTexto, File destino, int tamanhoSegmento, int intervaloIndice) throws IOException {
+        File temporario = new File(destino.getPath() + ".migrando");
+        apagar(temporario); // Restos de uma migração interrompida
+
+        long sequencia = 0;
+        try (LogSegmentado log = new LogSegmentado(temporario, tamanhoSegmento, intervaloIndice);
+             InputStream in = new BufferedInputStream(new FileInputStream(arquivoTexto))) {
+            List<Mensagem> lote = new ArrayList<>(LOTE);
+            ByteArrayOutputStream linha = new ByteArrayOutputStream();
+            int b;
+            while ((b = in.read()) != -1) {
+                if (b != '\n') {
+                    linha.write(b);
+                    continue;
+                }
+                lote.add(interpretar(sequencia++, decodificar(linha.toByteArray())));
+                linha.reset();
+                if (lote.size() == LOTE) {
+                    log.anexar(lote);
+                    lote.clear();
+                }
+            }
+            if (linha.size() > 0) {
+                lote.add(interpretar(sequencia++, decodificar(linha.toByteArray())));
+            }
+            log.anexar(lote);
+            log.forcar();
+        }
+
+        if (!temporario.renameTo(destino)) {
+            throw new IOException("Não foi possível mover " + temporario + " para " + destino);
+        }
+        arquivoTexto.renameTo(new File(arquivoTexto.getPath() + ".migrado"));
+        new File(arquivoTexto.getParentFile(), destino.getName() + ".idx").delete(); // Índice de busca do formato antigo
+        return sequencia;
+    }
+
+    /**
+     * Separa horário, autor e texto dos formatos antigos:
+     * "[dd-MM-yyyy HH:mm] nome: texto", "[dd-MM-yyyy HH:mm] aviso", "[nome]: texto" e "aviso".
+     */
+    static Mensagem interpretar(long sequencia, String linha) {
+        long horario = 0;
+        String resto = linha;
+        if (linha.length() > 18 && linha.charAt(0) == '[' && linha.charAt(17) == ']' && linha.charAt(18) == ' ') {
+            try {
+                horario = LocalDateTime.parse(linha.substring(1, 17), FORMATO_HORARIO)
+                        .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+                resto = linha.substring(19);
+            } catch (DateTimeParseException e) {
+                // Não é um horário; segue como linha comum
+            }
+        }
+
+        if (horario == 0) {
+            int fim = linha.indexOf("]: ");
+            if (linha.startsWith("[") && fim > 1) {
+                return new Mensagem(sequencia, 0, linha.substring(1, fim), linha.substring(fim + 3));
+            }
+            return new Mensagem(sequencia, 0, null, linha);
+        }
+        int separador = resto.indexOf(": ");
+        if (separador > 0) {
+            return new Mensagem(sequencia, horario, resto.substring(0, separador), resto.substring(separador + 2));
+        }
+        return new Mensagem(sequencia, horario, null, resto);
+    }
+
+    /**
+     * Decodifica a linha como UTF-8; históricos antigos gravados em Latin-1 são reconhecidos pelos bytes inválidos.
+     */
+    private static String decodificar(byte[] bytes) {
+        int tamanho = bytes.length;
+        if (tamanho > 0 && bytes[tamanho - 1] == '\r') {
+            tamanho--;
+        }
+        try {
+            return StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .decode(ByteBuffer.wrap(bytes, 0, tamanho)).toString();
+        } catch (CharacterCodingException e) {
+            return new String(bytes, 0, tamanho, StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    private static void apagar(File arquivo) {
+        File[] filhos = arquivo.listFiles();
+        if (filhos != null) {
+            for (File filho : filhos) {
+                apagar(filho);
+            }
+        }
+        arquivo.delete();
+    }
+}
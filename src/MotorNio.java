@@ -0,0 +1,303 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Motor de conexões não bloqueante baseado em um único {@link Selector}.
+ * A thread do seletor apenas aceita conexões e lê/escreve bytes; os comandos de cada
+ * cliente são processados em um pool de trabalhadores, um de cada vez e na ordem de chegada.
+ * Conexões ociosas não ocupam threads nem buffers de leitura.
+ */
+class MotorNio {
+    private static final int TAMANHO_BUFFER = 8192; // Buffer de leitura compartilhado pela thread do seletor
+
+    private final int porta;
+    private final Selector seletor;
+    private final ExecutorService trabalhadores; // Executa os comandos dos clientes
+    private final Queue<ConexaoNio> pendentes = new ConcurrentLinkedQueue<>(); // Conexões com escrita ou fechamento pendente
+    private volatile boolean aceitando = true; // Falso depois de pararDeAceitar
+
+    MotorNio(int porta, int numTrabalhadores) throws IOException {
+        this.porta = porta;
+        this.seletor = Selector.open();
+        this.trabalhadores = Executors.newFixedThreadPool(numTrabalhadores);
+        Metricas.registrarPool("nio", trabalhadores);
+        Metricas.registrarMedidor("nio.conexoes.pendentes", pendentes::size);
+    }
+
+    /**
+     * Executa o laço do seletor na thread atual. Não retorna enquanto o servidor estiver ativo.
+     */
+    void executar() throws IOException {
+        ServerSocketChannel servidor = ServerSocketChannel.open(); // Fechado no desligamento, antes das conexões
+        try {
+            servidor.bind(new InetSocketAddress(porta), ServidorChat.BACKLOG_CONEXOES);
+            servidor.configureBlocking(false);
+            servidor.register(seletor, SelectionKey.OP_ACCEPT);
+
+            ByteBuffer leitura = ByteBuffer.allocateDirect(TAMANHO_BUFFER);
+            while (true) {
+                seletor.select();
+                processarPendentes();
+                if (!aceitando && servidor.isOpen()) {
+                    servidor.close(); // As conexões abertas continuam sendo atendidas
+                }
+
+                Iterator<SelectionKey> chaves = seletor.selectedKeys().iterator();
+                while (chaves.hasNext()) {
+                    SelectionKey chave = chaves.next();
+                    chaves.remove();
+                    if (!chave.isValid()) {
+                        continue;
+                    }
+                    if (chave.isAcceptable()) {
+                        aceitar(servidor);
+                        continue;
+                    }
+                    ConexaoNio conexao = (ConexaoNio) chave.attachment();
+                    if (chave.isReadable()) {
+                        conexao.ler(leitura);
+                    }
+                    if (chave.isValid() && chave.isWritable()) {
+                        conexao.escrever();
+                    }
+                }
+            }
+        } finally {
+            servidor.close();
+        }
+    }
+
+    /**
+     * Para de aceitar conexões novas, no desligamento do servidor. As conexões abertas continuam
+     * sendo lidas e escritas, para que as filas de saída sejam entregues.
+     */
+    void pararDeAceitar() {
+        aceitando = false;
+        seletor.wakeup();
+    }
+
+    /**
+     * Aceita todas as conexões prontas e as registra no seletor.
+     */
+    private void aceitar(ServerSocketChannel servidor) throws IOException {
+        SocketChannel canal;
+        while ((canal = servidor.accept()) != null) {
+            canal.configureBlocking(false);
+            canal.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            ConexaoNio conexao = new ConexaoNio(canal);
+            conexao.chave = canal.register(seletor, SelectionKey.OP_READ, conexao);
+            conexao.handler.iniciar();
+        }
+    }
+
+    /**
+     * Escreve o que as threads de trabalho enfileiraram desde a última volta do seletor.
+     */
+    private void processarPendentes() {
+        ConexaoNio conexao;
+        while ((conexao = pendentes.poll()) != null) {
+            conexao.escritaSolicitada.set(false);
+            if (conexao.derrubar) {
+                conexao.finalizar();
+            } else if (conexao.chave.isValid()) {
+                conexao.escrever();
+            }
+        }
+    }
+
+    /**
+     * Estado de uma conexão no motor NIO.
+     */
+    private class ConexaoNio implements Conexao, DecodificadorEntrada.Destino {
+        private final SocketChannel canal;
+        private final ServidorChat.Handler handler;
+        private SelectionKey chave;
+        private final DecodificadorEntrada decodificador = new DecodificadorEntrada(); // Usado apenas pela thread do seletor
+        private volatile boolean binaria; // O cliente negociou o protocolo binário
+
+        private final Queue<Object> entrada = new ConcurrentLinkedQueue<>(); // Linhas (String) ou quadros (ByteBuffer) aguardando processamento
+        private final AtomicBoolean agendada = new AtomicBoolean(); // Há uma tarefa processando esta conexão
+        private final FilaSaida saida = ServidorChat.novaFilaSaida(); // Mensagens aguardando escrita
+        private ByteBuffer emEscrita; // Mensagem parcialmente escrita, já fora da fila
+        private final AtomicBoolean escritaSolicitada = new AtomicBoolean(); // Já está na fila de pendentes
+        private volatile boolean fecharAposEscrita; // Fechar assim que a saída esvaziar
+        private volatile boolean derrubar; // Consumidor lento ou sem resposta: fechar sem esperar a saída
+        private volatile boolean finalizada; // O canal já foi fechado
+        private boolean handlerEncerrado; // Acessado apenas pela tarefa de processamento
+
+        ConexaoNio(SocketChannel canal) {
+            this.canal = canal;
+            this.handler = new ServidorChat.Handler(this);
+        }
+
+        /**
+         * Lê os bytes disponíveis, separa as linhas ou quadros completos e agenda o processamento.
+         * Executado apenas na thread do seletor.
+         */
+        void ler(ByteBuffer buffer) {
+            buffer.clear();
+            int lidos;
+            try {
+                lidos = canal.read(buffer);
+            } catch (IOException e) {
+                Log.info("Usuário " + handler.getNomeCliente() + " desconectado do servidor.");
+                finalizar();
+                return;
+            }
+            if (lidos < 0) {
+                finalizar();
+                return;
+            }
+            Metricas.BYTES_RECEBIDOS.add(lidos);
+            handler.registrarLeitura();
+
+            buffer.flip();
+            if (!decodificador.receber(buffer, this)) {
+                Log.aviso("Usuário " + handler.getNomeCliente() + " enviou uma linha ou quadro grande demais e foi desconectado.");
+                finalizar();
+                return;
+            }
+            agendar();
+        }
+
+        /**
+         * Escreve o máximo possível da fila de saída sem bloquear.
+         * Executado apenas na thread do seletor.
+         */
+        void escrever() {
+            try {
+                while (emEscrita != null || (emEscrita = saida.retirar()) != null) {
+                    canal.write(emEscrita);
+                    if (emEscrita.hasRemaining()) {
+                        // Janela TCP cheia: espera o seletor avisar que dá para continuar
+                        chave.interestOps(chave.interestOps() | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                    emEscrita = null;
+                }
+                chave.interestOps(chave.interestOps() & ~SelectionKey.OP_WRITE);
+                if (fecharAposEscrita) {
+                    finalizar();
+                }
+            } catch (IOException e) {
+                finalizar();
+            }
+        }
+
+        public void linha(String linha) {
+            entrada.add(linha);
+        }
+
+        public void quadro(ByteBuffer quadro) {
+            entrada.add(quadro);
+        }
+
+        public void protocoloBinario() {
+            enviar(Mensagem.codificar(Protocolo.CONFIRMACAO)); // Última linha de texto
+            binaria = true;
+        }
+
+        public boolean binaria() {
+            return binaria;
+        }
+
+        public void enviar(ByteBuffer dados) {
+            if (finalizada) {
+                return;
+            }
+            Metricas.MENSAGENS_ENVIADAS.increment();
+            Metricas.BYTES_ENVIADOS.add(dados.remaining());
+            if (!saida.oferecer(dados.duplicate())) {
+                Log.aviso("Usuário " + handler.getNomeCliente() + " desconectado por não consumir as mensagens a tempo.");
+                derrubar = true;
+            }
+            solicitarEscrita();
+        }
+
+        public void fechar() {
+            fecharAposEscrita = true;
+            solicitarEscrita();
+        }
+
+        public void derrubar() {
+            derrubar = true;
+            solicitarEscrita();
+        }
+
+        public int tamanhoFilaSaida() {
+            return saida.tamanho();
+        }
+
+        public long mensagensDescartadas() {
+            return saida.descartadas();
+        }
+
+        /**
+         * Pede à thread do seletor que escreva a saída pendente desta conexão.
+         */
+        private void solicitarEscrita() {
+            if (escritaSolicitada.compareAndSet(false, true)) {
+                pendentes.add(this);
+                seletor.wakeup();
+            }
+        }
+
+        /**
+         * Fecha o canal e agenda a limpeza do Handler depois das linhas ainda não processadas.
+         */
+        private void finalizar() {
+            if (finalizada) {
+                return;
+            }
+            finalizada = true;
+            chave.cancel();
+            try {
+                canal.close();
+            } catch (IOException e) {
+                Log.erro("ERRO AO FECHAR O SOCKET: " + e.getMessage());
+            }
+            saida.fechar();
+            saida.limpar();
+            emEscrita = null;
+            agendar();
+        }
+
+        /**
+         * Garante que exista no máximo uma tarefa processando esta conexão por vez.
+         */
+        private void agendar() {
+            if (agendada.compareAndSet(false, true)) {
+                trabalhadores.execute(this::processar);
+            }
+        }
+
+        private void processar() {
+            try {
+                Object recebido;
+                while ((recebido = entrada.poll()) != null) {
+                    if (recebido instanceof String) {
+                        handler.processarLinha((String) recebido);
+                    } else {
+                        handler.processarQuadro((ByteBuffer) recebido);
+                    }
+                }
+                if (finalizada && !handlerEncerrado) {
+                    handlerEncerrado = true;
+                    handler.encerrar();
+                }
+            } catch (RuntimeException e) {
+                Log.erro("Erro ao processar uma conexão: " + e);
+            } finally {
+                agendada.set(false);
+                if (!entrada.isEmpty() || (finalizada && !handlerEncerrado)) {
+                    agendar();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,408 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Protocolo binário do chat, usado pelos clientes que o pedem ao conectar; os demais continuam
+ * no protocolo de texto, uma linha por comando ou mensagem.
+ *
+ * Negociação: logo depois de conectar, o cliente envia a linha {@link #NEGOCIACAO}. O servidor
+ * responde com a linha {@link #CONFIRMACAO} e, a partir daí, os dois lados trocam quadros.
+ * Um servidor antigo responde outra coisa, e o cliente continua no protocolo de texto.
+ *
+ * Quadro: tamanho (varint, bytes seguintes), opcode (1 byte) e os campos do opcode. Números
+ * são varints (LEB128, sem sinal) e textos são o tamanho em varint seguido dos bytes em UTF-8.
+ * Um quadro {@link #LOTE} carrega vários quadros completos, processados em ordem.
+ *
+ * Sinais de vida: um lado que passa um tempo sem receber nada do outro envia {@link #PING},
+ * respondido com {@link #PONG}. No protocolo de texto, são as linhas {@link #PING_TEXTO} e
+ * {@link #PONG_TEXTO}, aceitas mesmo antes do nome.
+ */
+final class Protocolo {
+    static final String NEGOCIACAO = "/protocolo binario 1";
+    static final String CONFIRMACAO = "[Sistema] Protocolo binário 1 ativado.";
+    static final int TAMANHO_MAXIMO_QUADRO = 64 * 1024; // Quadros ou linhas do cliente maiores que isso derrubam a conexão
+    static final int LIMITE_QUADRO = (1 << 21) - 1; // Maior quadro do servidor: o tamanho ocupa até 3 bytes
+    static final String PING_TEXTO = "/ping"; // PING e PONG no protocolo de texto, uma linha cada
+    static final String PONG_TEXTO = "/pong";
+
+    // Cliente -> servidor
+    static final byte NOME = 1;         // texto nome
+    static final byte ENTRAR = 2;       // texto sala
+    static final byte SAIR = 3;
+    static final byte MENSAGEM = 4;     // texto
+    static final byte PRIVADA = 5;      // texto destinatario, texto
+    static final byte HISTORICO = 6;    // varint pagina
+    static final byte PESQUISAR = 7;    // texto consulta
+    static final byte SALAS = 8;        // [texto primeira sala da página]
+    static final byte USUARIOS = 9;
+    static final byte FILAS = 10;
+    static final byte ESTATISTICAS = 11;
+    static final byte AJUDA = 12;
+    static final byte DESCONECTAR = 13;
+    static final byte RETOMAR = 14;     // texto sala, varint última sequência vista: volta à sala depois de reconectar
+
+    // Servidor -> cliente
+    static final byte TEXTO = 64;         // tipo, texto: respostas aos comandos e avisos
+    static final byte MENSAGEM_SALA = 65; // tipo, texto sala, varint sequencia + 1 (0 sem sequência), varint horario, texto autor, texto
+
+    // Nos dois sentidos
+    static final byte PING = 125;         // sinal de vida: quem recebe responde com PONG
+    static final byte PONG = 126;
+    static final byte LOTE = 127;         // quadros completos, um após o outro
+
+    /**
+     * Tipo de uma mensagem enviada ao cliente. No protocolo de texto vira o prefixo da linha.
+     */
+    enum Tipo {
+        INFO(""),
+        SISTEMA("[Sistema] "),
+        ERRO("[Erro] "),
+        CHAT(""),
+        PRIVADA("");
+
+        final String prefixo;
+
+        Tipo(String prefixo) {
+            this.prefixo = prefixo;
+        }
+    }
+
+    private static final Tipo[] TIPOS = Tipo.values();
+
+    private Protocolo() {
+    }
+
+    /**
+     * @return Um quadro TEXTO com o tipo e o texto
+     */
+    static ByteBuffer texto(Tipo tipo, String texto) {
+        Quadro quadro = new Quadro(TEXTO);
+        quadro.escrever(tipo.ordinal());
+        quadro.escrever(texto);
+        return quadro.finalizar();
+    }
+
+    /**
+     * @param sequencia A sequência na sala, ou -1 se a mensagem não faz parte do histórico
+     * @param autor Quem enviou, ou null para avisos do sistema
+     * @return Um quadro MENSAGEM_SALA
+     */
+    static ByteBuffer mensagem(Tipo tipo, String sala, long sequencia, long horario, String autor, String texto) {
+        Quadro quadro = new Quadro(MENSAGEM_SALA);
+        quadro.escrever(tipo.ordinal());
+        quadro.escrever(sala);
+        quadro.escrever(sequencia + 1);
+        quadro.escrever(horario);
+        quadro.escrever(autor == null ? "" : autor);
+        quadro.escrever(texto);
+        return quadro.finalizar();
+    }
+
+    /**
+     * Junta quadros já codificados em um quadro LOTE, enviado de uma vez.
+     * Quem monta o lote limita a soma dos quadros a {@link #TAMANHO_MAXIMO_QUADRO}.
+     */
+    static ByteBuffer lote(List<ByteBuffer> quadros) {
+        Quadro lote = new Quadro(LOTE);
+        for (ByteBuffer quadro : quadros) {
+            lote.escrever(quadro.duplicate());
+        }
+        return lote.finalizar();
+    }
+
+    /**
+     * Converte uma linha digitada no cliente no quadro do comando correspondente.
+     * Linhas que não são comandos viram mensagens para a sala, como no protocolo de texto.
+     */
+    static ByteBuffer comando(String linha) {
+        int espaco = linha.indexOf(' ');
+        String palavra = espaco < 0 ? linha : linha.substring(0, espaco);
+        String argumento = espaco < 0 ? "" : linha.substring(espaco + 1).trim();
+        if (linha.startsWith("@") && espaco > 1) {
+            Quadro quadro = new Quadro(PRIVADA);
+            quadro.escrever(palavra.substring(1));
+            quadro.escrever(argumento);
+            return quadro.finalizar();
+        }
+        switch (palavra.toLowerCase(Locale.ROOT)) {
+            case "/join": return comTexto(ENTRAR, argumento);
+            case "/sair": return new Quadro(SAIR).finalizar();
+            case "/historico": {
+                Quadro quadro = new Quadro(HISTORICO);
+                try {
+                    quadro.escrever(argumento.isEmpty() ? 1 : Math.max(0, Integer.parseInt(argumento)));
+                } catch (NumberFormatException e) {
+                    quadro.escrever(0); // O servidor responde que a página é inválida
+                }
+                return quadro.finalizar();
+            }
+            case "/pesquisar": return comTexto(PESQUISAR, argumento);
+            case "/retomar": {
+                int separador = argumento.indexOf(' ');
+                try {
+                    return retomar(argumento.substring(separador + 1).trim(), Long.parseLong(argumento.substring(0, Math.max(separador, 0))));
+                } catch (NumberFormatException e) {
+                    return comTexto(ENTRAR, ""); // O servidor responde com o uso correto
+                }
+            }
+            case "/salas": return comTexto(SALAS, argumento);
+            case "/usuarios": return new Quadro(USUARIOS).finalizar();
+            case "/filas": return new Quadro(FILAS).finalizar();
+            case "/stats": return new Quadro(ESTATISTICAS).finalizar();
+            case "/help": return new Quadro(AJUDA).finalizar();
+            case "/desconectar": return new Quadro(DESCONECTAR).finalizar();
+            case PING_TEXTO: return new Quadro(PING).finalizar();
+            default: return comTexto(MENSAGEM, linha);
+        }
+    }
+
+    /**
+     * @return Um quadro RETOMAR, enviado pelo cliente ao reconectar
+     */
+    static ByteBuffer retomar(String sala, long ultimaSequencia) {
+        Quadro quadro = new Quadro(RETOMAR);
+        quadro.escrever(sala);
+        quadro.escrever(ultimaSequencia);
+        return quadro.finalizar();
+    }
+
+    private static ByteBuffer comTexto(byte opcode, String texto) {
+        Quadro quadro = new Quadro(opcode);
+        quadro.escrever(texto);
+        return quadro.finalizar();
+    }
+
+    static Tipo lerTipo(ByteBuffer quadro) {
+        int tipo = (int) lerNumero(quadro);
+        return tipo < TIPOS.length ? TIPOS[tipo] : Tipo.INFO;
+    }
+
+    /**
+     * Lê um varint na posição atual do quadro.
+     * @throws IllegalArgumentException Se o quadro terminar no meio do número
+     */
+    static long lerNumero(ByteBuffer quadro) {
+        long valor = 0;
+        for (int deslocamento = 0; deslocamento < 64; deslocamento += 7) {
+            if (!quadro.hasRemaining()) {
+                throw new IllegalArgumentException("Quadro incompleto");
+            }
+            byte b = quadro.get();
+            valor |= (long) (b & 0x7F) << deslocamento;
+            if (b >= 0) {
+                return valor;
+            }
+        }
+        throw new IllegalArgumentException("Número inválido no quadro");
+    }
+
+    /**
+     * Lê um texto na posição atual do quadro.
+     * @throws IllegalArgumentException Se o quadro terminar no meio do texto
+     */
+    static String lerTexto(ByteBuffer quadro) {
+        long tamanho = lerNumero(quadro);
+        if (tamanho > quadro.remaining()) {
+            throw new IllegalArgumentException("Quadro incompleto");
+        }
+        byte[] bytes = new byte[(int) tamanho];
+        quadro.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Verifica se o texto tem caracteres de controle, como quebras de linha, que um cliente
+     * de texto leria como outra linha. Nomes de usuário e de sala com eles são recusados.
+     */
+    static boolean temControle(String texto) {
+        for (int i = 0; i < texto.length(); i++) {
+            if (controle(texto.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Troca os caracteres de controle do texto por espaços, nos dois protocolos, antes de
+     * repassar ou repetir um texto do cliente (mensagens, consultas, destinatários).
+     * @return O próprio texto, se não houver o que trocar
+     */
+    static String semControle(String texto) {
+        if (!temControle(texto)) {
+            return texto;
+        }
+        char[] caracteres = texto.toCharArray();
+        for (int i = 0; i < caracteres.length; i++) {
+            if (controle(caracteres[i])) {
+                caracteres[i] = ' ';
+            }
+        }
+        return new String(caracteres);
+    }
+
+    private static boolean controle(char c) {
+        return Character.isISOControl(c) || c == '\u2028' || c == '\u2029'; // Inclui os separadores de linha do Unicode
+    }
+
+    /**
+     * Lê o próximo quadro de um lote, ou de um fluxo já com os bytes completos.
+     * @return O quadro (opcode e campos), ou null se não houver mais quadros
+     */
+    static ByteBuffer proximoQuadro(ByteBuffer lote) {
+        if (!lote.hasRemaining()) {
+            return null;
+        }
+        long tamanho = lerNumero(lote);
+        if (tamanho < 1 || tamanho > lote.remaining()) {
+            throw new IllegalArgumentException("Quadro incompleto no lote");
+        }
+        ByteBuffer quadro = lote.slice();
+        quadro.limit((int) tamanho);
+        lote.position(lote.position() + (int) tamanho);
+        return quadro;
+    }
+
+    /**
+     * Converte quadros do servidor nas linhas que um cliente de texto receberia, como em
+     * {@link Conexao#enviar(Protocolo.Tipo, String)} e {@link Mensagem#linha()}.
+     * Usado no modo cluster, em que as respostas de outro nó chegam sempre como quadros.
+     * @param quadros Um ou mais quadros TEXTO, MENSAGEM_SALA ou LOTE, com o tamanho na frente
+     * @return As linhas codificadas, cada uma com a quebra de linha
+     */
+    static ByteBuffer paraTexto(ByteBuffer quadros) {
+        StringBuilder linhas = new StringBuilder();
+        paraTexto(quadros.duplicate(), linhas);
+        return ByteBuffer.wrap(linhas.toString().getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+    }
+
+    private static void paraTexto(ByteBuffer quadros, StringBuilder linhas) {
+        ByteBuffer quadro;
+        while ((quadro = proximoQuadro(quadros)) != null) {
+            byte opcode = quadro.get();
+            if (opcode == TEXTO) {
+                Tipo tipo = lerTipo(quadro);
+                linhas.append(tipo.prefixo).append(lerTexto(quadro)).append('\n');
+            } else if (opcode == MENSAGEM_SALA) {
+                Tipo tipo = lerTipo(quadro);
+                lerTexto(quadro); // Sala
+                long sequencia = lerNumero(quadro) - 1;
+                long horario = lerNumero(quadro);
+                String autor = lerTexto(quadro);
+                String texto = lerTexto(quadro);
+                if (tipo == Tipo.PRIVADA) {
+                    linhas.append("Mensagem privada de ").append(autor).append(": ").append(texto);
+                } else {
+                    linhas.append(new Mensagem(sequencia, horario, autor.isEmpty() ? null : autor, texto).formatar());
+                }
+                linhas.append('\n');
+            } else if (opcode == LOTE) {
+                paraTexto(quadro, linhas);
+            }
+        }
+    }
+
+    /**
+     * Lê um quadro de um fluxo bloqueante, usado pelo cliente.
+     * @return O quadro (opcode e campos), ou null no fim do fluxo
+     */
+    static ByteBuffer lerQuadro(InputStream entrada) throws IOException {
+        long tamanho = 0;
+        for (int deslocamento = 0; ; deslocamento += 7) {
+            int b = entrada.read();
+            if (b < 0) {
+                return null;
+            }
+            tamanho |= (long) (b & 0x7F) << deslocamento;
+            if (b < 0x80) {
+                break;
+            }
+            if (deslocamento > 28) {
+                throw new IOException("Tamanho de quadro inválido");
+            }
+        }
+        if (tamanho < 1 || tamanho > LIMITE_QUADRO) {
+            throw new IOException("Tamanho de quadro inválido: " + tamanho);
+        }
+        byte[] bytes = new byte[(int) tamanho];
+        new DataInputStream(entrada).readFully(bytes);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    /**
+     * Monta um quadro: o opcode e os campos são escritos em um buffer que cresce,
+     * e o tamanho é colocado na frente ao finalizar.
+     */
+    static final class Quadro {
+        private static final int RESERVA = 3; // Espaço para o tamanho, até LIMITE_QUADRO
+        private byte[] bytes = new byte[64];
+        private int tamanho = RESERVA;
+
+        Quadro(byte opcode) {
+            bytes[tamanho++] = opcode;
+        }
+
+        void escrever(long numero) {
+            garantir(10);
+            while ((numero & ~0x7FL) != 0) {
+                bytes[tamanho++] = (byte) ((numero & 0x7F) | 0x80);
+                numero >>>= 7;
+            }
+            bytes[tamanho++] = (byte) numero;
+        }
+
+        void escrever(String texto) {
+            byte[] codificado = texto.getBytes(StandardCharsets.UTF_8);
+            escrever(codificado.length);
+            garantir(codificado.length);
+            System.arraycopy(codificado, 0, bytes, tamanho, codificado.length);
+            tamanho += codificado.length;
+        }
+
+        /**
+         * Escreve um quadro completo, com o tamanho na frente, como item de um lote.
+         */
+        void escrever(ByteBuffer quadro) {
+            int adicionais = quadro.remaining();
+            garantir(adicionais);
+            quadro.get(bytes, tamanho, adicionais);
+            tamanho += adicionais;
+        }
+
+        /**
+         * @return Bytes do quadro até aqui, contando o opcode e sem o tamanho da frente
+         */
+        int tamanho() {
+            return tamanho - RESERVA;
+        }
+
+        /**
+         * Coloca o tamanho no espaço reservado, logo antes do opcode, sem copiar o quadro.
+         * @return O quadro com o tamanho na frente, em um buffer somente leitura
+         * @throws IllegalArgumentException Se o quadro passou de {@link #LIMITE_QUADRO}
+         */
+        ByteBuffer finalizar() {
+            int conteudo = tamanho - RESERVA;
+            if (conteudo > LIMITE_QUADRO) {
+                throw new IllegalArgumentException("Quadro grande demais: " + conteudo + " bytes");
+            }
+            int bytesTamanho = conteudo < 1 << 7 ? 1 : conteudo < 1 << 14 ? 2 : 3;
+            int inicio = RESERVA - bytesTamanho;
+            int restante = conteudo;
+            for (int i = inicio; i < RESERVA - 1; i++) {
+                bytes[i] = (byte) ((restante & 0x7F) | 0x80);
+                restante >>>= 7;
+            }
+            bytes[RESERVA - 1] = (byte) restante;
+            return ByteBuffer.wrap(bytes, inicio, tamanho - inicio).slice().asReadOnlyBuffer();
+        }
+
+        private void garantir(int adicionais) {
+            if (tamanho + adicionais > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, tamanho + adicionais));
+            }
+        }
+    }
+}
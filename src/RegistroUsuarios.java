@@ -0,0 +1,82 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Diretório dos usuários conectados, indexado pelo nome e pelo id da conexão.
+ * Todas as consultas são feitas por hash, sem percorrer a lista de usuários;
+ * os membros de cada sala são indexados pela própria {@link Sala}.
+ */
+class RegistroUsuarios {
+
+    /**
+     * Um usuário conectado.
+     */
+    static final class Usuario {
+        final long id; // Identificador da conexão, único enquanto o servidor estiver no ar
+        final String nome;
+        final Conexao conexao;
+        final String no; // Nó do cluster em que o usuário está conectado, ou null se for este
+        volatile String sala = ""; // Sala atual, ou vazio
+
+        Usuario(long id, String nome, Conexao conexao) {
+            this(id, nome, conexao, null);
+        }
+
+        /**
+         * @param no O nó do cluster em que o usuário está conectado; a conexão repassa as respostas a ele
+         */
+        Usuario(long id, String nome, Conexao conexao, String no) {
+            this.id = id;
+            this.nome = nome;
+            this.conexao = conexao;
+            this.no = no;
+        }
+    }
+
+    private final AtomicLong proximoId = new AtomicLong(1);
+    private final Map<String, Usuario> porNome = new ConcurrentHashMap<>();
+    private final Map<Long, Usuario> porId = new ConcurrentHashMap<>();
+
+    /**
+     * Registra um usuário com o nome informado.
+     * @return O usuário registrado, ou null se o nome já estiver em uso
+     */
+    Usuario registrar(String nome, Conexao conexao) {
+        Usuario usuario = new Usuario(proximoId.getAndIncrement(), nome, conexao);
+        if (porNome.putIfAbsent(nome, usuario) != null) {
+            return null;
+        }
+        porId.put(usuario.id, usuario);
+        return usuario;
+    }
+
+    /**
+     * Remove o usuário do diretório.
+     */
+    void remover(Usuario usuario) {
+        porId.remove(usuario.id);
+        porNome.remove(usuario.nome, usuario);
+    }
+
+    /**
+     * @return O usuário com o nome informado, ou null se não estiver conectado
+     */
+    Usuario porNome(String nome) {
+        return porNome.get(nome);
+    }
+
+    /**
+     * @return O usuário da conexão com o id informado, ou null se não estiver conectado
+     */
+    Usuario porId(long id) {
+        return porId.get(id);
+    }
+
+    /**
+     * @return Todos os usuários conectados
+     */
+    Collection<Usuario> usuarios() {
+        return porNome.values();
+    }
+}
@@ -0,0 +1,543 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Uma sala de chat executada como ator: entradas, saídas e mensagens são colocadas na caixa
+ * de mensagens da sala e processadas uma de cada vez, na ordem de chegada, por um pool compartilhado.
+ * Os membros, a sequência das mensagens e o histórico pertencem à sala e só são alterados pela
+ * tarefa da sala, sem travas; salas diferentes rodam em paralelo.
+ *
+ * Em salas grandes, a entrega das mensagens é dividida em fatias de membros entregues em paralelo.
+ * Cada membro fica sempre na mesma fatia e cada fatia entrega na ordem em que recebeu, então
+ * todo membro continua recebendo as mensagens da sala na ordem da caixa.
+ *
+ * Cada cliente que entra na sala a reserva, e a libera ao sair. Uma sala sem reservas por mais de
+ * OCIOSIDADE_SALA_S segundos é descarregada: sai do mapa de salas ativas e fecha o histórico.
+ *
+ * No modo cluster, a sala roda no nó dono dela e pode ter membros conectados em outros nós.
+ * Esses membros não entram nas fatias: cada mensagem vai uma vez para cada nó com membros,
+ * que a entrega aos seus clientes. Quando a sala muda de dono, ela é transferida: os membros
+ * passam ao novo dono, o histórico é fechado e as tarefas que chegarem depois são repetidas lá.
+ */
+class Sala implements SalaChat {
+    private static final int LOTE_CAIXA = 256; // Tarefas processadas antes de ceder a thread a outras salas
+    private static final int LOTE_FATIA = 16; // Entregas de uma fatia antes de ceder a thread a outras fatias
+    private static final int LOTE_CONSULTAS = 4; // Leituras do histórico antes de ceder a thread a outras salas
+
+    final String nome;
+    private final ExecutorSerial caixa; // Caixa de mensagens da sala
+    private final ExecutorSerial consultas; // Lê o histórico no /historico e no /pesquisar, fora da caixa e em ordem
+    private final Map<String, RegistroUsuarios.Usuario> membros = new HashMap<>(); // Acessado apenas pela tarefa da sala
+    private final Map<String, Integer> nosRemotos = new HashMap<>(); // Nó do cluster -> membros conectados nele; acessado apenas pela tarefa da sala
+    private final Fatia[] fatias; // Membros divididos para a entrega em paralelo
+    private final AtomicInteger entregasPendentes = new AtomicInteger(); // Tarefas de fatias ainda não concluídas
+    private int reservas; // Clientes usando a sala; alterado só dentro do mapa de salas ativas
+    private volatile long ultimoUso = System.nanoTime(); // Quando a última reserva foi liberada
+    private volatile HistoricoSala historico; // Aberto no primeiro uso
+    private volatile boolean transferida; // A sala passou para outro nó do cluster
+
+    /**
+     * Parte dos membros da sala, com a própria fila de entregas.
+     */
+    private static final class Fatia {
+        final ExecutorSerial entregas;
+        final Map<String, RegistroUsuarios.Usuario> membros = new HashMap<>(); // Alterado apenas pela tarefa da sala
+        RegistroUsuarios.Usuario[] instantaneo; // Cópia imutável entregue às tarefas; null quando desatualizada
+
+        Fatia(Executor pool) {
+            this.entregas = new ExecutorSerial(pool, LOTE_FATIA);
+        }
+
+        RegistroUsuarios.Usuario[] membros() {
+            if (instantaneo == null) {
+                instantaneo = membros.values().toArray(new RegistroUsuarios.Usuario[0]);
+            }
+            return instantaneo;
+        }
+    }
+
+    /**
+     * @param nome O nome da sala
+     * @param executorSalas Pool que processa as caixas de mensagens das salas
+     * @param executorFanout Pool que entrega as mensagens das salas grandes
+     * @param numFatias Em quantas fatias dividir os membros
+     * @param executorConsultas Pool que lê o histórico das salas no /historico e no /pesquisar
+     */
+    Sala(String nome, Executor executorSalas, Executor executorFanout, int numFatias, Executor executorConsultas) {
+        this.nome = nome;
+        this.caixa = new ExecutorSerial(executorSalas, LOTE_CAIXA);
+        this.consultas = new ExecutorSerial(executorConsultas, LOTE_CONSULTAS);
+        this.fatias = new Fatia[Math.max(1, numFatias)];
+        for (int i = 0; i < fatias.length; i++) {
+            fatias[i] = new Fatia(executorFanout);
+        }
+    }
+
+    public void entrar(RegistroUsuarios.Usuario usuario) {
+        entrar(usuario, false);
+    }
+
+    /**
+     * @param migracao Se o usuário já estava na sala, que mudou de nó: ele só volta a ser membro,
+     * sem avisos nem mensagens recentes
+     */
+    void entrar(RegistroUsuarios.Usuario usuario, boolean migracao) {
+        if (migracao) {
+            naCaixa(() -> adicionarMembro(usuario), sala -> ServidorChat.entrarNaSala(nome, usuario, true));
+        } else {
+            entrar(usuario, -1, sala -> ServidorChat.entrarNaSala(nome, usuario, false));
+        }
+    }
+
+    /**
+     * Só as mensagens recentes posteriores à última vista são enviadas. Se faltarem mensagens
+     * mais antigas que as guardadas em memória, o cliente é avisado para usar o /historico.
+     */
+    public void retomar(RegistroUsuarios.Usuario usuario, long ultimaSequencia) {
+        entrar(usuario, ultimaSequencia, sala -> ServidorChat.retomarSala(nome, usuario, ultimaSequencia));
+    }
+
+    /**
+     * @param ultimaSequencia A última mensagem vista pelo cliente, ou -1 para enviar todas as recentes
+     */
+    private void entrar(RegistroUsuarios.Usuario usuario, long ultimaSequencia, Consumer<SalaChat> repetir) {
+        naCaixa(() -> {
+            long inicio = System.nanoTime();
+            adicionarMembro(usuario);
+            HistoricoSala historico = historico();
+            List<Mensagem> recentes = historico.recentes();
+            boolean haMais = historico.temMaisQueRecentes();
+            if (ultimaSequencia >= 0) {
+                haMais = !recentes.isEmpty() && recentes.get(0).sequencia > ultimaSequencia + 1;
+                recentes = posteriores(recentes, ultimaSequencia);
+                Metricas.RETOMADAS.increment();
+            }
+            List<Mensagem> enviadas = recentes;
+            boolean aviso = haMais;
+            entregar(usuario, () -> {
+                usuario.conexao.enviar("Você entrou na " + nome);
+                enviarRecentes(usuario.conexao, enviadas, aviso);
+                Metricas.REPRODUCAO_HISTORICO.registrar(System.nanoTime() - inicio);
+            });
+            Mensagem entrada = historico.anexar(null, "Usuário " + usuario.nome + " entrou na sala.");
+            difundir(usuario, entrada, Mensagem.codificar(entrada.texto));
+            Log.info("Usuário " + usuario.nome + " entrou na " + nome + ".");
+        }, repetir);
+    }
+
+    /**
+     * @return As mensagens com sequência maior que a informada, que estão sempre no fim da lista
+     */
+    private static List<Mensagem> posteriores(List<Mensagem> mensagens, long sequencia) {
+        int inicio = mensagens.size();
+        while (inicio > 0 && mensagens.get(inicio - 1).sequencia > sequencia) {
+            inicio--;
+        }
+        return mensagens.subList(inicio, mensagens.size());
+    }
+
+    public void sair(RegistroUsuarios.Usuario usuario, boolean confirmar) {
+        naCaixa(() -> {
+            if (removerMembro(usuario)) {
+                Mensagem aviso = historico().anexar(null, "Usuário " + usuario.nome + " saiu da sala.");
+                difundir(usuario, aviso, Mensagem.codificar(aviso.texto));
+                if (confirmar) {
+                    entregar(usuario, () -> usuario.conexao.enviar("Você saiu da " + nome + "."));
+                }
+                Log.info("Usuário " + usuario.nome + " saiu da " + nome + ".");
+            }
+        }, sala -> sala.sair(usuario, confirmar));
+    }
+
+    /**
+     * A linha (e o quadro, se houver clientes binários ou outros nós) é codificada uma vez
+     * e o mesmo buffer vai para todos os membros.
+     */
+    public void publicar(RegistroUsuarios.Usuario autor, String texto) {
+        naCaixa(() -> {
+            Mensagem mensagem = historico().anexar(autor.nome, texto);
+            difundir(autor, mensagem, mensagem.linha());
+        }, sala -> sala.publicar(autor, texto));
+    }
+
+    public void enviarPrivada(RegistroUsuarios.Usuario remetente, String destinatario, String texto) {
+        naCaixa(() -> {
+            RegistroUsuarios.Usuario alvo = membros.get(destinatario);
+            if (alvo != null) {
+                entregar(alvo, () -> alvo.conexao.enviarPrivada(nome, remetente.nome, texto));
+                Log.debug("Usuário " + remetente.nome + " enviou mensagem privada para o usuário " + destinatario);
+            } else {
+                entregar(remetente, () -> remetente.conexao.enviar("Usuário " + destinatario + " não encontrado."));
+            }
+        }, sala -> sala.enviarPrivada(remetente, destinatario, texto));
+    }
+
+    public void listarMembros(RegistroUsuarios.Usuario solicitante) {
+        naCaixa(() -> {
+            List<String> linhas = new ArrayList<>();
+            linhas.add("\n-- Usuários Online na: " + nome + " --");
+            if (!membros.isEmpty()) {
+                for (RegistroUsuarios.Usuario membro : membros.values()) {
+                    if (membro == solicitante) { // Verifica se é o cliente que pediu a lista
+                        linhas.add("- " + membro.nome + " (você)"); // Adiciona o (você), depois do nome
+                    } else {
+                        linhas.add("- " + membro.nome); // Imprime o resto dos usuários
+                    }
+                }
+            } else {
+                linhas.add("Nenhum usuário conectado na sala.");
+            }
+            linhas.add("-------------------------------");
+            entregar(solicitante, () -> linhas.forEach(solicitante.conexao::enviar));
+        }, sala -> sala.listarMembros(solicitante));
+    }
+
+    /**
+     * Lê a página no pool de consultas, fora da caixa da sala, depois que a sala processar
+     * as mensagens que já estavam na caixa. Quem pediu não espera.
+     */
+    public void enviarHistorico(RegistroUsuarios.Usuario usuario, int pagina) {
+        depoisDosPendentes(() -> lerHistorico(usuario, pagina));
+    }
+
+    private void lerHistorico(RegistroUsuarios.Usuario usuario, int pagina) {
+        if (transferida) {
+            ServidorChat.acessarSala(nome).enviarHistorico(usuario, pagina);
+            return;
+        }
+        Conexao out = usuario.conexao;
+        try {
+            List<Mensagem> mensagens = historico().pagina(pagina, ServidorChat.TAMANHO_PAGINA_HISTORICO);
+            if (mensagens.isEmpty()) {
+                out.enviar("Não há mensagens na página " + pagina + " do histórico.");
+                return;
+            }
+            out.enviar("\n---------- Histórico da sala (página " + pagina + ") ----------");
+            out.enviar(mensagens, nome);
+            out.enviar("---------------------------------------");
+        } catch (IOException e) {
+            Log.erro("Erro ao ler o histórico da sala " + nome + ": " + e);
+            out.enviar(Protocolo.Tipo.ERRO, "Não foi possível ler o histórico da sala.");
+        }
+    }
+
+    /**
+     * Pesquisa no índice de busca, fora da caixa da sala, como {@link #enviarHistorico}.
+     */
+    public void pesquisar(RegistroUsuarios.Usuario usuario, String consulta) {
+        long inicio = System.nanoTime();
+        depoisDosPendentes(() -> lerPesquisa(usuario, consulta, inicio));
+    }
+
+    private void lerPesquisa(RegistroUsuarios.Usuario usuario, String consulta, long inicio) {
+        if (transferida) {
+            ServidorChat.acessarSala(nome).pesquisar(usuario, consulta);
+            return;
+        }
+        Conexao out = usuario.conexao;
+        try {
+            List<Mensagem> resultados = historico().pesquisar(new IndiceBusca.Consulta(consulta, ServidorChat.LIMITE_PESQUISA));
+            Metricas.PESQUISA.registrar(System.nanoTime() - inicio);
+            out.enviar("\n--- Resultados da Pesquisa ---");
+            out.enviar(resultados, nome);
+            if (resultados.isEmpty()) {
+                out.enviar("Nenhum resultado encontrado para: " + consulta);
+            }
+            out.enviar("------------------------------");
+        } catch (IOException e) {
+            Log.erro("Erro ao pesquisar o histórico da sala " + nome + ": " + e);
+            out.enviar(Protocolo.Tipo.ERRO, "Não foi possível pesquisar o histórico da sala.");
+        }
+    }
+
+    /**
+     * Agenda uma leitura do histórico no pool de consultas para quando a sala processar tudo
+     * o que já está na caixa de mensagens, para que ela inclua as mensagens que o cliente acabou
+     * de enviar. A caixa só repassa a tarefa, sem ler o disco. As leituras de uma sala são feitas
+     * uma de cada vez, para que as respostas de dois comandos seguidos não se misturem.
+     */
+    private void depoisDosPendentes(Runnable leitura) {
+        caixa.execute(() -> consultas.execute(leitura));
+    }
+
+    /**
+     * Espera a sala processar tudo o que já está na caixa de mensagens. Usado nos benchmarks;
+     * o servidor não bloqueia as threads de atendimento com isso.
+     */
+    void aguardarPendentes() {
+        CompletableFuture<Void> processadas = new CompletableFuture<>();
+        caixa.execute(() -> processadas.complete(null));
+        processadas.join();
+    }
+
+    /**
+     * Retorna o histórico da sala, abrindo-o no primeiro uso.
+     * Leituras (/historico e /pesquisar) podem ser feitas de qualquer thread;
+     * mensagens novas só são anexadas pela tarefa da sala.
+     */
+    HistoricoSala historico() {
+        HistoricoSala atual = historico;
+        if (atual == null) {
+            synchronized (this) {
+                atual = historico;
+                if (atual == null) {
+                    try {
+                        atual = new HistoricoSala(new File(ServidorChat.HISTORICO_DIR, nome),
+                                new File(ServidorChat.HISTORICO_DIR, nome + ".txt"), ServidorChat.MENSAGENS_RECENTES,
+                                ServidorChat.estadoSalvo(nome));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException("Erro ao abrir o histórico da sala " + nome, e);
+                    }
+                    historico = atual;
+                }
+            }
+        }
+        return atual;
+    }
+
+    /**
+     * Reserva a sala para um cliente. Chamado dentro do mapa de salas ativas, junto com a verificação
+     * de ociosidade, para que uma sala não seja descarregada enquanto alguém entra nela.
+     */
+    void reservar() {
+        reservas++;
+    }
+
+    /**
+     * Libera a reserva de um cliente que saiu. Chamado dentro do mapa de salas ativas.
+     */
+    void liberar() {
+        reservas--;
+        ultimoUso = System.nanoTime();
+    }
+
+    /**
+     * @param ociosidadeNanos Tempo mínimo sem reservas
+     * @return true se ninguém usa a sala há pelo menos esse tempo. Chamado dentro do mapa de salas ativas.
+     */
+    boolean ociosa(long ociosidadeNanos) {
+        return reservas == 0 && System.nanoTime() - ultimoUso >= ociosidadeNanos;
+    }
+
+    /**
+     * Fecha o histórico depois que a sala processar o que ainda está na caixa, como os avisos de saída.
+     * Chamado quando a sala já saiu do mapa de salas ativas e não recebe mais tarefas.
+     * @return Concluído quando o histórico estiver fechado
+     */
+    CompletableFuture<Void> descarregar() {
+        CompletableFuture<Void> fechada = new CompletableFuture<>();
+        caixa.execute(() -> {
+            try {
+                fechar();
+                Log.debug("Sala " + nome + " descarregada por ociosidade.");
+            } finally {
+                fechada.complete(null);
+            }
+        });
+        return fechada;
+    }
+
+    /**
+     * @return Mensagens da sala aguardando gravação no log
+     */
+    int mensagensNaoGravadas() {
+        HistoricoSala atual = historico;
+        return atual == null ? 0 : atual.pendentes();
+    }
+
+    /**
+     * Suspende a caixa de mensagens até {@link #retomar()}. Uma sala nova fica suspensa enquanto
+     * o nó que era dono dela não confirma que fechou o histórico, ou enquanto a sala de mesmo nome
+     * descarregada por ociosidade ainda fecha os arquivos.
+     */
+    void suspender() {
+        caixa.suspender();
+    }
+
+    void retomar() {
+        caixa.retomar();
+    }
+
+    /**
+     * Passa a sala para outro nó do cluster, depois do que já está na caixa: os membros são enviados
+     * ao novo dono, que os recoloca na sala sem avisos, e o histórico é gravado e fechado.
+     * Chamado quando a sala já saiu do mapa de salas ativas.
+     * @param destino O novo dono
+     * @return Concluído quando o histórico estiver fechado e os membros, enviados
+     */
+    CompletableFuture<Void> transferir(String destino) {
+        CompletableFuture<Void> concluida = new CompletableFuture<>();
+        caixa.execute(() -> {
+            try {
+                transferida = true;
+                List<RegistroUsuarios.Usuario> transferidos = new ArrayList<>(membros.values());
+                membros.clear();
+                nosRemotos.clear();
+                for (Fatia fatia : fatias) {
+                    fatia.membros.clear();
+                    fatia.instantaneo = null;
+                }
+                fechar();
+                ServidorChat.cluster().transferir(destino, nome, transferidos);
+                Log.info("Sala " + nome + " transferida para o nó " + destino + " com " + transferidos.size() + " membros.");
+            } finally {
+                concluida.complete(null);
+            }
+        });
+        return concluida;
+    }
+
+    /**
+     * Captura o estado da sala para o instantâneo do desligamento, depois que a sala processar o que
+     * já está na caixa.
+     * @return O estado, ou null se o histórico não foi aberto ou a sala passou para outro nó
+     */
+    CompletableFuture<InstantaneoSalas.Sala> instantaneo() {
+        CompletableFuture<InstantaneoSalas.Sala> estado = new CompletableFuture<>();
+        caixa.execute(() -> {
+            HistoricoSala atual = historico;
+            estado.complete(atual == null || transferida ? null
+                    : new InstantaneoSalas.Sala(nome, atual.proximaSequencia(), atual.recentes()));
+        });
+        return estado;
+    }
+
+    /**
+     * Grava o histórico pendente e fecha os arquivos da sala, se estiverem abertos.
+     */
+    synchronized void fechar() {
+        if (historico != null) {
+            historico.fechar();
+        }
+    }
+
+    /**
+     * Envia ao usuário que entrou as mensagens recentes mantidas em memória.
+     */
+    private void enviarRecentes(Conexao out, List<Mensagem> recentes, boolean haMais) {
+        if (!recentes.isEmpty() || haMais) {
+            out.enviar("\n---------- Histórico da sala ----------");
+            out.enviar(recentes, nome); // Codificadas uma vez, reaproveitadas a cada /join
+            if (haMais) {
+                out.enviar("(Use /historico <pagina> para ver mensagens anteriores)");
+            }
+            out.enviar("---------------------------------------");
+        }
+    }
+
+    /**
+     * Executa a tarefa na caixa da sala ou, se a sala já foi transferida, repete a operação no novo dono.
+     */
+    private void naCaixa(Runnable tarefa, Consumer<SalaChat> repetir) {
+        caixa.execute(() -> {
+            if (transferida) {
+                repetir.accept(ServidorChat.acessarSala(nome));
+            } else {
+                tarefa.run();
+            }
+        });
+    }
+
+    /**
+     * Membros de outros nós não entram nas fatias; o nó deles é avisado, para que passe a
+     * entregar as mensagens da sala a eles.
+     */
+    private void adicionarMembro(RegistroUsuarios.Usuario usuario) {
+        membros.put(usuario.nome, usuario);
+        if (usuario.no != null) {
+            nosRemotos.merge(usuario.no, 1, Integer::sum);
+            ServidorChat.cluster().membroEntrou(usuario.no, nome, usuario.nome);
+            return;
+        }
+        Fatia fatia = fatia(usuario);
+        fatia.membros.put(usuario.nome, usuario);
+        fatia.instantaneo = null;
+    }
+
+    private boolean removerMembro(RegistroUsuarios.Usuario usuario) {
+        if (!membros.remove(usuario.nome, usuario)) {
+            return false;
+        }
+        if (usuario.no != null) {
+            nosRemotos.computeIfPresent(usuario.no, (no, quantidade) -> quantidade > 1 ? quantidade - 1 : null);
+            ServidorChat.cluster().membroSaiu(usuario.no, nome, usuario.nome);
+            return true;
+        }
+        Fatia fatia = fatia(usuario);
+        fatia.membros.remove(usuario.nome, usuario);
+        fatia.instantaneo = null;
+        return true;
+    }
+
+    /**
+     * Cada usuário fica sempre na mesma fatia, o que preserva a ordem das entregas para ele.
+     */
+    private Fatia fatia(RegistroUsuarios.Usuario usuario) {
+        return fatias[(int) (usuario.id % fatias.length)];
+    }
+
+    /**
+     * Envia a mensagem já codificada a todos os membros, exceto o remetente: a linha aos clientes
+     * de texto e o quadro, codificado uma vez no primeiro cliente binário, aos demais.
+     * Salas pequenas entregam na própria tarefa da sala; a partir de LIMIAR_FANOUT_PARALELO membros,
+     * cada fatia entrega a sua parte em paralelo. O tempo até a última entrega vai para {@link Metricas#FANOUT}.
+     * Cada nó com membros da sala recebe o quadro uma vez, na própria tarefa da sala, na ordem da caixa.
+     */
+    private void difundir(RegistroUsuarios.Usuario remetente, Mensagem mensagem, ByteBuffer linha) {
+        long inicio = System.nanoTime();
+        for (String no : nosRemotos.keySet()) {
+            ServidorChat.cluster().difundir(no, nome, remetente.nome, mensagem.quadro(nome));
+        }
+        if (membros.size() < ServidorChat.LIMIAR_FANOUT_PARALELO && entregasPendentes.get() == 0) {
+            for (RegistroUsuarios.Usuario membro : membros.values()) {
+                if (membro != remetente && membro.no == null) {
+                    membro.conexao.enviar(membro.conexao.binaria() ? mensagem.quadro(nome) : linha);
+                }
+            }
+            Metricas.FANOUT.registrar(System.nanoTime() - inicio);
+            return;
+        }
+
+        AtomicInteger fatiasRestantes = new AtomicInteger(fatias.length);
+        for (Fatia fatia : fatias) {
+            RegistroUsuarios.Usuario[] destinos = fatia.membros();
+            naFatia(fatia, () -> {
+                for (RegistroUsuarios.Usuario membro : destinos) {
+                    if (membro != remetente) {
+                        membro.conexao.enviar(membro.conexao.binaria() ? mensagem.quadro(nome) : linha);
+                    }
+                }
+                if (fatiasRestantes.decrementAndGet() == 0) {
+                    Metricas.FANOUT.registrar(System.nanoTime() - inicio);
+                }
+            });
+        }
+    }
+
+    /**
+     * Envia algo a um único membro sem passar à frente das mensagens da sala ainda sendo entregues a ele.
+     * Membros de outros nós recebem tudo pela tarefa da sala, então o envio a eles é imediato.
+     */
+    private void entregar(RegistroUsuarios.Usuario destino, Runnable envio) {
+        if (entregasPendentes.get() == 0 || destino.no != null) {
+            envio.run();
+        } else {
+            naFatia(fatia(destino), envio);
+        }
+    }
+
+    private void naFatia(Fatia fatia, Runnable envio) {
+        entregasPendentes.incrementAndGet();
+        fatia.entregas.execute(() -> {
+            try {
+                envio.run();
+            } finally {
+                entregasPendentes.decrementAndGet();
+            }
+        });
+    }
+}
@@ -0,0 +1,50 @@
+/**
+ * Operações de uma sala usadas pelo atendimento dos clientes. A sala pode ser deste nó ({@link Sala})
+ * ou, no modo cluster, de outro nó ({@link SalaRemota}); as respostas chegam ao cliente pela conexão dele.
+ */
+interface SalaChat {
+
+    /**
+     * Coloca o usuário na sala, envia a ele as mensagens recentes e avisa os demais membros.
+     */
+    void entrar(RegistroUsuarios.Usuario usuario);
+
+    /**
+     * Coloca de volta na sala um usuário que reconectou, enviando só as mensagens que ele não viu.
+     * @param ultimaSequencia A sequência da última mensagem da sala que o cliente recebeu
+     */
+    void retomar(RegistroUsuarios.Usuario usuario, long ultimaSequencia);
+
+    /**
+     * Tira o usuário da sala e avisa os demais membros.
+     * @param confirmar Se o usuário recebe a confirmação da saída; falso quando ele está desconectando
+     */
+    void sair(RegistroUsuarios.Usuario usuario, boolean confirmar);
+
+    /**
+     * Registra a mensagem no histórico e a envia a todos os membros, exceto o autor.
+     */
+    void publicar(RegistroUsuarios.Usuario autor, String texto);
+
+    /**
+     * Entrega uma mensagem privada a um membro da sala.
+     */
+    void enviarPrivada(RegistroUsuarios.Usuario remetente, String destinatario, String texto);
+
+    /**
+     * Envia ao solicitante a lista de membros da sala.
+     */
+    void listarMembros(RegistroUsuarios.Usuario solicitante);
+
+    /**
+     * Envia ao usuário uma página do histórico, contando a partir da mensagem mais recente.
+     * @param pagina O número da página, a partir de 1
+     */
+    void enviarHistorico(RegistroUsuarios.Usuario usuario, int pagina);
+
+    /**
+     * Envia ao usuário as mensagens do histórico que atendem à consulta.
+     * @param consulta Uma consulta já validada com {@link IndiceBusca.Consulta}
+     */
+    void pesquisar(RegistroUsuarios.Usuario usuario, String consulta);
+}
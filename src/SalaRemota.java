@@ -0,0 +1,56 @@
+/**
+ * Sala cujo dono é outro nó do cluster. Cada operação vira um pedido enviado ao dono pela ligação
+ * entre os nós; as respostas voltam como entregas à conexão do usuário.
+ * O dono é consultado no anel a cada pedido, então os pedidos seguem a sala quando ela muda de nó.
+ */
+class SalaRemota implements SalaChat {
+    private final Cluster cluster;
+    private final String nome;
+
+    SalaRemota(Cluster cluster, String nome) {
+        this.cluster = cluster;
+        this.nome = nome;
+    }
+
+    public void entrar(RegistroUsuarios.Usuario usuario) {
+        entrar(usuario, false);
+    }
+
+    /**
+     * @param migracao Se o usuário já estava na sala, que mudou de nó
+     */
+    void entrar(RegistroUsuarios.Usuario usuario, boolean migracao) {
+        cluster.pedir(Cluster.ENTRAR, nome, usuario, quadro -> quadro.escrever(migracao ? 1 : 0));
+    }
+
+    public void retomar(RegistroUsuarios.Usuario usuario, long ultimaSequencia) {
+        cluster.pedir(Cluster.RETOMAR, nome, usuario, quadro -> quadro.escrever(ultimaSequencia));
+    }
+
+    public void sair(RegistroUsuarios.Usuario usuario, boolean confirmar) {
+        cluster.pedir(Cluster.SAIR, nome, usuario, quadro -> quadro.escrever(confirmar ? 1 : 0));
+    }
+
+    public void publicar(RegistroUsuarios.Usuario autor, String texto) {
+        cluster.pedir(Cluster.PUBLICAR, nome, autor, quadro -> quadro.escrever(texto));
+    }
+
+    public void enviarPrivada(RegistroUsuarios.Usuario remetente, String destinatario, String texto) {
+        cluster.pedir(Cluster.PRIVADA, nome, remetente, quadro -> {
+            quadro.escrever(destinatario);
+            quadro.escrever(texto);
+        });
+    }
+
+    public void listarMembros(RegistroUsuarios.Usuario solicitante) {
+        cluster.pedir(Cluster.MEMBROS, nome, solicitante, quadro -> { });
+    }
+
+    public void enviarHistorico(RegistroUsuarios.Usuario usuario, int pagina) {
+        cluster.pedir(Cluster.HISTORICO, nome, usuario, quadro -> quadro.escrever(pagina));
+    }
+
+    public void pesquisar(RegistroUsuarios.Usuario usuario, String consulta) {
+        cluster.pedir(Cluster.PESQUISAR, nome, usuario, quadro -> quadro.escrever(consulta));
+    }
+}
@@ -2,39 +2,98 @@ import java.io.*;
 import java.net.*;
 import java.util.*;
 import java.util.concurrent.*;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Pattern;
 
 /**
  * Classe principal do servidor de chat.
  * Gerencia as conexões dos clientes e as salas de chat.
  */
 public class ServidorChat {
-    private static final int PORTA = 5000; // Porta onde o servidor escuta conexões
-    private static final int MAX_THREADS = 100; // Número máximo de threads simultâneas
-    private static final String HISTORICO_DIR = "./HistoricoSalas"; // Caminho para o diretório de histórico de salas
-    private static final Map<String, Set<PrintWriter>> salasChat = new ConcurrentHashMap<>(); // Mapa de salas e seus membros
-    private static final Map<PrintWriter, String> usuarios = new ConcurrentHashMap<>(); // Mapa de usuários e suas saídas
+    static final int PORTA = Integer.getInteger("chat.porta", 5000); // Porta onde o servidor escuta conexões
+    static final int BACKLOG_CONEXOES = 1024; // Tamanho da fila de conexões pendentes no accept
+    static final String MOTOR = System.getProperty("chat.motor", "virtual"); // Motor de conexões: "virtual" (uma thread por conexão) ou "nio" (Selector não bloqueante)
+    static final int THREADS_TRABALHO = Runtime.getRuntime().availableProcessors() * 2; // Threads que processam comandos no motor NIO
+    static final int CAPACIDADE_FILA_SAIDA = Integer.getInteger("chat.fila.capacidade", 1024); // Mensagens pendentes por conexão antes de aplicar a política
+    static final FilaSaida.Politica POLITICA_FILA_SAIDA = FilaSaida.Politica.valueOf(System.getProperty("chat.fila.politica", "DESCARTAR_ANTIGA").toUpperCase()); // O que fazer com consumidores lentos
+    static final long TIMEOUT_FILA_SAIDA_MS = Long.getLong("chat.fila.timeout", 2000); // Espera máxima da política BLOQUEAR
+    static final int LOTE_HISTORICO = Integer.getInteger("chat.historico.lote", 256); // Linhas que disparam a gravação imediata de um lote
+    static final long INTERVALO_HISTORICO_MS = Long.getLong("chat.historico.intervalo", 50); // Espera máxima de uma linha antes de ir para o disco
+    static final AnexadorHistorico.Sincronizacao SINCRONIZACAO_HISTORICO = AnexadorHistorico.Sincronizacao.valueOf(System.getProperty("chat.historico.fsync", "NENHUMA").toUpperCase()); // Política de fsync do histórico
+    static final int MENSAGENS_RECENTES = Integer.getInteger("chat.historico.recentes", 50); // Mensagens de cada sala mantidas em memória e mostradas no /join
+    static final int TAMANHO_MAXIMO_NOME = 32; // Caracteres do nome de um usuário
+    static final int TAMANHO_MAXIMO_NOME_SALA = 64; // Caracteres do nome de uma sala, que também é o nome do diretório dela
+    static final int TAMANHO_PAGINA_SALAS = 50; // Salas por página do comando /salas
+    static final int TAMANHO_PAGINA_HISTORICO = 50; // Mensagens por página do comando /historico
+    static final int LIMITE_PESQUISA = 50; // Resultados do /pesquisar quando a consulta não informa limite:N
+    static final int TAMANHO_SEGMENTO_HISTORICO = Math.max(4 * Protocolo.TAMANHO_MAXIMO_QUADRO, // Cabe qualquer mensagem aceita de um cliente
+            Integer.getInteger("chat.historico.segmento", 4 * 1024 * 1024)); // Tamanho fixo de cada segmento do log de uma sala
+    static final int INTERVALO_INDICE_SEGMENTO = 4096; // Bytes de log entre duas entradas do índice esparso
+    static final String HISTORICO_DIR = "./HistoricoSalas"; // Caminho para o diretório de histórico de salas
+    static final int THREADS_SALAS = Integer.getInteger("chat.salas.threads", Runtime.getRuntime().availableProcessors()); // Threads que executam as caixas de mensagens das salas
+    static final int THREADS_AQUECIMENTO = Integer.getInteger("chat.aquecimento.threads", 2); // Threads que abrem os históricos das salas do instantâneo na inicialização
+    static final int LIMIAR_FANOUT_PARALELO = Integer.getInteger("chat.fanout.limiar", 2000); // Membros a partir dos quais a sala entrega as mensagens em paralelo
+    static final int THREADS_FANOUT = Integer.getInteger("chat.fanout.threads", Runtime.getRuntime().availableProcessors()); // Threads (e fatias de membros por sala) da entrega em paralelo
+    static final int THREADS_CONSULTAS = Integer.getInteger("chat.consultas.threads", 4); // Threads que leem o disco no /historico e no /pesquisar
+    // Nomes que podem usar o /stats e o /filas. Não é autenticação: qualquer cliente pode se conectar com um nome livre da lista
+    static final Set<String> ADMINISTRADORES = Set.of(System.getProperty("chat.admins", "").split(","));
+    static final long INTERVALO_ESTATISTICAS_S = Long.getLong("chat.stats.intervalo", 60); // Relatório periódico de métricas no log (0 desativa)
+    static final long OCIOSIDADE_SALA_S = Long.getLong("chat.salas.ociosidade", 300); // Segundos sem ninguém na sala até descarregá-la da memória (0 desativa)
+    static final String ARQUIVO_CATALOGO = "catalogo.salas"; // Catálogo das salas, dentro de HISTORICO_DIR
+    static final String ARQUIVO_INSTANTANEO = "salas.instantaneo"; // Estado das salas ativas salvo ao desligar, dentro de HISTORICO_DIR
+    static final long PRAZO_DESLIGAMENTO_MS = Long.getLong("chat.desligamento.prazo", 5000); // Espera máxima pela entrega das filas de saída e pelas salas ao desligar
+    static final long INTERVALO_PING_S = Long.getLong("chat.ping.intervalo", 30); // Silêncio do cliente até o servidor enviar um PING (0 desativa)
+    static final long TIMEOUT_LEITURA_S = Long.getLong("chat.timeout.leitura", 90); // Silêncio do cliente, nem PONG, até a conexão ser derrubada (0 desativa)
+    static final long OCIOSIDADE_CONEXAO_S = Long.getLong("chat.timeout.ociosidade", 0); // Tempo sem comandos nem mensagens até desconectar o cliente (0 desativa)
+    static final String LIMITES_CHAT = System.getProperty("chat.limite.chat", "10/20,10/20,200/400"); // Mensagens e privadas: taxa por segundo/rajada por conexão, usuário e sala (0 desativa)
+    static final String LIMITES_PESQUISA = System.getProperty("chat.limite.pesquisa", "2/5,2/5,20/40"); // /pesquisar e /historico, no mesmo formato
+    static final String LIMITES_ENTRADA = System.getProperty("chat.limite.entrada", "1/5,1/5,20/50"); // /join, no mesmo formato
+    static final long INTERVALO_AVISO_LIMITE_MS = 1000; // Intervalo mínimo entre dois avisos de limite para a mesma conexão
+    static final String NO_CLUSTER = System.getProperty("chat.cluster.no", ""); // "host:porta" deste nó na malha do cluster (vazio: sem cluster)
+    static final String NOS_CLUSTER = System.getProperty("chat.cluster.nos", ""); // "host:porta" de todos os nós do cluster, separados por vírgula
+    static final int NOS_VIRTUAIS_CLUSTER = Integer.getInteger("chat.cluster.vnos", 128); // Pontos de cada nó no anel de hash das salas
+    static final long ESPERA_CLUSTER_MS = Long.getLong("chat.cluster.espera", 3000); // Espera pelos outros nós na inicialização e pelo fechamento das salas transferidas
+    static final String SEGREDO_CLUSTER = System.getProperty("chat.cluster.segredo", ""); // Segredo comum aos nós, que assina a apresentação de cada ligação; obrigatório no modo cluster
+    static final int THREADS_CONSULTAS_CLUSTER = Integer.getInteger("chat.cluster.consultas", 4); // Threads que atendem /historico e /pesquisar pedidos por outros nós
+    private static final RegistroUsuarios registro = new RegistroUsuarios(); // Usuários conectados, por nome e por id
+    private static final Set<Handler> conexoes = ConcurrentHashMap.newKeySet(); // Todas as conexões abertas, inclusive as que ainda não informaram o nome
+    private static final CatalogoSalas catalogo = abrirCatalogo(); // Nomes de todas as salas já criadas
+    private static final Map<String, Sala> salas = new ConcurrentHashMap<>(); // Salas ativas, cada uma com seus membros e histórico
+    private static final Map<String, CompletableFuture<Void>> salasDescarregando = new ConcurrentHashMap<>(); // Salas que saíram do mapa por ociosidade e ainda fecham o histórico
+    private static final Map<String, InstantaneoSalas.Sala> estadosSalvos = new ConcurrentHashMap<>(); // Salas do instantâneo ainda não abertas
+    private static volatile Closeable aceitacao; // Fecha o socket que aceita conexões
+    private static volatile boolean desligando; // O servidor está desligando
+    private static final ControleFluxo controleFluxo = new ControleFluxo(LIMITES_CHAT, LIMITES_PESQUISA, LIMITES_ENTRADA); // Limites de vazão dos clientes
+    private static final ExecutorService executorSalas = Executors.newFixedThreadPool(THREADS_SALAS, tarefa -> {
+        Thread thread = new Thread(tarefa, "sala");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final ExecutorService executorFanout = Executors.newFixedThreadPool(THREADS_FANOUT, tarefa -> {
+        Thread thread = new Thread(tarefa, "fanout");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final ExecutorService executorConsultas = Executors.newFixedThreadPool(THREADS_CONSULTAS, tarefa -> {
+        Thread thread = new Thread(tarefa, "consulta");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final Cluster cluster = NO_CLUSTER.isEmpty() ? null
+            : new Cluster(NO_CLUSTER, NOS_CLUSTER, NOS_VIRTUAIS_CLUSTER, ESPERA_CLUSTER_MS, executorFanout, THREADS_FANOUT); // Nós que dividem as salas, ou null
 
     /**
-     * Inicializa as salas a partir do historico de salas
+     * Lê o catálogo de salas. Na primeira execução, ou se o arquivo for apagado,
+     * o catálogo é montado a partir do diretório de histórico.
      */
-    private static void inicializarSalasHistorico() {
-        //Pegar a lista de nomes dos arquivos de historicoSala
-        File historicoSalas = new File(HISTORICO_DIR);
-        File[] salasExistentes = historicoSalas.listFiles((hist, name) -> name.endsWith(".txt"));
-
-        // Se existir salas no historico
-        if(salasExistentes != null) {
-            // Pegar os nomes delas e adicionar no map de salasChat
-            for(File sala: salasExistentes){
-                String nome = sala.getName().replace(".txt", "");
-                salasChat.putIfAbsent(nome, ConcurrentHashMap.newKeySet());
-                System.out.println("Sala '" + nome + "' inicializada por meio do historico.");
-            }
-            System.err.println();
-        } else {
-            System.out.println("Nunhum historico de sala encontrado.\n");
+    private static CatalogoSalas abrirCatalogo() {
+        File diretorio = new File(HISTORICO_DIR);
+        try {
+            return new CatalogoSalas(diretorio, new File(diretorio, ARQUIVO_CATALOGO));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Erro ao ler o catálogo de salas", e);
         }
     }
 
@@ -45,400 +104,1063 @@ public class ServidorChat {
             diretorioHistorico.mkdirs(); // Cria o diretório e seus pais se necessário
         }
 
-        System.out.println("Servidor rodando na porta " + PORTA + "...");
+        Log.info("Servidor rodando na porta " + PORTA + "...");
+
+        // As salas do histórico ficam só no catálogo até o primeiro /join
+        Log.info(catalogo.tamanho() + " salas no catálogo.");
+        aquecerSalas();
+        iniciarDescarteSalasOciosas();
+        iniciarColetaConexoes();
+        controleFluxo.iniciarLimpeza();
+
+        // No modo cluster, conecta aos outros nós antes de aceitar clientes
+        if (cluster != null) {
+            if (SEGREDO_CLUSTER.isEmpty()) {
+                Log.erro("O modo cluster precisa de um segredo comum aos nós (-Dchat.cluster.segredo=...).");
+                Log.descarregar();
+                System.exit(1);
+            }
+            cluster.iniciar();
+        }
+
+        // Ao encerrar o processo, avisa os clientes, entrega as filas e grava o histórico e o instantâneo
+        Runtime.getRuntime().addShutdownHook(new Thread(ServidorChat::desligar, "desligamento"));
+
+        // Métricas: medidores, MBean no JMX e relatório periódico no log
+        registrarMedidores();
+        Estatisticas.registrar();
+        Metricas.iniciarRelatorioPeriodico(INTERVALO_ESTATISTICAS_S);
+
+        if (MOTOR.equalsIgnoreCase("nio")) {
+            // Um único Selector atende todas as conexões; os comandos rodam em um pool pequeno
+            MotorNio motor = new MotorNio(PORTA, THREADS_TRABALHO);
+            aceitacao = motor::pararDeAceitar;
+            motor.executar();
+        } else {
+            // Uma thread por conexão, sem limite fixo de clientes simultâneos
+            ExecutorService pool = criarExecutorConexoes();
+            try (ServerSocket listener = new ServerSocket(PORTA, BACKLOG_CONEXOES)) { // Cria um socket para escutar conexões na porta 5000
+                aceitacao = listener;
+                while (true) {
+                    pool.execute(new ConexaoSocket(listener.accept(), pool)); // Cria uma conexão para cada cliente recebido
+                }
+            } catch (SocketException e) {
+                if (!desligando) {
+                    throw e;
+                }
+                // O socket foi fechado pelo desligamento; as conexões abertas continuam sendo entregues
+            }
+        }
+    }
+
+    /**
+     * Registra os medidores de filas e pools exibidos no /stats e no JMX.
+     */
+    private static void registrarMedidores() {
+        Metricas.registrarMedidor("salas.ativas", salas::size);
+        Metricas.registrarMedidor("salas.catalogo", catalogo::tamanho);
+        Metricas.registrarMedidor("usuarios", () -> registro.usuarios().size());
+        Metricas.registrarMedidor("conexoes.abertas", conexoes::size);
+        Metricas.registrarPool("salas", executorSalas);
+        Metricas.registrarPool("fanout", executorFanout);
+        Metricas.registrarPool("consultas", executorConsultas);
+        controleFluxo.registrarMedidores();
+        Metricas.registrarMedidor("filas.saida.total", () -> {
+            long total = 0;
+            for (RegistroUsuarios.Usuario usuario : registro.usuarios()) {
+                total += usuario.conexao.tamanhoFilaSaida();
+            }
+            return total;
+        });
+        Metricas.registrarMedidor("historico.pendentes", () -> {
+            long total = 0;
+            for (Sala sala : salas.values()) {
+                total += sala.mensagensNaoGravadas();
+            }
+            return total;
+        });
+    }
+
+    /**
+     * Reserva a sala com o nome informado para um cliente que está entrando,
+     * ativando-a (e registrando-a no catálogo, se for nova) se ainda não estiver ativa.
+     * O histórico só é aberto quando a sala é usada.
+     * @param nome O nome da sala
+     */
+    static Sala reservarSala(String nome) {
+        catalogo.registrar(nome);
+        return salas.compute(nome, (n, sala) -> {
+            if (sala == null) {
+                sala = novaSala(n);
+            }
+            sala.reservar();
+            return sala;
+        });
+    }
+
+    /**
+     * Ativa a sala sem reservá-la, para um pedido de outro nó do cluster a uma sala deste nó.
+     */
+    static Sala ativarSala(String nome) {
+        return salas.computeIfAbsent(nome, ServidorChat::novaSala);
+    }
+
+    /**
+     * Cria uma sala ativa. Se a sala de mesmo nome acabou de ser descarregada, a nova fica
+     * suspensa até a antiga fechar o histórico, para que os arquivos não sejam abertos pelas duas.
+     * No modo cluster, ela também fica suspensa até o nó que era dono dela confirmar que a fechou.
+     */
+    private static Sala novaSala(String nome) {
+        Sala sala = new Sala(nome, executorSalas, executorFanout, THREADS_FANOUT, executorConsultas);
+        CompletableFuture<Void> descarregando = salasDescarregando.get(nome);
+        if (descarregando != null) {
+            sala.suspender();
+            descarregando.whenComplete((r, e) -> sala.retomar());
+        }
+        if (cluster != null) {
+            cluster.aguardarLiberacao(sala);
+        }
+        return sala;
+    }
+
+    /**
+     * Libera a reserva de um cliente que saiu da sala.
+     */
+    static void liberarSala(Sala sala) {
+        salas.computeIfPresent(sala.nome, (n, atual) -> {
+            atual.liberar();
+            return atual;
+        });
+    }
+
+    /**
+     * @return A sala ativa com o nome informado, ou null se ela não estiver ativa
+     */
+    static Sala sala(String nome) {
+        return salas.get(nome);
+    }
+
+    /**
+     * @return A sala em que o cliente está: a sala ativa neste nó ou, no modo cluster,
+     * a sala no nó dono dela
+     */
+    static SalaChat acessarSala(String nome) {
+        Sala sala = salas.get(nome);
+        if (sala != null) {
+            return sala;
+        }
+        if (cluster != null && !cluster.local(nome)) {
+            return cluster.salaRemota(nome);
+        }
+        return ativarSala(nome);
+    }
+
+    /**
+     * Coloca o usuário na sala, neste nó ou no nó dono dela.
+     * @param migracao Se o usuário já estava na sala, que mudou de nó
+     */
+    static void entrarNaSala(String nome, RegistroUsuarios.Usuario usuario, boolean migracao) {
+        if (cluster == null || cluster.local(nome)) {
+            reservarSala(nome).entrar(usuario, migracao);
+        } else {
+            cluster.salaRemota(nome).entrar(usuario, migracao);
+        }
+    }
+
+    /**
+     * Coloca de volta na sala, neste nó ou no nó dono dela, um usuário que reconectou.
+     * @param ultimaSequencia A última mensagem da sala que o cliente recebeu
+     */
+    static void retomarSala(String nome, RegistroUsuarios.Usuario usuario, long ultimaSequencia) {
+        if (cluster == null || cluster.local(nome)) {
+            reservarSala(nome).retomar(usuario, ultimaSequencia);
+        } else {
+            cluster.salaRemota(nome).retomar(usuario, ultimaSequencia);
+        }
+    }
+
+    /**
+     * Tira o usuário da sala, neste nó ou no nó dono dela, e libera a reserva dele.
+     * @param confirmar Se o usuário recebe a confirmação da saída
+     */
+    static void sairDaSala(String nome, RegistroUsuarios.Usuario usuario, boolean confirmar) {
+        Sala sala = salas.get(nome);
+        if (sala != null) {
+            sala.sair(usuario, confirmar);
+            liberarSala(sala);
+        } else if (cluster != null && !cluster.local(nome)) {
+            cluster.salaRemota(nome).sair(usuario, confirmar);
+        }
+    }
+
+    /**
+     * @return O cluster, ou null se o servidor roda sozinho
+     */
+    static Cluster cluster() {
+        return cluster;
+    }
+
+    /**
+     * @return O usuário conectado neste nó com o nome informado, ou null
+     */
+    static RegistroUsuarios.Usuario usuario(String nome) {
+        return registro.porNome(nome);
+    }
+
+    /**
+     * @return Os usuários conectados neste nó
+     */
+    static Collection<RegistroUsuarios.Usuario> usuarios() {
+        return registro.usuarios();
+    }
+
+    /**
+     * @return Uma página do catálogo deste nó, como em {@link CatalogoSalas#pagina(String, int)}
+     */
+    static List<String> nomesSalas(String desde, int quantidade) {
+        return catalogo.pagina(desde, quantidade);
+    }
+
+    /**
+     * Depois de uma mudança no anel do cluster, tira do mapa as salas ativas que passaram
+     * a ser de outro nó e as transfere para o novo dono.
+     * @return Uma transferência por sala, concluída quando o histórico dela estiver fechado
+     */
+    static List<CompletableFuture<Void>> transferirSalas(Cluster cluster) {
+        List<CompletableFuture<Void>> transferencias = new ArrayList<>();
+        for (String nome : salas.keySet()) {
+            String dono = cluster.dono(nome);
+            if (cluster.id.equals(dono)) {
+                continue;
+            }
+            Sala sala = salas.remove(nome);
+            if (sala != null) {
+                transferencias.add(sala.transferir(dono));
+            }
+        }
+        return transferencias;
+    }
+
+    /**
+     * Verifica periodicamente todas as conexões: envia PING às que estão em silêncio e derruba
+     * as que não respondem, liberando o nome e o lugar delas nas salas.
+     */
+    private static void iniciarColetaConexoes() {
+        if (INTERVALO_PING_S <= 0 && TIMEOUT_LEITURA_S <= 0 && OCIOSIDADE_CONEXAO_S <= 0) {
+            return;
+        }
+        ScheduledExecutorService agendador = Executors.newSingleThreadScheduledExecutor(tarefa -> {
+            Thread thread = new Thread(tarefa, "coleta-conexoes");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Com o PING ativo, verifica a cada meio intervalo, para que ele saia bem antes do timeout de leitura
+        long intervalo = Math.max(1, (INTERVALO_PING_S > 0 ? INTERVALO_PING_S
+                : TIMEOUT_LEITURA_S > 0 ? TIMEOUT_LEITURA_S : OCIOSIDADE_CONEXAO_S) / 2);
+        agendador.scheduleWithFixedDelay(() -> {
+            long agora = System.nanoTime();
+            for (Handler handler : conexoes) {
+                handler.verificarAtividade(agora);
+            }
+        }, intervalo, intervalo, TimeUnit.SECONDS);
+    }
 
-        //Inicializar as salas do historico se houver
-        inicializarSalasHistorico();
+    /**
+     * Verifica periodicamente as salas ativas e descarrega as que ficaram OCIOSIDADE_SALA_S
+     * segundos sem ninguém, liberando o histórico e os buffers delas.
+     */
+    private static void iniciarDescarteSalasOciosas() {
+        if (OCIOSIDADE_SALA_S <= 0) {
+            return;
+        }
+        long ociosidadeNanos = TimeUnit.SECONDS.toNanos(OCIOSIDADE_SALA_S);
+        ScheduledExecutorService agendador = Executors.newSingleThreadScheduledExecutor(tarefa -> {
+            Thread thread = new Thread(tarefa, "salas-ociosas");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long intervalo = Math.max(1, OCIOSIDADE_SALA_S / 2);
+        agendador.scheduleWithFixedDelay(() -> {
+            for (String nome : salas.keySet()) {
+                // Registrada dentro do mapa, antes que outra sala com o nome possa ser criada
+                salas.computeIfPresent(nome, (n, sala) -> {
+                    if (!sala.ociosa(ociosidadeNanos)) {
+                        return sala;
+                    }
+                    CompletableFuture<Void> fechada = sala.descarregar();
+                    salasDescarregando.put(n, fechada);
+                    fechada.whenComplete((r, e) -> salasDescarregando.remove(n, fechada));
+                    return null;
+                });
+            }
+        }, intervalo, intervalo, TimeUnit.SECONDS);
+    }
 
-        // Cria o pool de threads para gerenciar até 100 conexões simultâneas
-        ExecutorService pool = Executors.newFixedThreadPool(MAX_THREADS);
-        try (ServerSocket listener = new ServerSocket(PORTA)) { // Cria um socket para escutar conexões na porta 5000
-            while (true) {
-                pool.execute(new Handler(listener.accept())); // Cria um Handler para cada conexão recebida
+    /**
+     * Grava o histórico pendente e fecha os arquivos de todas as salas.
+     */
+    private static void fecharHistoricos() {
+        for (Sala sala : salas.values()) {
+            sala.fechar();
+        }
+    }
+
+    /**
+     * Lê o instantâneo gravado no último desligamento. Sem cluster, as salas dele são ativadas
+     * e têm o histórico aberto em segundo plano, com as mensagens recentes vindas do instantâneo,
+     * para que os clientes que reconectarem encontrem as salas prontas. No modo cluster, os nós
+     * ainda vão dividir as salas, então o instantâneo só é usado quando a sala for aberta aqui.
+     */
+    private static void aquecerSalas() {
+        estadosSalvos.putAll(InstantaneoSalas.ler(arquivoInstantaneo()));
+        if (estadosSalvos.isEmpty()) {
+            return;
+        }
+        Log.info(estadosSalvos.size() + " salas no instantâneo do último desligamento.");
+        if (cluster == null) {
+            // Pool próprio e pequeno: abrir os históricos lê o disco e não pode tomar as threads das salas
+            ExecutorService aquecimento = Executors.newFixedThreadPool(THREADS_AQUECIMENTO, tarefa -> {
+                Thread thread = new Thread(tarefa, "aquecimento");
+                thread.setDaemon(true);
+                return thread;
+            });
+            for (String nome : estadosSalvos.keySet()) {
+                aquecimento.execute(() -> ativarSala(nome).historico());
             }
+            aquecimento.shutdown(); // As threads terminam com a última sala
+        }
+    }
+
+    /**
+     * @return O estado da sala no instantâneo do último desligamento, ou null; cada estado é
+     * entregue uma vez, a quem abrir o histórico da sala
+     */
+    static InstantaneoSalas.Sala estadoSalvo(String nome) {
+        return estadosSalvos.isEmpty() ? null : estadosSalvos.remove(nome);
+    }
+
+    /**
+     * Os nós de um cluster dividem o diretório de histórico, então cada um tem o seu instantâneo.
+     */
+    private static File arquivoInstantaneo() {
+        String nome = cluster == null ? ARQUIVO_INSTANTANEO : NO_CLUSTER.replace(':', '-') + "." + ARQUIVO_INSTANTANEO;
+        return new File(HISTORICO_DIR, nome);
+    }
+
+    /**
+     * Desliga o servidor em ordem, no gancho de encerramento do processo (Ctrl+C ou kill):
+     * para de aceitar conexões, avisa os clientes e fecha as conexões depois de entregar as filas
+     * de saída, espera as salas processarem as caixas de mensagens, grava o instantâneo das salas
+     * ativas e o histórico pendente. As esperas somam no máximo {@link #PRAZO_DESLIGAMENTO_MS};
+     * o que não terminar até lá é derrubado.
+     */
+    private static void desligar() {
+        desligando = true;
+        long prazo = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(PRAZO_DESLIGAMENTO_MS);
+        try {
+            Closeable atual = aceitacao;
+            if (atual != null) {
+                atual.close();
+            }
+        } catch (IOException e) {
+            Log.erro("Erro ao fechar o socket de aceitação: " + e);
+        }
+
+        Log.info("Desligando o servidor: " + conexoes.size() + " conexões e " + salas.size() + " salas ativas.");
+        for (Handler handler : conexoes) {
+            handler.avisarDesligamento();
+        }
+        while (!conexoes.isEmpty() && System.nanoTime() < prazo) {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+        for (Handler handler : conexoes) {
+            handler.out.derrubar(); // Não consumiram a saída a tempo
+        }
+
+        Map<Sala, CompletableFuture<InstantaneoSalas.Sala>> estados = new LinkedHashMap<>();
+        for (Sala sala : salas.values()) {
+            estados.put(sala, sala.instantaneo());
+        }
+        List<InstantaneoSalas.Sala> instantaneo = new ArrayList<>();
+        for (Map.Entry<Sala, CompletableFuture<InstantaneoSalas.Sala>> estado : estados.entrySet()) {
+            try {
+                InstantaneoSalas.Sala salva = estado.getValue().get(Math.max(0, prazo - System.nanoTime()), TimeUnit.NANOSECONDS);
+                if (salva != null) {
+                    instantaneo.add(salva);
+                }
+            } catch (TimeoutException | ExecutionException e) {
+                Log.aviso("Sala " + estado.getKey().nome + " não processou a caixa a tempo e ficou fora do instantâneo.");
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+        if (!instantaneo.isEmpty()) {
+            try {
+                InstantaneoSalas.gravar(arquivoInstantaneo(), instantaneo);
+            } catch (IOException e) {
+                Log.erro("Erro ao gravar o instantâneo das salas: " + e);
+            }
+        }
+
+        fecharHistoricos();
+        Log.info("Servidor desligado; " + instantaneo.size() + " salas no instantâneo.");
+        Log.descarregar();
+    }
+
+    /**
+     * Cria a fila de saída de uma nova conexão com a capacidade e a política configuradas.
+     */
+    static FilaSaida novaFilaSaida() {
+        return new FilaSaida(CAPACIDADE_FILA_SAIDA, POLITICA_FILA_SAIDA, TIMEOUT_FILA_SAIDA_MS);
+    }
+
+    /**
+     * Cria o executor do motor de threads.
+     * Usa threads virtuais quando a JVM oferece (Java 21+), pois conexões ociosas ficam praticamente sem custo;
+     * caso contrário, usa uma thread de plataforma por conexão.
+     */
+    private static ExecutorService criarExecutorConexoes() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            Log.aviso("Threads virtuais indisponíveis nesta JVM; usando uma thread de plataforma por conexão.");
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * A fila de saída de um usuário lida para o /filas.
+     */
+    private static final class FilaUsuario {
+        final String nome;
+        final int pendentes;
+        final long descartadas;
+
+        FilaUsuario(String nome, int pendentes, long descartadas) {
+            this.nome = nome;
+            this.pendentes = pendentes;
+            this.descartadas = descartadas;
         }
     }
 
     /**
      * Classe interna para gerenciar a comunicação com os clientes.
+     * Independe do motor de conexões: recebe as linhas já lidas e responde pela {@link Conexao}.
      */
-    private static class Handler implements Runnable {
-        private Socket socket; // Socket do cliente
-        private PrintWriter out; // Envia mensagens ao cliente
-        private BufferedReader in; // Lê mensagens do cliente
-        private String sala = ""; // Sala atual do cliente
-        private String nomeCliente; // Nome do cliente
-        private File historicoDaSala; // Arquivo para armazenar o histórico de mensagens da sala
+    static class Handler {
 
-        public Handler(Socket socket) {
-            this.socket = socket;
+        /**
+         * Um comando do protocolo de texto.
+         */
+        private interface ComandoTexto {
+            /**
+             * @param argumento O resto da linha depois do comando, sem espaços nas pontas
+             */
+            void executar(Handler handler, String argumento);
         }
 
         /**
-         * Gerencia a comunicação com o cliente, processando comandos e mensagens.
+         * Um comando do protocolo binário.
          */
-        public void run() {
-            try {
-                out = new PrintWriter(socket.getOutputStream(), true);
-                in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-
-                // Solicita o nome do cliente
-                out.println("Bem vindo! Informe seu nome:");
-                nomeCliente = in.readLine();
-                System.out.println("Usuário " + nomeCliente + " conectado no servidor.");
-                out.println("Bem vindo, " + nomeCliente + "! Use /join <nome_sala> para entrar em uma sala. (Use /help para ver comandos)");
-
-                // Adiciona o cliente ao mapa de usuários
-                synchronized (usuarios) {
-                    usuarios.put(out, nomeCliente);
+        private interface ComandoBinario {
+            /**
+             * @param campos Os campos do quadro, logo depois do opcode
+             */
+            void executar(Handler handler, ByteBuffer campos);
+        }
+
+        private static final Map<String, ComandoTexto> COMANDOS_TEXTO = new HashMap<>(); // Primeira palavra, em minúsculas -> comando
+        private static final ComandoBinario[] COMANDOS_BINARIOS = new ComandoBinario[128]; // Opcode -> comando
+        private static final Pattern NOMES_RESERVADOS = Pattern.compile("(?i)con|prn|aux|nul|com[0-9]|lpt[0-9]"); // Nomes de arquivo reservados no Windows
+
+        static {
+            COMANDOS_TEXTO.put("/join", (handler, argumento) -> handler.entrarEmSala(argumento, -1));
+            COMANDOS_TEXTO.put("/retomar", Handler::retomar);
+            COMANDOS_TEXTO.put("/sair", (handler, argumento) -> handler.sairDaSala());
+            COMANDOS_TEXTO.put("/help", (handler, argumento) -> handler.mostrarComandos());
+            COMANDOS_TEXTO.put("/desconectar", (handler, argumento) -> handler.desconectarCliente());
+            COMANDOS_TEXTO.put("/salas", Handler::listarSalas);
+            COMANDOS_TEXTO.put("/historico", (handler, argumento) -> handler.exibirPaginaHistorico(numeroPagina(argumento)));
+            COMANDOS_TEXTO.put("/pesquisar", Handler::pesquisarMensagem);
+            COMANDOS_TEXTO.put("/usuarios", (handler, argumento) -> handler.listarUsuariosOnline());
+            COMANDOS_TEXTO.put("/filas", (handler, argumento) -> handler.listarFilasSaida());
+            COMANDOS_TEXTO.put("/stats", (handler, argumento) -> handler.mostrarEstatisticas());
+
+            COMANDOS_BINARIOS[Protocolo.NOME] = (handler, campos) -> handler.registrarCliente(Protocolo.lerTexto(campos));
+            COMANDOS_BINARIOS[Protocolo.ENTRAR] = (handler, campos) -> handler.entrarEmSala(Protocolo.lerTexto(campos).trim(), -1);
+            COMANDOS_BINARIOS[Protocolo.RETOMAR] = (handler, campos) -> handler.entrarEmSala(Protocolo.lerTexto(campos).trim(), Protocolo.lerNumero(campos));
+            COMANDOS_BINARIOS[Protocolo.SAIR] = (handler, campos) -> handler.sairDaSala();
+            COMANDOS_BINARIOS[Protocolo.MENSAGEM] = (handler, campos) -> { // Antes do nome, o texto é o nome, como no protocolo de texto
+                String texto = Protocolo.lerTexto(campos);
+                if (handler.nomeCliente == null) {
+                    handler.registrarCliente(texto);
+                } else {
+                    handler.enviarMensagem(texto);
                 }
+            };
+            COMANDOS_BINARIOS[Protocolo.PRIVADA] = (handler, campos) ->
+                    handler.enviarMensagemPrivada(Protocolo.lerTexto(campos), Protocolo.lerTexto(campos));
+            COMANDOS_BINARIOS[Protocolo.HISTORICO] = (handler, campos) ->
+                    handler.exibirPaginaHistorico((int) Math.min(Integer.MAX_VALUE, Protocolo.lerNumero(campos)));
+            COMANDOS_BINARIOS[Protocolo.PESQUISAR] = (handler, campos) -> handler.pesquisarMensagem(Protocolo.lerTexto(campos).trim());
+            COMANDOS_BINARIOS[Protocolo.SALAS] = (handler, campos) -> // Clientes antigos não enviam a primeira sala
+                    handler.listarSalas(campos.hasRemaining() ? Protocolo.lerTexto(campos).trim() : "");
+            COMANDOS_BINARIOS[Protocolo.USUARIOS] = (handler, campos) -> handler.listarUsuariosOnline();
+            COMANDOS_BINARIOS[Protocolo.FILAS] = (handler, campos) -> handler.listarFilasSaida();
+            COMANDOS_BINARIOS[Protocolo.ESTATISTICAS] = (handler, campos) -> handler.mostrarEstatisticas();
+            COMANDOS_BINARIOS[Protocolo.AJUDA] = (handler, campos) -> handler.mostrarComandos();
+            COMANDOS_BINARIOS[Protocolo.DESCONECTAR] = (handler, campos) -> handler.desconectarCliente();
+        }
+
+        private final Conexao out; // Envia mensagens ao cliente
+        private final ControleFluxo.Cota cota = controleFluxo.novaConexao(); // Limites de vazão desta conexão
+        private long ultimoAvisoLimite; // Quando o cliente foi avisado de um limite pela última vez (nanoTime)
+        private volatile long ultimaLeitura = System.nanoTime(); // Quando chegaram bytes do cliente pela última vez, inclusive PONG
+        private volatile long ultimoComando = ultimaLeitura; // Quando o cliente enviou um comando ou mensagem pela última vez
+        private long ultimoPing = ultimaLeitura; // Quando a coleta enviou o último PING; usado só pela thread da coleta
+        private volatile boolean conheceSinais; // O cliente de texto já enviou /ping ou /pong, então responde aos PINGs
+        private boolean expirada; // A coleta já mandou fechar a conexão; usado só pela thread da coleta
+        private String sala; // Nome da sala atual do cliente, ou null; a sala pode estar em outro nó do cluster
+        private String nomeCliente; // Nome do cliente
+        private RegistroUsuarios.Usuario usuario; // Registro do cliente, criado quando o nome é aceito
+
+        Handler(Conexao out) {
+            this.out = out;
+        }
+
+        /**
+         * Inicia o atendimento, solicitando o nome do cliente.
+         */
+        void iniciar() {
+            Metricas.CONEXOES_ABERTAS.increment();
+            Metricas.CONEXOES_ATIVAS.increment();
+            conexoes.add(this);
+            out.enviar("Bem vindo! Informe seu nome:");
+        }
+
+        /**
+         * Processa uma linha recebida de um cliente do protocolo de texto: a primeira é o nome,
+         * as demais são comandos, mensagens privadas (@nome) ou mensagens para a sala.
+         * Os comandos são procurados pela primeira palavra na tabela {@link #COMANDOS_TEXTO}.
+         * @param mensagem A linha recebida, sem a quebra de linha
+         */
+        void processarLinha(String mensagem) {
+            if (mensagem.equals(Protocolo.PING_TEXTO)) {
+                conheceSinais = true;
+                out.enviarSinal(Protocolo.PONG);
+                return;
+            } else if (mensagem.equals(Protocolo.PONG_TEXTO)) {
+                conheceSinais = true;
+                return;
+            }
+            Metricas.MENSAGENS_RECEBIDAS.increment();
+            ultimoComando = System.nanoTime();
+            if (nomeCliente == null) {
+                registrarCliente(mensagem);
+                return;
+            }
+            char inicio = mensagem.isEmpty() ? ' ' : mensagem.charAt(0);
+            if (inicio == '@') {
+                enviarMensagemPrivada(mensagem);
+                return;
+            }
+            ComandoTexto comando = null;
+            int espaco = -1;
+            if (inicio == '/') {
+                espaco = mensagem.indexOf(' ');
+                comando = COMANDOS_TEXTO.get((espaco < 0 ? mensagem : mensagem.substring(0, espaco)).toLowerCase(Locale.ROOT));
+            }
+            if (comando == null) {
+                enviarMensagem(mensagem); // Inclui as linhas que começam com / mas não são comandos
+            } else {
+                comando.executar(this, espaco < 0 ? "" : mensagem.substring(espaco + 1).trim());
+            }
+        }
 
-                String mensagem;
-                while ((mensagem = in.readLine()) != null) {
-                    if (mensagem.startsWith("/join ")) {
-                        entrarEmSala(mensagem.substring(6).trim());
-                    } else if (mensagem.startsWith("/sair")) {
-                        sairDaSala();
-                    } else if (mensagem.startsWith("/help")) {
-                        mostrarComandos();
-                    } else if (mensagem.equalsIgnoreCase("/desconectar")) {
-                        desconectarCliente();
-                    } else if (mensagem.equalsIgnoreCase("/salas")) {
-                        listarSalas();
-                    } else if (mensagem.startsWith("@")) {
-                        enviarMensagemPrivada(mensagem);
-                    } else if (mensagem.startsWith("/pesquisar ")) {
-                        pesquisarMensagem(mensagem.substring(11).trim());
-                    } else if (mensagem.equalsIgnoreCase("/usuarios")) {
-                        listarUsuariosOnline();
-                    } else {
-                        enviarMensagem(mensagem);
+        /**
+         * Processa um quadro recebido de um cliente do protocolo binário, pelo opcode,
+         * na tabela {@link #COMANDOS_BINARIOS}. Um quadro LOTE tem os seus quadros processados em ordem.
+         * Um LOTE dentro de outro não é aceito, e a conexão é encerrada: sem isso, um cliente poderia
+         * aninhar lotes até estourar a pilha da thread que o atende.
+         * @param quadro O opcode e os campos do quadro
+         */
+        void processarQuadro(ByteBuffer quadro) {
+            try {
+                byte opcode = quadro.get();
+                if (opcode == Protocolo.LOTE) {
+                    ByteBuffer item;
+                    while ((item = Protocolo.proximoQuadro(quadro)) != null) {
+                        if (item.get(item.position()) == Protocolo.LOTE) {
+                            out.enviar(Protocolo.Tipo.ERRO, "Quadro inválido: LOTE dentro de outro LOTE.");
+                            out.fechar();
+                            return;
+                        }
+                        processarQuadro(item);
                     }
+                    return;
                 }
-            } catch (IOException e) {
-                System.out.println("Usuário " + nomeCliente + " desconectado do servidor.");
-            } finally {
-
-                // Remover o usuário ao desconectar
-                synchronized (usuarios) {
-                    usuarios.remove(out);
+                if (opcode == Protocolo.PING) {
+                    out.enviarSinal(Protocolo.PONG);
+                    return;
+                } else if (opcode == Protocolo.PONG) {
+                    return;
                 }
-
-                if (!sala.isEmpty()) { sairDaSala(); } // Remove da sala, caso ainda esteja em uma
-                try {
-                    if (!socket.isClosed()) {socket.close();}
-                } catch (IOException e) {
-                    System.out.println("ERRO AO FECHAR O SOCKET: " + e.getMessage());
+                Metricas.MENSAGENS_RECEBIDAS.increment();
+                ultimoComando = System.nanoTime();
+                ComandoBinario comando = opcode >= 0 ? COMANDOS_BINARIOS[opcode] : null;
+                if (comando == null) {
+                    out.enviar(Protocolo.Tipo.ERRO, "Opcode desconhecido: " + opcode + ".");
+                } else if (nomeCliente == null && opcode != Protocolo.NOME && opcode != Protocolo.MENSAGEM) {
+                    out.enviar(Protocolo.Tipo.ERRO, "Informe seu nome antes de usar os comandos.");
+                } else {
+                    comando.executar(this, quadro);
                 }
+            } catch (IllegalArgumentException | BufferUnderflowException e) {
+                out.enviar(Protocolo.Tipo.ERRO, "Quadro inválido: " + e.getMessage());
             }
         }
 
         /**
-         * Permite ao cliente entrar em uma sala de chat.
-         * Se a sala não existir, é criada uma nova.
-         * @param nomeSala O nome da sala em que o cliente deseja entrar
+         * Libera os recursos do cliente quando a conexão termina.
          */
-        private synchronized void entrarEmSala(String nomeSala) {
-            if (!sala.isEmpty()) {
-                sairDaSala();
+        void encerrar() {
+            Metricas.CONEXOES_ATIVAS.decrement();
+            conexoes.remove(this);
+            // Remove da sala, caso ainda esteja em uma; ao desligar, evita um aviso de saída para cada membro
+            if (sala != null && !desligando) { sairDaSala(false); }
+
+            // Remover o usuário ao desconectar
+            if (usuario != null) {
+                registro.remover(usuario);
+                if (cluster != null) { cluster.liberarNome(nomeCliente); }
             }
+        }
 
-            sala = nomeSala;
-            salasChat.putIfAbsent(nomeSala, ConcurrentHashMap.newKeySet());
-            salasChat.get(nomeSala).add(out);
+        /**
+         * Avisa o cliente de que o servidor está desligando e fecha a conexão depois de entregar
+         * o que está na fila de saída. O ClienteChat reconecta e volta à sala quando o servidor voltar.
+         */
+        void avisarDesligamento() {
+            out.enviar(Protocolo.Tipo.SISTEMA, "O servidor está sendo desligado. A conexão será retomada quando ele voltar.");
+            out.fechar();
+        }
 
-            // Define o arquivo para armazenar as mensagens da sala
-            historicoDaSala = new File(HISTORICO_DIR, sala + ".txt");
+        /**
+         * Registra que chegaram bytes do cliente. Chamado pelo motor de conexões a cada leitura.
+         */
+        void registrarLeitura() {
+            ultimaLeitura = System.nanoTime();
+        }
 
-            if (!historicoDaSala.exists()) {
-                try {
-                    historicoDaSala.createNewFile(); // Cria o arquivo se não existir
-                } catch (IOException e){
-                    e.printStackTrace();
+        /**
+         * Chamado periodicamente pela coleta de conexões. Derruba a conexão que ficou
+         * {@link #TIMEOUT_LEITURA_S} sem enviar nada, nem responder aos PINGs, e fecha a que ficou
+         * {@link #OCIOSIDADE_CONEXAO_S} sem comandos; às que estão em silêncio há
+         * {@link #INTERVALO_PING_S}, envia um PING. A limpeza é a de sempre, no {@link #encerrar()}.
+         * O PING e o timeout de leitura só valem para quem conhece os sinais: conexões binárias e
+         * clientes de texto que já enviaram /ping ou /pong. Um nc, por exemplo, não receberia linhas
+         * /ping nem seria derrubado por não respondê-las.
+         * @param agora O instante da verificação (nanoTime)
+         */
+        void verificarAtividade(long agora) {
+            boolean sinais = conheceSinais || out.binaria();
+            if (sinais && TIMEOUT_LEITURA_S > 0 && agora - ultimaLeitura > TimeUnit.SECONDS.toNanos(TIMEOUT_LEITURA_S)) {
+                // Pode ser uma conexão meio aberta: a saída talvez nunca esvazie, então não espera por ela
+                if (!expirada) {
+                    Log.info("Usuário " + nomeCliente + " não responde há " + TIMEOUT_LEITURA_S + " s e foi desconectado.");
+                    Metricas.CONEXOES_EXPIRADAS.increment();
                 }
+                expirada = true;
+                out.derrubar();
+            } else if (expirada) {
+                return; // Já está fechando
+            } else if (OCIOSIDADE_CONEXAO_S > 0 && agora - ultimoComando > TimeUnit.SECONDS.toNanos(OCIOSIDADE_CONEXAO_S)) {
+                expirada = true;
+                Log.info("Usuário " + nomeCliente + " desconectado por inatividade.");
+                Metricas.CONEXOES_OCIOSAS.increment();
+                out.enviar(Protocolo.Tipo.SISTEMA, "Conexão encerrada após " + OCIOSIDADE_CONEXAO_S + " s sem atividade.");
+                out.enviar(Protocolo.Tipo.SISTEMA, "Desconectando do servidor...");
+                out.fechar();
+            } else if (sinais && INTERVALO_PING_S > 0 && agora - ultimaLeitura >= TimeUnit.SECONDS.toNanos(INTERVALO_PING_S)
+                    && agora - ultimoPing >= TimeUnit.SECONDS.toNanos(INTERVALO_PING_S)) {
+                ultimoPing = agora;
+                out.enviarSinal(Protocolo.PING);
             }
+        }
 
-            // Mensagem para o cliente que está entrando
-            out.println("Você entrou na " + nomeSala);
+        /**
+         * @return O nome informado pelo cliente, ou null se ainda não foi informado
+         */
+        String getNomeCliente() {
+            return nomeCliente;
+        }
 
-            // Carregar e exibir o histórico de mensagens para o cliente que entrou na sala
-            carregarHistorico();
+        /**
+         * Registra o nome do cliente no diretório de usuários.
+         * Os nomes são únicos: se já estiver em uso, o cliente deve informar outro.
+         * O nome é informado uma vez só; um NOME depois disso é recusado.
+         * @param nome O nome informado pelo cliente
+         */
+        private void registrarCliente(String nome) {
+            if (nomeCliente != null) {
+                out.enviar(Protocolo.Tipo.ERRO, "Você já informou seu nome.");
+                return;
+            }
+            nome = nome.trim();
+            if (nome.isEmpty() || nome.length() > TAMANHO_MAXIMO_NOME || nome.contains(" ") || nome.startsWith("/") || nome.startsWith("@")
+                    || Protocolo.temControle(nome)) {
+                out.enviar(Protocolo.Tipo.ERRO, "Nome inválido. Informe um nome sem espaços, com até " + TAMANHO_MAXIMO_NOME + " caracteres:");
+                return;
+            }
+            usuario = registro.registrar(nome, out);
+            if (usuario != null && cluster != null && !cluster.reservarNome(nome)) {
+                registro.remover(usuario); // Em uso em outro nó
+                usuario = null;
+            }
+            if (usuario == null) {
+                out.enviar(Protocolo.Tipo.ERRO, "O nome " + nome + " já está em uso. Informe outro nome:");
+                return;
+            }
 
-            // Envia mensagem de entrada para todos na sala, exceto o cliente que acabou de entrar
-            enviarMensagemParaOutros("Usuário " + nomeCliente + " entrou na sala.");
-            System.out.println("Usuário " + nomeCliente + " entrou na " + nomeSala + ".");
+            nomeCliente = nome;
+            Log.info("Usuário " + nomeCliente + " conectado no servidor.");
+            out.enviar("Bem vindo, " + nomeCliente + "! Use /join <nome_sala> para entrar em uma sala. (Use /help para ver comandos)");
         }
 
         /**
-         * Permite ao cliente sair da sala atual.
-         * Remove o cliente da lista de membros da sala e exclui a sala se estiver vazia.
+         * Permite ao cliente entrar em uma sala de chat.
+         * Se a sala não existir, é criada uma nova. A entrada é processada pela própria sala,
+         * na mesma ordem das mensagens, e o cliente recebe o histórico recente.
+         * No modo cluster, a sala fica no nó dono dela, que pode ser outro.
+         * @param nomeSala O nome da sala em que o cliente deseja entrar
+         * @param ultimaSequencia A última mensagem da sala vista pelo cliente antes de reconectar,
+         * para receber só as seguintes, ou -1 para receber as recentes
          */
-        private synchronized void sairDaSala() {
-            if (!sala.isEmpty()) {
-                enviarMensagemParaOutros("Usuário " + nomeCliente + " saiu da sala.");
-                out.println("Você saiu da " + sala + ".");
-                System.out.println("Usuário " + nomeCliente + " saiu da " + sala + ".");
-
-                Set<PrintWriter> membrosSala = salasChat.get(sala);
-                if (membrosSala != null) {
-                    membrosSala.remove(out);
-                    if (membrosSala.isEmpty()) {
-                        salasChat.remove(sala); // Remove a sala se estiver vazia
-                    }
-                }
-                sala = "";
+        private void entrarEmSala(String nomeSala, long ultimaSequencia) {
+            if (nomeSala.isEmpty()) {
+                out.enviar("Informe o nome da sala. Use /join <nome_sala>.");
+                return;
+            }
+            if (!nomeSalaValido(nomeSala)) {
+                out.enviar(Protocolo.Tipo.ERRO, "Nome de sala inválido. Use até " + TAMANHO_MAXIMO_NOME_SALA
+                        + " letras, dígitos, - ou _.");
+                return;
+            }
+            // Ao retomar depois de uma reconexão, só os limites da conexão e do usuário valem
+            if (!dentroDoLimite(ControleFluxo.Tipo.ENTRADA, ultimaSequencia < 0 ? nomeSala : null)) {
+                return;
+            }
+            if (sala != null) {
+                sairDaSala();
+            }
+
+            sala = nomeSala;
+            usuario.sala = nomeSala;
+            if (ultimaSequencia < 0) {
+                entrarNaSala(nomeSala, usuario, false);
             } else {
-                out.println("Você não está em nenhuma sala para poder sair.");
+                ServidorChat.retomarSala(nomeSala, usuario, ultimaSequencia);
             }
         }
 
         /**
-         * Envia uma mensagem para todos os membros da sala, exceto o remetente.
-         * @param mensagem A mensagem a ser enviada
+         * O nome da sala vira o nome do diretório do histórico dela, então só são aceitos letras,
+         * dígitos, - e _. Sem o ponto e as barras, não há como chegar a "..", a outro diretório
+         * nem aos arquivos do servidor (catalogo.salas, *.instantaneo, *.tmp). Os nomes
+         * reservados do Windows (CON, NUL, COM1...) também são recusados.
          */
-        private synchronized void enviarMensagem(String mensagem) {
-            if (!sala.isEmpty()) {
-                Set<PrintWriter> membrosSala = salasChat.get(sala);
-                DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm");
-                String dataHora = LocalDateTime.now().format(formatter);
-                
-                if (membrosSala != null) {
-                    for (PrintWriter writer : membrosSala) {
-                        if (writer != out) {
-                            writer.println("[" + dataHora + "] " + nomeCliente + ": " + mensagem);
-                        }
-                    }
+        static boolean nomeSalaValido(String nomeSala) {
+            if (nomeSala.isEmpty() || nomeSala.length() > TAMANHO_MAXIMO_NOME_SALA
+                    || NOMES_RESERVADOS.matcher(nomeSala).matches()) {
+                return false;
+            }
+            for (int i = 0; i < nomeSala.length(); i++) {
+                char c = nomeSala.charAt(i);
+                if (!Character.isLetterOrDigit(c) && c != '-' && c != '_') {
+                    return false;
                 }
-                salvarMensagem("[" + dataHora + "] " + nomeCliente + ": " + mensagem);
+            }
+            return true;
+        }
+
+        /**
+         * Volta à sala depois de uma reconexão: /retomar <última_sequência> <nome_sala>.
+         */
+        private void retomar(String argumento) {
+            int espaco = argumento.indexOf(' ');
+            try {
+                entrarEmSala(argumento.substring(espaco + 1).trim(), Long.parseLong(argumento.substring(0, Math.max(espaco, 0))));
+            } catch (NumberFormatException e) {
+                out.enviar(Protocolo.Tipo.ERRO, "Use /retomar <ultima_sequencia> <nome_sala>.");
+            }
+        }
+
+        /**
+         * Permite ao cliente sair da sala atual.
+         */
+        private void sairDaSala() {
+            if (sala != null) {
+                sairDaSala(true);
             } else {
-                out.println("Você não está em uma sala. Use /join <nome_sala> para entrar em uma.");
+                out.enviar("Você não está em nenhuma sala para poder sair.");
             }
         }
 
+        /**
+         * @param confirmar Se a sala envia ao cliente o "Você saiu", na ordem das mensagens dela
+         */
+        private void sairDaSala(boolean confirmar) {
+            ServidorChat.sairDaSala(sala, usuario, confirmar);
+            sala = null;
+            usuario.sala = "";
+        }
+
         /**
          * Envia uma mensagem para todos os membros da sala, exceto o remetente.
-         * @param mensagem A mensagem a ser enviada para os outros usuários
+         * @param mensagem A mensagem a ser enviada
          */
-        private synchronized void enviarMensagemParaOutros(String mensagem) {
-            if (!sala.isEmpty()) {
-                Set<PrintWriter> membrosSala = salasChat.get(sala);
-                DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm");
-                String dataHora = LocalDateTime.now().format(formatter);
-                
-                if (membrosSala != null) {
-                    for (PrintWriter writer : membrosSala) {
-                        if (writer != out) { writer.println(mensagem); }
-                    }
+        private void enviarMensagem(String mensagem) {
+            mensagem = Protocolo.semControle(mensagem);
+            if (sala != null) {
+                if (dentroDoLimite(ControleFluxo.Tipo.CHAT, sala)) {
+                    acessarSala(sala).publicar(usuario, mensagem);
                 }
-                salvarMensagem("[" + dataHora + "] " + mensagem);
+            } else {
+                out.enviar("Você não está em uma sala. Use /join <nome_sala> para entrar em uma.");
             }
         }
 
         /**
-         * Salva a mensagem no arquivo de log da sala.
-         * @param mensagem A mensagem a ser salva no arquivo
+         * Gasta uma ficha dos limites de vazão. Se algum limite foi atingido, o comando deve ser
+         * descartado, e o cliente é avisado, no máximo uma vez a cada {@link #INTERVALO_AVISO_LIMITE_MS}.
+         * @param sala A sala afetada pelo comando, ou null para não contar no limite da sala
+         * @return true se o comando pode seguir
          */
-        private synchronized void salvarMensagem(String mensagem) {
-            try (PrintWriter logWriter = new PrintWriter(new FileWriter(historicoDaSala, true))) {
-                logWriter.println(mensagem);
-            } catch (IOException e) {
-                e.printStackTrace();
+        private boolean dentroDoLimite(ControleFluxo.Tipo tipo, String sala) {
+            ControleFluxo.Escopo escopo = controleFluxo.permitir(tipo, cota, nomeCliente, sala);
+            if (escopo == null) {
+                return true;
+            }
+            long agora = System.nanoTime();
+            if (agora - ultimoAvisoLimite >= TimeUnit.MILLISECONDS.toNanos(INTERVALO_AVISO_LIMITE_MS)) {
+                ultimoAvisoLimite = agora;
+                out.enviar(Protocolo.Tipo.ERRO, "Limite de " + tipo.descricao + " por " + escopo.descricao
+                        + " atingido. O comando foi descartado; aguarde um pouco antes de tentar de novo.");
             }
+            return false;
         }
 
         /**
-         * Carrega e exibe o histórico de mensagens da sala para o usuário que acabou de entrar.
+         * Exibe uma página do histórico da sala, contando a partir da mensagem mais recente.
+         * @param pagina O número da página, ou 0 se o cliente informou um número inválido
          */
-        private synchronized void carregarHistorico() {
-            if (historicoDaSala.exists() && historicoDaSala.length() > 0) {
-                try (BufferedReader br = new BufferedReader(new FileReader(historicoDaSala))) {
-                    String linha;
-                    boolean temConteudo = false;
-                    while ((linha = br.readLine()) != null) {
-                        if (!temConteudo) {
-                            out.println("\n---------- Histórico da sala ----------");
-                            temConteudo = true;
-                        }
-                        out.println(linha);
-                    }
-                    if (temConteudo) {
-                        out.println("---------------------------------------");
-                    }
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+        private void exibirPaginaHistorico(int pagina) {
+            if (sala == null) {
+                out.enviar("Você precisa estar em uma sala para ver o histórico.");
+                return;
+            }
+            if (pagina < 1) {
+                out.enviar("Página inválida. Use /historico <pagina>, sendo 1 a mais recente.");
+                return;
+            }
+
+            if (dentroDoLimite(ControleFluxo.Tipo.PESQUISA, sala)) {
+                acessarSala(sala).enviarHistorico(usuario, pagina);
             }
         }
 
         /**
          * Envia uma mensagem privada para um usuário específico.
-         * @param mensagem A mensagem privada a ser enviada
+         * @param mensagem A linha no formato @nome mensagem
          */
-        private synchronized void enviarMensagemPrivada(String mensagem) {
+        private void enviarMensagemPrivada(String mensagem) {
             int index = mensagem.indexOf(" ");
             if (index != -1) {
-                String destinatario = mensagem.substring(1, index).trim();
-                String mensagemPrivada = mensagem.substring(index + 1).trim();
-
-                // obtém os usuários na sala atual do cliente
-                Set<PrintWriter> clientesNaSala = salasChat.get(sala); 
-                
-                boolean encontrado = false;
-                for (Map.Entry<PrintWriter, String> entry : usuarios.entrySet()) {
-                    if (entry.getValue().equals(destinatario) && clientesNaSala.contains(entry.getKey())) { // checa se usuário é o destinatário e se está na mesma sala
-                        PrintWriter destinatarioOut = entry.getKey();
-                        destinatarioOut.println("Mensagem privada de " + nomeCliente + ": " + mensagemPrivada);
-                        System.out.println("Usuário " + nomeCliente + " enviou mensagem privada para o usuário " + destinatario);
-                        encontrado = true;
-                        break;
-                    }
-                }
-                if (!encontrado) {
-                    out.println("Usuário " + destinatario + " não encontrado.");
-                }
+                enviarMensagemPrivada(mensagem.substring(1, index).trim(), mensagem.substring(index + 1).trim());
             } else {
-                out.println("Formato incorreto para mensagem privada. Use @<nome_usuario> <mensagem>.");
+                out.enviar("Formato incorreto para mensagem privada. Use @<nome_usuario> <mensagem>.");
             }
         }
 
         /**
-         * Pesquisa mensagens no histórico da sala.
-         * @param string O termo a ser pesquisado
+         * Envia uma mensagem privada para um membro da sala atual do cliente.
          */
-        private synchronized void pesquisarMensagem(String string) {
-            // Valida se a sala não está vazia
-            if (!sala.isEmpty()) {
-                // Verifica se a string a ser pesquisada foi fornecida
-                if (string == null || string.trim().isEmpty()) {
-                    out.println("Digite uma mensagem a ser pesquisada.");
-                    return; // Sai do método se a string estiver vazia
-                }
-
-                // Valida se o histórico da sala existe
-                if (historicoDaSala.exists()) {
-                    try (BufferedReader br = new BufferedReader(new FileReader(historicoDaSala))) {
-                        String linha;
-                        out.println("\n--- Resultados da Pesquisa ---");
-                        boolean encontrou = false; // Flag para checar se encontrou resultados
-                        while ((linha = br.readLine()) != null) {
-                            if (linha.contains(string)) {
-                                out.println(linha);
-                                encontrou = true; // Marca a flag como true, caso encontre a mensagem
-                            }
-                        }
-                        if (!encontrou) {
-                            out.println("Nenhum resultado encontrado para: " + string);
-                        }
-                        out.println("------------------------------");
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                } else {
-                    out.println("Histórico de mensagens não encontrado.");
+        private void enviarMensagemPrivada(String destinatario, String mensagemPrivada) {
+            destinatario = Protocolo.semControle(destinatario); // Repetido no "não encontrado"
+            mensagemPrivada = Protocolo.semControle(mensagemPrivada);
+            // o destinatário é procurado entre os membros da sala atual do cliente
+            if (sala != null) {
+                if (dentroDoLimite(ControleFluxo.Tipo.CHAT, sala)) {
+                    acessarSala(sala).enviarPrivada(usuario, destinatario, mensagemPrivada);
                 }
             } else {
-                out.println("Você precisa estar em uma sala para pesquisar a mensagem.");
+                out.enviar("Usuário " + destinatario + " não encontrado.");
             }
         }
 
         /**
-         * Exibe a lista de salas de chat disponíveis.
+         * @return O número da página informado no /historico (1 se vazio), ou 0 se não for um número
          */
-        private synchronized void listarSalas() {
-            if (salasChat.isEmpty()) {
-                out.println("Nenhuma sala de chat disponível.");
-            } else {
-                out.println("Salas disponíveis:");
-                for (String nomeSala : salasChat.keySet()) {
-                    out.println("- " + nomeSala);
-                }
+        private static int numeroPagina(String argumento) {
+            try {
+                return argumento.isEmpty() ? 1 : Integer.parseInt(argumento);
+            } catch (NumberFormatException e) {
+                return 0;
             }
         }
 
         /**
-         * Desconecta o cliente do servidor e limpa recursos.
+         * Pesquisa mensagens no histórico da sala usando o índice de busca.
+         * Aceita palavras, "frases entre aspas" e os filtros de:nome, desde:dd-MM-yyyy, ate:dd-MM-yyyy e limite:N.
+         * @param string A consulta a ser pesquisada
          */
-        private synchronized void desconectarCliente() throws IOException {
-            final String ANSI_RESET = "\u001B[0m";
-            final String ANSI_RED = "\u001B[31m";
-
-            try {
-                if(!sala.isEmpty()) { // Verifica se o usuário está em uma sala
-                    sairDaSala(); // Remove o cliente da sala
+        private void pesquisarMensagem(String string) {
+            string = Protocolo.semControle(string); // Repetida no "Nenhum resultado"
+            // Valida se o cliente está em uma sala
+            if (sala != null) {
+                try {
+                    new IndiceBusca.Consulta(string, LIMITE_PESQUISA);
+                } catch (IllegalArgumentException e) {
+                    out.enviar(e.getMessage());
+                    return; // Sai do método se a consulta for inválida
                 }
-
-                if (out != null) {
-                    out.println("[Sistema] Desconectando do servidor..."); // Notifica o cliente da desconexão
-                    out.flush();
-                    try {
-                        Thread.sleep(100); // Aguarda para garantir a entrega da mensagem
-                    } catch (InterruptedException e) {
-                        throw new RuntimeException(e);
-                    }
-                    out.close(); // Fecha o PrintWriter
+                if (dentroDoLimite(ControleFluxo.Tipo.PESQUISA, sala)) {
+                    acessarSala(sala).pesquisar(usuario, string);
                 }
+            } else {
+                out.enviar("Você precisa estar em uma sala para pesquisar a mensagem.");
+            }
+        }
 
-                if (in != null) {
-                    in.close();
-                }
+        /**
+         * Exibe a lista de salas de chat disponíveis, uma página de até {@link #TAMANHO_PAGINA_SALAS}
+         * salas, em ordem alfabética, a partir da sala (ou do início de nome) informada. O catálogo
+         * pode ter centenas de milhares de salas, então nunca é enviado inteiro. No modo cluster,
+         * junta as páginas de todos os nós.
+         * @param primeira A primeira sala da página; vazio para começar do início
+         */
+        private void listarSalas(String primeira) {
+            String desde = Protocolo.semControle(primeira); // Repetido no "Nenhuma sala a partir de"
+            if (cluster == null) {
+                listarSalas(desde, catalogo.pagina(desde, TAMANHO_PAGINA_SALAS + 1), catalogo.tamanho());
+            } else {
+                cluster.listarSalas(desde, TAMANHO_PAGINA_SALAS + 1).thenAccept(pagina -> listarSalas(desde, pagina, -1));
+            }
+        }
 
-                if (socket != null && !socket.isClosed()) {
-                    socket.close(); // Fecha o socket do cliente, se ainda estiver aberto
-                }
+        /**
+         * @param pagina As salas da página e, se houver, a primeira da página seguinte
+         * @param total Salas no catálogo, ou -1 se não for conhecido
+         */
+        private void listarSalas(String desde, List<String> pagina, int total) {
+            if (pagina.isEmpty()) {
+                out.enviar(desde.isEmpty() ? "Nenhuma sala de chat disponível." : "Nenhuma sala a partir de " + desde + ".");
+                return;
+            }
+            out.enviar(total < 0 ? "Salas disponíveis:" : "Salas disponíveis (" + total + " no total):");
+            for (String nomeSala : pagina.subList(0, Math.min(pagina.size(), TAMANHO_PAGINA_SALAS))) {
+                out.enviar("- " + nomeSala);
+            }
+            if (pagina.size() > TAMANHO_PAGINA_SALAS) {
+                out.enviar("(Use /salas " + pagina.get(TAMANHO_PAGINA_SALAS) + " para ver as próximas)");
+            }
+        }
 
-            } catch (IOException e) {
-                System.out.println(ANSI_RED + "Erro ao fechar a conexão: " + e.getMessage() + ANSI_RESET);
-                e.printStackTrace();
+        /**
+         * Desconecta o cliente do servidor e limpa recursos.
+         */
+        private void desconectarCliente() {
+            if(sala != null) { // Verifica se o usuário está em uma sala
+                // A sala processa a saída depois do fechamento, então a confirmação vai daqui
+                out.enviar("Você saiu da " + sala + ".");
+                sairDaSala(false); // Remove o cliente da sala
             }
+
+            out.enviar(Protocolo.Tipo.SISTEMA, "Desconectando do servidor..."); // Notifica o cliente da desconexão
+            out.fechar(); // Fecha a conexão depois de entregar o que estiver pendente
         }
       
         /**
          * Lista todos os usuários conectados na sala atual.
          */
-        private synchronized void listarUsuariosOnline() {
-            if (!sala.isEmpty()) {
-                Set<PrintWriter> membrosSala = salasChat.get(sala);
-                out.println("\n-- Usuários Online na: " + sala + " --");
-
-                if (membrosSala != null && !membrosSala.isEmpty()) {
-                    for (PrintWriter writer : membrosSala) {
-                        // Verifique se o nome do usuário está disponível
-                        String nomeUsuario;
-                        synchronized (usuarios) {
-                            nomeUsuario = usuarios.get(writer); // Obtém o nome do usuário a partir do PrintWriter
-                        }
-                        if (nomeUsuario != null) {
-                            if (writer == out) { // Verifica se o PrintWriter é o mesmo do cliente que chamou o método
-                                out.println("- " + nomeUsuario + " (você)"); // Adiciona o (você), depois do nome
-                            } else {
-                                out.println("- " + nomeUsuario); // Imprime o resto dos usuários
-                            }
-                        } else {
-                            System.out.println("Nome de usuário não encontrado para o PrintWriter: " + writer);
-                        }
-                    }
-                } else {
-                    out.println("Nenhum usuário conectado na sala.");
-                }
-                out.println("-------------------------------");
+        private void listarUsuariosOnline() {
+            if (sala != null) {
+                acessarSala(sala).listarMembros(usuario);
             } else {
-                out.println("Você não está em uma sala. Use /join <nome_sala> para entrar em uma.");
+                out.enviar("Você não está em uma sala. Use /join <nome_sala> para entrar em uma.");
+            }
+        }
+
+        /**
+         * Lista as conexões com mais mensagens aguardando escrita, para identificar clientes lentos.
+         * Restrito aos nomes em ADMINISTRADORES, como o /stats. As filas mudam enquanto a lista é
+         * montada, então cada uma é lida uma vez e a ordenação usa essas leituras.
+         */
+        private void listarFilasSaida() {
+            if (!ADMINISTRADORES.contains(nomeCliente)) {
+                out.enviar(Protocolo.Tipo.ERRO, "O comando /filas é restrito a administradores.");
+                return;
+            }
+            List<FilaUsuario> filas = new ArrayList<>();
+            for (RegistroUsuarios.Usuario u : registro.usuarios()) {
+                FilaUsuario fila = new FilaUsuario(u.nome, u.conexao.tamanhoFilaSaida(), u.conexao.mensagensDescartadas());
+                if (fila.pendentes > 0 || fila.descartadas > 0) {
+                    filas.add(fila);
+                }
+            }
+            filas.sort((a, b) -> Integer.compare(b.pendentes, a.pendentes));
+
+            out.enviar("\n-- Filas de saída (limite " + CAPACIDADE_FILA_SAIDA + ", política " + POLITICA_FILA_SAIDA + ") --");
+            if (filas.isEmpty()) {
+                out.enviar("Nenhuma conexão com mensagens pendentes.");
+            }
+            for (FilaUsuario fila : filas.subList(0, Math.min(10, filas.size()))) {
+                out.enviar("- " + fila.nome + ": " + fila.pendentes + " pendentes, " + fila.descartadas + " descartadas");
+            }
+            out.enviar(String.format("Entrega nas salas: %d mensagens, média %.2f ms, máximo %.2f ms (paralela a partir de %d membros)",
+                    Metricas.FANOUT.quantidade(), Metricas.FANOUT.mediaMillis(), Metricas.FANOUT.maximoMillis(), LIMIAR_FANOUT_PARALELO));
+            out.enviar("-------------------------------");
+        }
+
+        /**
+         * Exibe as métricas do servidor. Restrito aos nomes em ADMINISTRADORES.
+         */
+        private void mostrarEstatisticas() {
+            if (!ADMINISTRADORES.contains(nomeCliente)) {
+                out.enviar(Protocolo.Tipo.ERRO, "O comando /stats é restrito a administradores.");
+                return;
+            }
+            out.enviar("");
+            for (String linha : Metricas.relatorio()) {
+                out.enviar(linha);
+            }
+            for (String linha : controleFluxo.relatorio(5)) {
+                out.enviar(linha);
             }
+            out.enviar("-------------------------------");
         }
 
         /** 
          * Exibe a lista de comandos disponíveis para o usuário.
          */
-        private synchronized void mostrarComandos() {
-            out.println("Comandos disponíveis:");
-            out.println("- /help (exibe o menu de comandos)");
-            out.println("- /join <nome_sala> (permite entrar em uma sala)");
-            out.println("- /sair (sai de uma sala)");
-            out.println("- /desconectar (sai do servidor)");
-            out.println("- /salas (lista as salas existentes no servidor)");
-            out.println("- /usuarios (exibe os usuários online dentro de uma sala)");
-            out.println("- /pesquisar <mensagem> (exibe as mensagens correspondentes na sala)");
-            out.println("- @nomeUsuário <mensagem> (envia a mensagem somente para um determinado usuário)\n");
+        private void mostrarComandos() {
+            out.enviar("Comandos disponíveis:");
+            out.enviar("- /help (exibe o menu de comandos)");
+            out.enviar("- /join <nome_sala> (permite entrar em uma sala)");
+            out.enviar("- /retomar <ultima_sequencia> <nome_sala> (volta à sala recebendo só as mensagens posteriores; usado pelo cliente ao reconectar)");
+            out.enviar("- /sair (sai de uma sala)");
+            out.enviar("- /desconectar (sai do servidor)");
+            out.enviar("- /salas [sala] (lista as salas existentes no servidor, " + TAMANHO_PAGINA_SALAS + " por vez, a partir da sala informada)");
+            out.enviar("- /usuarios (exibe os usuários online dentro de uma sala)");
+            out.enviar("- /historico <pagina> (exibe mensagens anteriores da sala; 1 é a página mais recente)");
+            out.enviar("- /pesquisar <palavras> (exibe as mensagens correspondentes na sala; aceita \"frases\", de:nome, desde:dd-MM-yyyy, ate:dd-MM-yyyy e limite:N)");
+            out.enviar("- /filas (exibe as conexões com mais mensagens pendentes de envio; apenas administradores)");
+            out.enviar("- /stats (exibe as métricas do servidor; apenas administradores)");
+            out.enviar("- @nomeUsuário <mensagem> (envia a mensagem somente para um determinado usuário)\n");
         }
     }
 }
@@ -0,0 +1,87 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import org.junit.jupiter.api.Test;
+
+class AnelHashTest {
+    private static final List<String> NOS = List.of("10.0.0.1:6001", "10.0.0.2:6001", "10.0.0.3:6001");
+    private static final int VIRTUAIS = 128;
+
+    private static List<String> chaves(int quantidade) {
+        List<String> chaves = new ArrayList<>();
+        for (int i = 0; i < quantidade; i++) {
+            chaves.add("sala" + i);
+        }
+        return chaves;
+    }
+
+    @Test
+    void anelVazioNaoTemDono() {
+        assertNull(new AnelHash(List.of(), VIRTUAIS).dono("geral"));
+    }
+
+    @Test
+    void donoNaoDependeDaOrdemDosNos() {
+        AnelHash anel = new AnelHash(NOS, VIRTUAIS);
+        List<String> invertidos = new ArrayList<>(NOS);
+        Collections.reverse(invertidos);
+        AnelHash outro = new AnelHash(invertidos, VIRTUAIS);
+        for (String chave : chaves(1000)) {
+            assertEquals(anel.dono(chave), outro.dono(chave), chave);
+            assertTrue(NOS.contains(anel.dono(chave)));
+        }
+    }
+
+    @Test
+    void chavesSeEspalhamPorTodosOsNos() {
+        AnelHash anel = new AnelHash(NOS, VIRTUAIS);
+        Map<String, Integer> porNo = new HashMap<>();
+        for (String chave : chaves(30000)) {
+            porNo.merge(anel.dono(chave), 1, Integer::sum);
+        }
+        assertEquals(NOS.size(), porNo.size());
+        for (int quantidade : porNo.values()) {
+            // Um terço cada, com folga para a variação dos pontos virtuais
+            assertTrue(quantidade > 30000 / 3 * 0.7 && quantidade < 30000 / 3 * 1.3, porNo.toString());
+        }
+    }
+
+    @Test
+    void saidaDeUmNoSoMoveAsChavesDele() {
+        AnelHash anel = new AnelHash(NOS, VIRTUAIS);
+        AnelHash sem = anel.sem(NOS.get(1), VIRTUAIS);
+        assertEquals(Set.of(NOS.get(0), NOS.get(2)), sem.nos());
+        for (String chave : chaves(5000)) {
+            String antes = anel.dono(chave);
+            String depois = sem.dono(chave);
+            if (antes.equals(NOS.get(1))) {
+                assertNotEquals(NOS.get(1), depois, chave);
+            } else {
+                assertEquals(antes, depois, chave);
+            }
+        }
+    }
+
+    @Test
+    void entradaDeUmNoSoLevaChavesParaEle() {
+        AnelHash anel = new AnelHash(NOS, VIRTUAIS);
+        List<String> mais = new ArrayList<>(NOS);
+        mais.add("10.0.0.4:6001");
+        AnelHash maior = new AnelHash(mais, VIRTUAIS);
+        int movidas = 0;
+        for (String chave : chaves(5000)) {
+            String depois = maior.dono(chave);
+            if (!depois.equals(anel.dono(chave))) {
+                assertEquals("10.0.0.4:6001", depois, chave);
+                movidas++;
+            }
+        }
+        assertTrue(movidas > 0);
+    }
+
+    @Test
+    void hashEspalhaChavesParecidas() {
+        assertNotEquals(AnelHash.hash("sala1"), AnelHash.hash("sala2"));
+        assertEquals(AnelHash.hash("sala1"), AnelHash.hash("sala1"));
+    }
+}
@@ -0,0 +1,123 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class HandlerTest {
+    private final List<ServidorChat.Handler> abertos = new ArrayList<>();
+
+    /**
+     * Conexão de um cliente binário que guarda as linhas recebidas, já convertidas para texto.
+     */
+    private static class ConexaoGravada implements Conexao {
+        final List<String> linhas = new ArrayList<>();
+
+        @Override
+        public boolean binaria() {
+            return true;
+        }
+
+        @Override
+        public synchronized void enviar(ByteBuffer quadros) {
+            String texto = StandardCharsets.UTF_8.decode(Protocolo.paraTexto(quadros)).toString();
+            linhas.addAll(Arrays.asList(texto.split("\n")));
+        }
+
+        @Override
+        public void fechar() {
+        }
+
+        @Override
+        public int tamanhoFilaSaida() {
+            return 0;
+        }
+
+        @Override
+        public long mensagensDescartadas() {
+            return 0;
+        }
+
+        synchronized String ultima() {
+            return linhas.get(linhas.size() - 1);
+        }
+    }
+
+    private ServidorChat.Handler conectar(ConexaoGravada conexao) {
+        ServidorChat.Handler handler = new ServidorChat.Handler(conexao);
+        handler.iniciar();
+        abertos.add(handler);
+        return handler;
+    }
+
+    /**
+     * @return O quadro sem o tamanho da frente, como o motor entrega ao Handler
+     */
+    private static ByteBuffer quadro(byte opcode, String texto) {
+        Protocolo.Quadro quadro = new Protocolo.Quadro(opcode);
+        quadro.escrever(texto);
+        ByteBuffer finalizado = quadro.finalizar();
+        return Protocolo.proximoQuadro(finalizado.duplicate());
+    }
+
+    @AfterEach
+    void encerrar() {
+        abertos.forEach(ServidorChat.Handler::encerrar);
+    }
+
+    @Test
+    void nomeDepoisDoLoginERecusado() {
+        ConexaoGravada conexao = new ConexaoGravada();
+        ServidorChat.Handler handler = conectar(conexao);
+        handler.processarQuadro(quadro(Protocolo.NOME, "teste-ana"));
+        assertEquals("teste-ana", handler.getNomeCliente());
+
+        handler.processarQuadro(quadro(Protocolo.NOME, "teste-bia"));
+        assertEquals("[Erro] Você já informou seu nome.", conexao.ultima());
+        assertEquals("teste-ana", handler.getNomeCliente());
+
+        // O primeiro nome continua reservado e o segundo continua livre
+        ConexaoGravada outra = new ConexaoGravada();
+        ServidorChat.Handler segundo = conectar(outra);
+        segundo.processarQuadro(quadro(Protocolo.NOME, "teste-ana"));
+        assertNull(segundo.getNomeCliente());
+        segundo.processarQuadro(quadro(Protocolo.NOME, "teste-bia"));
+        assertEquals("teste-bia", segundo.getNomeCliente());
+    }
+
+    @Test
+    void nomesComQuebraDeLinhaSaoRecusados() {
+        ConexaoGravada conexao = new ConexaoGravada();
+        ServidorChat.Handler handler = conectar(conexao);
+        handler.processarQuadro(quadro(Protocolo.NOME, "teste-ana\n[Sistema]"));
+        assertNull(handler.getNomeCliente());
+        assertTrue(conexao.ultima().startsWith("[Erro] Nome inválido."));
+
+        handler.processarQuadro(quadro(Protocolo.NOME, "teste-carla"));
+        handler.processarQuadro(quadro(Protocolo.ENTRAR, "sala\r\nfalsa"));
+        assertTrue(conexao.ultima().startsWith("[Erro] Nome de sala inválido."));
+    }
+
+    @Test
+    void nomesDeSalaQueViramCaminhosSaoRecusados() {
+        for (String nome : new String[] {"../../tmp/x", "a/b", "a\\b", ".", "..", "catalogo.salas", "salas.instantaneo",
+                "sala.tmp", "con", "NUL", "com1", "sala com espaço", "x".repeat(ServidorChat.TAMANHO_MAXIMO_NOME_SALA + 1)}) {
+            assertFalse(ServidorChat.Handler.nomeSalaValido(nome), nome);
+        }
+        for (String nome : new String[] {"geral", "sala_1", "bench-fanout-10", "ação", "console", "x".repeat(ServidorChat.TAMANHO_MAXIMO_NOME_SALA)}) {
+            assertTrue(ServidorChat.Handler.nomeSalaValido(nome), nome);
+        }
+
+        ConexaoGravada conexao = new ConexaoGravada();
+        ServidorChat.Handler handler = conectar(conexao);
+        handler.processarQuadro(quadro(Protocolo.NOME, "teste-davi"));
+        handler.processarQuadro(quadro(Protocolo.ENTRAR, "../../tmp/x"));
+        assertTrue(conexao.ultima().startsWith("[Erro] Nome de sala inválido."));
+        assertFalse(new File(ServidorChat.HISTORICO_DIR, "../../tmp/x").exists());
+    }
+}
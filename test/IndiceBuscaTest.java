@@ -0,0 +1,100 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class IndiceBuscaTest {
+    @TempDir
+    File diretorio;
+
+    /**
+     * Grava as mensagens em um log novo e pesquisa a consulta nele.
+     * @return Os textos encontrados, do mais antigo para o mais novo
+     */
+    private List<String> pesquisar(String consulta, String... textos) throws IOException {
+        try (LogSegmentado log = new LogSegmentado(new File(diretorio, "sala"), 64 * 1024, 4096)) {
+            List<Mensagem> mensagens = new ArrayList<>();
+            long agora = System.currentTimeMillis();
+            for (String texto : textos) {
+                mensagens.add(new Mensagem(mensagens.size(), agora, "ana", texto));
+            }
+            log.anexar(mensagens);
+            IndiceBusca indice = new IndiceBusca(log, new File(diretorio, "sala.indice"));
+            List<String> encontrados = new ArrayList<>();
+            for (Mensagem mensagem : indice.pesquisar(new IndiceBusca.Consulta(consulta, 50))) {
+                encontrados.add(mensagem.texto);
+            }
+            return encontrados;
+        }
+    }
+
+    @Test
+    void fraseCasaSoComPalavrasInteiras() throws IOException {
+        assertEquals(List.of("Olá, mundo!", "mundo ola mundo"),
+                pesquisar("\"ola mundo\"", "Olá, mundo!", "mundo cola mundos ola", "mundo ola mundo", "ola mundial mundo"));
+    }
+
+    @Test
+    void fraseRespeitaAOrdem() throws IOException {
+        assertEquals(List.of("bom dia a todos"), pesquisar("\"bom dia\"", "dia bom", "bom dia a todos"));
+    }
+
+    @Test
+    void palavrasSoltasNaoPrecisamDeOrdem() throws IOException {
+        assertEquals(List.of("dia bom", "bom dia a todos"), pesquisar("dia bom", "dia bom", "bom dia a todos", "boa noite"));
+    }
+
+    @Test
+    void consultaVaziaEhRecusada() {
+        assertThrows(IllegalArgumentException.class, () -> new IndiceBusca.Consulta("\"\"", 50));
+    }
+
+    @Test
+    void fraseEncontradaDepoisDeMuitosCandidatos() throws IOException {
+        String[] textos = new String[600];
+        textos[0] = "ola mundo";
+        for (int i = 1; i < textos.length; i++) {
+            textos[i] = "mundo ola " + i; // Candidatos pelas palavras, descartados pela frase
+        }
+        assertEquals(List.of("ola mundo"), pesquisar("\"ola mundo\"", textos));
+    }
+
+    @Test
+    void mensagensIndexadasDuranteAsPesquisasSaoEncontradas() throws Exception {
+        try (LogSegmentado log = new LogSegmentado(new File(diretorio, "sala"), 64 * 1024, 4096)) {
+            log.anexar(List.of(new Mensagem(0, System.currentTimeMillis(), "ana", "primeira")));
+            IndiceBusca indice = new IndiceBusca(log, new File(diretorio, "sala.indice"));
+            assertEquals(1, indice.pesquisar(new IndiceBusca.Consulta("de:ana", 5000)).size()); // Monta o índice
+
+            int total = 2000;
+            AtomicReference<Throwable> falha = new AtomicReference<>();
+            Thread escritor = new Thread(() -> {
+                try {
+                    for (int i = 1; i < total; i++) {
+                        Mensagem mensagem = new Mensagem(i, System.currentTimeMillis(), "ana", "mensagem " + i);
+                        log.anexar(List.of(mensagem));
+                        indice.indexar(mensagem);
+                    }
+                } catch (Throwable e) {
+                    falha.set(e);
+                }
+            });
+            escritor.start();
+            while (escritor.isAlive()) {
+                indice.pesquisar(new IndiceBusca.Consulta("mensagem", 50));
+            }
+            escritor.join();
+            assertNull(falha.get());
+            assertEquals(total, indice.pesquisar(new IndiceBusca.Consulta("de:ana", 5000)).size());
+
+            indice.salvar();
+            IndiceBusca reaberto = new IndiceBusca(log, new File(diretorio, "sala.indice"));
+            assertEquals(total - 1, reaberto.pesquisar(new IndiceBusca.Consulta("mensagem", 5000)).size());
+        }
+    }
+}
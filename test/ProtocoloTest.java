@@ -0,0 +1,162 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class ProtocoloTest {
+
+    /**
+     * @return O quadro sem o tamanho da frente, pronto para ler o opcode
+     */
+    private static ByteBuffer abrir(ByteBuffer finalizado) {
+        ByteBuffer quadro = Protocolo.proximoQuadro(finalizado.duplicate());
+        assertNotNull(quadro);
+        return quadro;
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    @Test
+    void numerosENTextosVoltamComoForamEscritos() {
+        long[] numeros = {0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE, Long.MAX_VALUE, -1};
+        Protocolo.Quadro escrito = new Protocolo.Quadro(Protocolo.MENSAGEM);
+        for (long numero : numeros) {
+            escrito.escrever(numero);
+        }
+        escrito.escrever("olá, ação");
+        escrito.escrever("");
+
+        ByteBuffer quadro = abrir(escrito.finalizar());
+        assertEquals(Protocolo.MENSAGEM, quadro.get());
+        for (long numero : numeros) {
+            assertEquals(numero, Protocolo.lerNumero(quadro));
+        }
+        assertEquals("olá, ação", Protocolo.lerTexto(quadro));
+        assertEquals("", Protocolo.lerTexto(quadro));
+        assertFalse(quadro.hasRemaining());
+    }
+
+    @Test
+    void tamanhoDaFrenteUsaDeUmATresBytes() {
+        for (int conteudo : new int[] {1, 127, 128, 16383, 16384, Protocolo.LIMITE_QUADRO}) {
+            Protocolo.Quadro escrito = new Protocolo.Quadro(Protocolo.TEXTO);
+            escrito.escrever(ByteBuffer.allocate(conteudo - 1));
+            assertEquals(conteudo, escrito.tamanho());
+            ByteBuffer finalizado = escrito.finalizar();
+            int bytesTamanho = conteudo < 1 << 7 ? 1 : conteudo < 1 << 14 ? 2 : 3;
+            assertEquals(bytesTamanho + conteudo, finalizado.remaining());
+            assertEquals(conteudo, abrir(finalizado).remaining());
+        }
+    }
+
+    @Test
+    void quadroAcimaDoLimiteNaoFinaliza() {
+        Protocolo.Quadro escrito = new Protocolo.Quadro(Protocolo.TEXTO);
+        escrito.escrever(ByteBuffer.allocate(Protocolo.LIMITE_QUADRO));
+        assertThrows(IllegalArgumentException.class, escrito::finalizar);
+    }
+
+    @Test
+    void leituraDeQuadroIncompletoFalha() {
+        Protocolo.Quadro escrito = new Protocolo.Quadro(Protocolo.NOME);
+        escrito.escrever(10);
+        ByteBuffer quadro = abrir(escrito.finalizar());
+        quadro.get();
+        assertThrows(IllegalArgumentException.class, () -> Protocolo.lerTexto(quadro));
+        assertThrows(IllegalArgumentException.class, () -> Protocolo.lerNumero(ByteBuffer.allocate(0)));
+    }
+
+    @Test
+    void loteGuardaOsQuadrosNaOrdem() {
+        ByteBuffer primeiro = Protocolo.texto(Protocolo.Tipo.SISTEMA, "um");
+        ByteBuffer segundo = Protocolo.texto(Protocolo.Tipo.ERRO, "dois");
+        ByteBuffer lote = abrir(Protocolo.lote(List.of(primeiro, segundo)));
+        assertEquals(Protocolo.LOTE, lote.get());
+
+        ByteBuffer item = Protocolo.proximoQuadro(lote);
+        assertEquals(Protocolo.TEXTO, item.get());
+        assertEquals(Protocolo.Tipo.SISTEMA, Protocolo.lerTipo(item));
+        assertEquals("um", Protocolo.lerTexto(item));
+        item = Protocolo.proximoQuadro(lote);
+        assertEquals(Protocolo.TEXTO, item.get());
+        assertEquals(Protocolo.Tipo.ERRO, Protocolo.lerTipo(item));
+        assertEquals("dois", Protocolo.lerTexto(item));
+        assertNull(Protocolo.proximoQuadro(lote));
+
+        // Os quadros originais não são consumidos
+        assertArrayEquals(bytes(Protocolo.texto(Protocolo.Tipo.SISTEMA, "um")), bytes(primeiro));
+    }
+
+    @Test
+    void loteCortadoFalha() {
+        ByteBuffer lote = ByteBuffer.wrap(new byte[] {5, Protocolo.TEXTO, 0});
+        assertThrows(IllegalArgumentException.class, () -> Protocolo.proximoQuadro(lote));
+    }
+
+    @Test
+    void paraTextoMontaAsLinhasDoProtocoloDeTexto() {
+        ByteBuffer quadros = Protocolo.lote(List.of(
+                Protocolo.texto(Protocolo.Tipo.SISTEMA, "Bem-vindo"),
+                Protocolo.texto(Protocolo.Tipo.ERRO, "Comando inválido"),
+                Protocolo.mensagem(Protocolo.Tipo.PRIVADA, "geral", -1, 0, "ana", "oi")));
+        String linhas = StandardCharsets.UTF_8.decode(Protocolo.paraTexto(quadros)).toString();
+        assertEquals("[Sistema] Bem-vindo\n[Erro] Comando inválido\nMensagem privada de ana: oi\n", linhas);
+    }
+
+    @Test
+    void comandosDeTextoViramQuadros() {
+        ByteBuffer quadro = abrir(Protocolo.comando("@ana olá"));
+        assertEquals(Protocolo.PRIVADA, quadro.get());
+        assertEquals("ana", Protocolo.lerTexto(quadro));
+        assertEquals("olá", Protocolo.lerTexto(quadro));
+
+        quadro = abrir(Protocolo.comando("/salas b"));
+        assertEquals(Protocolo.SALAS, quadro.get());
+        assertEquals("b", Protocolo.lerTexto(quadro));
+
+        quadro = abrir(Protocolo.comando("bom dia"));
+        assertEquals(Protocolo.MENSAGEM, quadro.get());
+        assertEquals("bom dia", Protocolo.lerTexto(quadro));
+    }
+
+    @Test
+    void lerQuadroDeUmFluxo() throws IOException {
+        ByteBuffer primeiro = Protocolo.texto(Protocolo.Tipo.INFO, "a");
+        ByteBuffer segundo = Protocolo.comando("/sair");
+        ByteBuffer fluxo = ByteBuffer.allocate(primeiro.remaining() + segundo.remaining());
+        fluxo.put(primeiro.duplicate()).put(segundo.duplicate());
+        ByteArrayInputStream entrada = new ByteArrayInputStream(fluxo.array());
+
+        ByteBuffer quadro = Protocolo.lerQuadro(entrada);
+        assertEquals(Protocolo.TEXTO, quadro.get());
+        assertEquals(Protocolo.Tipo.INFO, Protocolo.lerTipo(quadro));
+        assertEquals("a", Protocolo.lerTexto(quadro));
+        assertEquals(Protocolo.SAIR, Protocolo.lerQuadro(entrada).get());
+        assertNull(Protocolo.lerQuadro(entrada));
+    }
+
+    @Test
+    void lerQuadroRecusaTamanhoInvalido() {
+        assertThrows(IOException.class, () -> Protocolo.lerQuadro(new ByteArrayInputStream(new byte[] {0})));
+        assertThrows(IOException.class, () -> Protocolo.lerQuadro(new ByteArrayInputStream(new byte[] {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x7F})));
+    }
+
+    @Test
+    void caracteresDeControleSaoTrocadosPorEspacos() {
+        assertFalse(Protocolo.temControle("olá, ação"));
+        assertTrue(Protocolo.temControle("ana\nbia"));
+        assertTrue(Protocolo.temControle("a\u2028b"));
+        String texto = "sem controle";
+        assertSame(texto, Protocolo.semControle(texto));
+        assertEquals("oi [Sistema] falso", Protocolo.semControle("oi\n[Sistema] falso"));
+        assertEquals("a b c d", Protocolo.semControle("a\rb\u001bc\td"));
+    }
+}